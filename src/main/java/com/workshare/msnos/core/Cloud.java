@@ -28,6 +28,7 @@ import com.workshare.msnos.core.payloads.Presence;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
 import com.workshare.msnos.core.protocols.ip.http.HttpGateway;
+import com.workshare.msnos.core.protocols.ip.udp.UDPGateway;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 import com.workshare.msnos.core.routing.Router;
 import com.workshare.msnos.core.security.Signer;
@@ -169,6 +170,22 @@ public class Cloud implements Identifiable {
         return gates;
     }
 
+    /**
+     * Returns the packet size received by the UDP gateway, to be advertised
+     * in the presences of the local agents when the wire version allows it
+     */
+    public Integer getPacketSize() {
+        if (!Version.CURRENT.isAtLeast(Presence.MIN_SIZED_VERSION))
+            return null;
+
+        for (Gateway gate : gates) {
+            if (gate instanceof UDPGateway)
+                return ((UDPGateway) gate).packetSize();
+        }
+
+        return null;
+    }
+
     public Receipt send(Message message) throws MsnosException {
         checkCloudAlive();
         return sender.send(this, sign(message));
@@ -188,7 +205,7 @@ public class Cloud implements Identifiable {
         log.debug("Local agent joined: {}", agent);
         localAgents.add(agent);
 
-        Receipt receipt = sendSync(new MessageBuilder(Message.Type.PRS, agent, this).with(new Presence(true, agent)).make());
+        Receipt receipt = sendSync(new MessageBuilder(Message.Type.PRS, agent, this).with(new Presence(true, agent.getEndpoints(), getPacketSize())).make());
         waitForDelivery(receipt, 1, TimeUnit.SECONDS);
         
         sendSync(new MessageBuilder(Message.Type.DSC, agent, this).make());
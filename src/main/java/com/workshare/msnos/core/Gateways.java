@@ -8,6 +8,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,7 @@ public class Gateways {
     public static final String SYSP_GATE_WWW_DISABLE =  "msnos.core.gateways.www.disable";
     public static final String SYSP_GATE_UDP_DISABLE  = "msnos.core.gateways.udp.disable";
     public static final String SYSP_GATE_HTTP_DISABLE = "msnos.core.gateways.http.disable";
+    public static final String SYSP_GATE_HTTP_ASYNC_DISABLE = "msnos.core.gateways.http.async.disable";
 
     private static Logger log = LoggerFactory.getLogger(Gateways.class);
 
@@ -122,7 +124,7 @@ public class Gateways {
             return null;
         }
         else
-            return new HttpGateway(newHttpClient());
+            return new HttpGateway(newHttpClient(), newHttpAsyncClient());
     }
 
     private static UDPGateway buildUDPGateway() {
@@ -166,6 +168,15 @@ public class Gateways {
         return HttpClientFactory.newHttpClient();
     }
 
+    private static HttpAsyncClient newHttpAsyncClient() {
+        if (Boolean.getBoolean(SYSP_GATE_HTTP_ASYNC_DISABLE)) {
+            log.warn("HTTP Gateway will block on sends, asynchronous client disabled by system property!");
+            return null;
+        }
+
+        return HttpClientFactory.newHttpAsyncClient();
+    }
+
     private static ScheduledExecutorService newScheduler() {
         return ExecutorServices.newSingleThreadScheduledExecutor();
     }
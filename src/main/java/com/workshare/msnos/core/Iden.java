@@ -2,7 +2,6 @@ package com.workshare.msnos.core;
 
 import java.util.UUID;
 
-import com.workshare.msnos.soup.json.Json;
 
 /**
  * A unique identifier for an entity in the msnos system. 
@@ -53,7 +52,7 @@ public class Iden {
 
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return type + ":" + uuid;
     }
 
     @Override
@@ -124,7 +124,7 @@ public class LocalAgent implements Agent {
     private void processDiscovery(Message message) {
         log.debug("Processing discovery: {}", message);
         try {
-            send(new MessageBuilder(Message.Type.PRS, this, cloud).with(new Presence(true, this)).make());
+            send(new MessageBuilder(Message.Type.PRS, this, cloud).with(new Presence(true, getEndpoints(), cloud.getPacketSize())).make());
         } catch (MsnosException e) {
             log.warn("Could not send message. ", e);
         }
@@ -7,7 +7,6 @@ import java.util.UUID;
 import com.workshare.msnos.core.payloads.NullPayload;
 import com.workshare.msnos.core.payloads.PongPayload;
 import com.workshare.msnos.core.payloads.TracePayload;
-import com.workshare.msnos.soup.json.Json;
 import com.workshare.msnos.soup.time.SystemTime;
 
 public class Message {
@@ -26,7 +25,7 @@ public class Message {
         APP, PRS, DSC, PIN, PON, ACK, ENQ, FLT, QNE, HCK, TRC, CRT
     }
 
-    private final Version version = Version.V1_0;
+    private final Version version;
     private final UUID uuid;
     private final Type type;
     private final Iden from;
@@ -40,13 +39,19 @@ public class Message {
     private final String sig;
     private final String rnd;
 
+    private transient volatile Encoded encoded;
+
     private static final SecureRandom random = new SecureRandom();
 
-    Message(Type type, Iden from, Iden to, int hops, boolean reliable, Payload data, UUID uuid, String sig, String rnd, long when, String gate) {
+    // as many as the wire formats a message can be encoded to: json, binary and deflated
+    private static final int MAX_ENCODINGS = 3;
+
+    Message(Version version, Type type, Iden from, Iden to, int hops, boolean reliable, Payload data, UUID uuid, String sig, String rnd, long when, String gate) {
         if (reliable && to.getType() == Iden.Type.CLD) {
             throw new IllegalArgumentException("Cannot create a reliable message to the whole cloud!");
         }
 
+        this.version = (version == null ? Version.CURRENT : version);
         this.uuid = uuid == null ? UUID.randomUUID() : uuid;
         this.type = type;
         this.when = (when == 0 ? SystemTime.asMillis() : when);
@@ -121,22 +126,67 @@ public class Message {
         return gateName;
     }
 
+    /**
+     * Returns the wire form memoized for this format, if any. Messages are
+     * immutable, so the memo is valid for the whole life of the instance: any
+     * change to hops, data or signature produces a new message.
+     */
+    public byte[] getEncoded(Object format) {
+        for (Encoded current = encoded; current != null; current = current.next) {
+            if (current.format == format)
+                return current.data;
+        }
+        return null;
+    }
+
+    public void setEncoded(Object format, byte[] data) {
+        encoded = new Encoded(format, data, others(encoded, format, MAX_ENCODINGS - 1));
+    }
+
+    // the most recent encodings of the other formats, the oldest ones dropped
+    private static Encoded others(Encoded current, Object format, int count) {
+        while (current != null && current.format == format)
+            current = current.next;
+
+        if (current == null || count == 0)
+            return null;
+
+        return new Encoded(current.format, current.data, others(current.next, format, count - 1));
+    }
+
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return type + ":" + uuid + " " + from + " -> " + to + " (v" + version + ", hops=" + hops + ", reliable=" + reliable + ", data=" + data + ")";
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o)
+            return true;
+
         try {
-            String jsonThis = Json.toJsonString(this);
-            String jsonThat = Json.toJsonString(o);
-            return jsonThis.equals(jsonThat);
+            Message other = (Message) o;
+            return type == other.type
+                && hops == other.hops
+                && reliable == other.reliable
+                && when == other.when
+                && areEquals(uuid, other.uuid)
+                && areEquals(from, other.from)
+                && areEquals(to, other.to)
+                && areEquals(version, other.version)
+                && areEquals(sig, other.sig)
+                && areEquals(rnd, other.rnd)
+                && areEquals(gateName, other.gateName)
+                && areEquals(data, other.data);
         } catch (Exception any) {
             return false;
         }
     }
 
+    private static boolean areEquals(Object o1, Object o2) {
+        return o1 == o2 || (o1 != null && o1.equals(o2));
+    }
+
     @Override
     public int hashCode() {
         int result = uuid != null ? uuid.hashCode() : 0;
@@ -148,29 +198,41 @@ public class Message {
         return result;
     }
 
+    private static class Encoded {
+        private final Object format;
+        private final byte[] data;
+        private final Encoded next;
+
+        Encoded(Object format, byte[] data, Encoded next) {
+            this.format = format;
+            this.data = data;
+            this.next = next;
+        }
+    }
+
     public Message data(Payload load) {
-        return new Message(type, from, to, hops, reliable, load, uuid, sig, rnd, when, gateName);
+        return new Message(version, type, from, to, hops, reliable, load, uuid, sig, rnd, when, gateName);
     }
 
     public Message hopped() {
-        return new Message(type, from, to, hops - 1, reliable, data, uuid, sig, rnd, when, gateName);
+        return new Message(version, type, from, to, hops - 1, reliable, data, uuid, sig, rnd, when, gateName);
     }
 
     public Message withHops(int hops) {
         if (hops == this.hops)
             return this;
         else
-            return new Message(type, from, to, hops, reliable, data, uuid, sig, rnd, when, gateName);
+            return new Message(version, type, from, to, hops, reliable, data, uuid, sig, rnd, when, gateName);
     }
 
     public Message signed(String keyId, String signature) {
         String sign = keyId + ":" + signature;
-        return new Message(type, from, to, hops, reliable, data, uuid, sign, rnd, when, gateName);
+        return new Message(version, type, from, to, hops, reliable, data, uuid, sign, rnd, when, gateName);
     }
 
     public Message fromGate(String newGateName) {
         if (newGateName != null || gateName != null) {
-            return new Message(type, from, to, hops - 1, reliable, data, uuid, sig, rnd, when, newGateName);
+            return new Message(version, type, from, to, hops - 1, reliable, data, uuid, sig, rnd, when, newGateName);
         } else {
             return this;
         }
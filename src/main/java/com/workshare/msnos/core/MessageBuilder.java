@@ -11,6 +11,7 @@ public class MessageBuilder {
     private final Iden from;
     private final Iden to;
 
+    private Version version = Version.CURRENT;
     private UUID uuid = null;
     private int hops = 3;
     private boolean reliable = false;
@@ -39,6 +40,11 @@ public class MessageBuilder {
         this.to = to;
     }
 
+    public MessageBuilder withVersion(Version version) {
+        this.version = version;
+        return this;
+    }
+
     public MessageBuilder with(UUID uuid) {
         this.uuid = uuid;
         return this;
@@ -81,6 +87,6 @@ public class MessageBuilder {
         if (to == null)
             throw new RuntimeException("Cannot build a message with no destination");
 
-        return new Message(type, from, to, hops, reliable, data, uuid, sig, rnd, when, gateName);
+        return new Message(version, type, from, to, hops, reliable, data, uuid, sig, rnd, when, gateName);
     }
 }
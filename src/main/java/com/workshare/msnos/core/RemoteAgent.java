@@ -11,7 +11,6 @@ import javax.annotation.concurrent.GuardedBy;
 
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoint.Type;
-import com.workshare.msnos.soup.json.Json;
 
 public class RemoteAgent extends RemoteEntity implements Agent {
 
@@ -49,8 +48,8 @@ public class RemoteAgent extends RemoteEntity implements Agent {
     }
 
     @Override
-    public String toString() {
-        return Json.toJsonString(this);
+    public synchronized String toString() {
+        return getIden() + " " + endpoints + " ring: " + ring;
     }
 
     @Override
@@ -13,7 +13,6 @@ import org.slf4j.LoggerFactory;
 import com.workshare.msnos.core.geo.Location;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoint.Type;
-import com.workshare.msnos.soup.json.Json;
 import com.workshare.msnos.usvc.IMicroservice;
 
 public class Ring {
@@ -46,8 +45,8 @@ public class Ring {
     }
     
     @Override
-    public String toString() {
-        return Json.toJsonString(this);
+    public synchronized String toString() {
+        return uuid + "@" + location;
     }
 
     @Override
@@ -8,6 +8,7 @@ import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 import com.workshare.msnos.core.routing.Router;
 import com.workshare.msnos.soup.json.Json;
@@ -76,7 +77,20 @@ public class Sender {
         receipt.update(current);
         log.debug("Message {} routed, receipt {}", message, receipt);
 
-        logTX(message, receipt.getGate());
+        AsyncReceipt.whenSettled(current, new AsyncReceipt.Callback() {
+            @Override
+            public void onSettled(Receipt settled) {
+                receipt.update(settled);
+                logTX(message, receipt.getGate());
+            }
+        });
+    }
+
+    /**
+     * Returns the executor messages are sent on, unless another one is given
+     */
+    public static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR_SERVICE;
     }
 
     private static Integer getThreadNum() {
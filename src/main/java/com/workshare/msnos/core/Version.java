@@ -1,10 +1,19 @@
 package com.workshare.msnos.core;
 
-import com.workshare.msnos.soup.json.Json;
 
-public class Version {
+public class Version implements Comparable<Version> {
+
+    public static final String SYSP_WIRE_VERSION = "com.ws.msnos.wire.version";
 
     public static final Version V1_0 = new Version(1,0);
+    public static final Version V1_1 = new Version(1,1);
+    public static final Version V1_2 = new Version(1,2);
+    public static final Version V1_3 = new Version(1,3);
+    public static final Version V1_4 = new Version(1,4);
+    public static final Version V1_5 = new Version(1,5);
+
+    public static final Version LATEST = V1_5;
+    public static final Version CURRENT = loadCurrent();
     
     private final int major;
     private final int minor;
@@ -22,9 +31,56 @@ public class Version {
     public int getMinor() {
         return minor;
     }
-   
+
+    public boolean isAtLeast(Version other) {
+        return compareTo(other) >= 0;
+    }
+
+    @Override
+    public int compareTo(Version other) {
+        if (major != other.major)
+            return major < other.major ? -1 : 1;
+        if (minor != other.minor)
+            return minor < other.minor ? -1 : 1;
+        return 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * major + minor;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        try {
+            Version other = (Version) obj;
+            return major == other.major && minor == other.minor;
+        } catch (Exception any) {
+            return false;
+        }
+    }
+
     public String toString() {
-        return Json.toJsonString(this);
+        return major + "." + minor;
+    }
+
+    public static Version valueOf(String text) {
+        final int dotIndex = text.indexOf('.');
+
+        final int major = Integer.parseInt(text.substring(0, dotIndex));
+        final int minor = Integer.parseInt(text.substring(dotIndex + 1));
+
+        return new Version(major, minor);
     }
 
+    // the version we speak on the wire: older nodes ignore the version field and re-sign
+    // messages as 1.0, so we stay on 1.0 until the whole cloud has been upgraded 
+    private static Version loadCurrent() {
+        final String text = System.getProperty(SYSP_WIRE_VERSION);
+        if (text == null)
+            return V1_0;
+
+        final Version version = valueOf(text);
+        return version.isAtLeast(LATEST) ? LATEST : version;
+    }
 }
@@ -60,9 +60,11 @@ public class MessageValidators {
     private final Cloud.Internal cloud;
     private final List<Validator> receivingValidators;
     private final List<Validator> forwardingValidators;
+    private final ExpiringMap<UUID, Message> received;
 
     public MessageValidators(Cloud.Internal aCloud) {
         this.cloud = aCloud;
+        this.received = newSeenWindow();
 
         final Validator notToLocal = shouldNotDirectedToLocalAgent();
         final Validator notFromLocal = shouldNotComeFromLocalAgent();
@@ -75,13 +77,13 @@ public class MessageValidators {
                 notFromLocal, 
                 notAddressedOutside,
                 notTooOld,
-                shouldNeverSeenMessage(), 
+                shouldNeverSeenMessage(received), 
                 withValidSignature);
 
         this.forwardingValidators = Arrays.asList(
                 notToLocal, 
                 notTooOld,
-                shouldNeverSeenMessage(), 
+                shouldNeverSeenMessage(newSeenWindow()), 
                 withValidSignature);
     }
 
@@ -93,6 +95,30 @@ public class MessageValidators {
         return isValid(message, forwardingValidators);
     }
 
+    /**
+     * Checks, from its header only, a message still to be decoded: a failure
+     * means the message would be rejected on receipt anyway. Messages are not
+     * recorded as seen here, as they are not received yet.
+     */
+    public Result isReceivable(Iden from, Iden to, UUID uuid) {
+        if (isFromLocal(from))
+            return new Result(false, Reason.FROM_LOCAL);
+        if (isToAnotherCloud(to))
+            return new Result(false, Reason.TO_OTHER);
+        if (received.containsKey(uuid))
+            return new Result(false, Reason.DUPLICATE);
+
+        return SUCCESS;
+    }
+
+    private boolean isFromLocal(Iden from) {
+        return cloud.localAgents().containsKey(from);
+    }
+
+    private boolean isToAnotherCloud(Iden to) {
+        return to.getType() == Type.CLD && !to.equals(cloud.cloud().getIden());
+    }
+
     private Result isValid(Message message, final List<Validator> validators) {
         for (Validator validator : validators) {
             final Result result = validator.isValid(message);
@@ -105,7 +131,16 @@ public class MessageValidators {
         return SUCCESS;
     }
 
-    private long getMessageLifetime() {
+    private ExpiringMap<UUID, Message> newSeenWindow() {
+        return ExpiringMap.builder()
+                .expiration(getMessageLifetime(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Returns for how long, in milliseconds, a message is accepted after it was created
+     */
+    public static long getMessageLifetime() {
         return Long.getLong(SYSP_MESSAGE_LIFETIME, 60000);
     }
 
@@ -122,13 +157,8 @@ public class MessageValidators {
             }};
     }
 
-    private Validator shouldNeverSeenMessage() {
+    private Validator shouldNeverSeenMessage(final ExpiringMap<UUID, Message> messages) {
         return new AbstractMessageValidator(Reason.DUPLICATE) {
-            
-            private final ExpiringMap<UUID, Message> messages = ExpiringMap.builder()
-                        .expiration(getMessageLifetime(), TimeUnit.SECONDS)
-                        .build();            
-
             @Override
             public Result isValid(Message message) {
                 if (messages.containsKey(message.getUuid()))
@@ -159,9 +189,7 @@ public class MessageValidators {
         return new AbstractMessageValidator(Reason.TO_OTHER) {
             @Override
             public Result isValid(Message message) {
-                final Iden to = message.getTo();
-                boolean success = to.getType() != Type.CLD || to.equals(cloud.cloud().getIden());
-                return asResult(success);
+                return asResult(!isToAnotherCloud(message.getTo()));
             }};
     }
 
@@ -169,7 +197,7 @@ public class MessageValidators {
         return new AbstractMessageValidator(Reason.FROM_LOCAL) {
             @Override
             public Result isValid(Message message) {
-                return asResult(!cloud.localAgents().containsKey(message.getFrom()));
+                return asResult(!isFromLocal(message.getFrom()));
             }};
     }
 
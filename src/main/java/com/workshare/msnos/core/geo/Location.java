@@ -14,7 +14,6 @@ import com.maxmind.geoip2.record.Country;
 import com.maxmind.geoip2.record.Subdivision;
 import com.workshare.msnos.core.geo.Location.Place.Type;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
-import com.workshare.msnos.soup.json.Json;
 
 public class Location {
     private static final Logger log = LoggerFactory.getLogger(Location.class);
@@ -131,7 +130,7 @@ public class Location {
 
         @Override
         public String toString() {
-            return Json.toJsonString(this);
+            return type + ":" + name + "(" + code + ")";
         }
 
         @Override
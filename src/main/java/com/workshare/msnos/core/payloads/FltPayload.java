@@ -3,7 +3,6 @@ package com.workshare.msnos.core.payloads;
 import com.workshare.msnos.core.Cloud.Internal;
 import com.workshare.msnos.core.Iden;
 import com.workshare.msnos.core.Message;
-import com.workshare.msnos.soup.json.Json;
 
 public class FltPayload implements Message.Payload {
 
@@ -24,7 +23,7 @@ public class FltPayload implements Message.Payload {
 
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return "about: " + about;
     }
 
     @Override
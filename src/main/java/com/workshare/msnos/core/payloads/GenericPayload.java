@@ -14,4 +14,24 @@ public class GenericPayload extends PayloadAdapter implements Payload {
     public JsonElement getData() {
         return data;
     }
+
+    @Override
+    public String toString() {
+        return String.valueOf(data);
+    }
+
+    @Override
+    public int hashCode() {
+        return (data == null) ? 0 : data.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        try {
+            GenericPayload other = (GenericPayload) obj;
+            return data == other.data || (data != null && data.equals(other.data));
+        } catch (Exception any) {
+            return false;
+        }
+    }
 }
@@ -6,4 +6,19 @@ public class NullPayload extends PayloadAdapter implements Payload  {
 
     public static final NullPayload INSTANCE = new NullPayload();
 
+    @Override
+    public String toString() {
+        return "none";
+    }
+
+    @Override
+    public int hashCode() {
+        return "null".hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NullPayload;
+    }
+
 }
@@ -0,0 +1,19 @@
+package com.workshare.msnos.core.payloads;
+
+import java.util.List;
+
+import com.workshare.msnos.core.Message.Payload;
+
+/**
+ * A payload made of independent elements (endpoints, apis, crumbs...) that can
+ * be spread over several messages, so that each one fits into a single packet.
+ */
+public interface Packable<E> extends Payload {
+
+    public List<E> elements();
+
+    /**
+     * Returns a copy of this payload carrying only the given elements
+     */
+    public Payload with(List<E> elements);
+}
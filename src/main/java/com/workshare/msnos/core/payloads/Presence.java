@@ -1,6 +1,8 @@
 package com.workshare.msnos.core.payloads;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -14,20 +16,29 @@ import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Payload;
 import com.workshare.msnos.core.MsnosException;
 import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.Version;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
-import com.workshare.msnos.soup.json.Json;
 
-public class Presence implements Message.Payload {
+public class Presence implements Packable<Endpoint> {
 
     private static Logger log = LoggerFactory.getLogger(Presence.class);
 
+    // the packet size is advertised only when nobody would drop it while checking signatures
+    public static final Version MIN_SIZED_VERSION = Version.V1_4;
+
     private final boolean present;
     private final Set<Endpoint> endpoints;
+    private final Integer packetSize;
 
     public Presence(boolean present, Set<Endpoint> endpoints) {
+        this(present, endpoints, null);
+    }
+
+    public Presence(boolean present, Set<Endpoint> endpoints, Integer packetSize) {
         this.present = present;
         this.endpoints = endpoints;
+        this.packetSize = packetSize;
         log.trace(present ? "Presence message created: {}" : "Absence message created: {}", this);
     }
 
@@ -43,9 +54,26 @@ public class Presence implements Message.Payload {
         return endpoints;
     }
 
+    /**
+     * Returns the largest UDP packet the sender is willing to receive, if advertised
+     */
+    public Integer getPacketSize() {
+        return packetSize;
+    }
+
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return "present: " + present + ", endpoints: " + endpoints + (packetSize == null ? "" : ", packet size: " + packetSize);
+    }
+
+    @Override
+    public List<Endpoint> elements() {
+        return new ArrayList<Endpoint>(endpoints);
+    }
+
+    @Override
+    public Payload with(List<Endpoint> elements) {
+        return new Presence(present, new HashSet<Endpoint>(elements), packetSize);
     }
 
     @Override
@@ -62,8 +90,8 @@ public class Presence implements Message.Payload {
         }
 
         return new Payload[]{
-                new Presence(present, netOne),
-                new Presence(present, netTwo)
+                new Presence(present, netOne, packetSize),
+                new Presence(present, netTwo, packetSize)
         };
     }
 
@@ -73,6 +101,7 @@ public class Presence implements Message.Payload {
         int result = 1;
         result = prime * result + endpoints.hashCode();
         result = prime * result + (present ? 1231 : 1237);
+        result = prime * result + (packetSize == null ? 0 : packetSize);
         return result;
     }
 
@@ -80,7 +109,8 @@ public class Presence implements Message.Payload {
     public boolean equals(Object obj) {
         try {
             Presence other = (Presence) obj;
-            return endpoints.equals(other.endpoints) && present == other.present;
+            return endpoints.equals(other.endpoints) && present == other.present
+                && (packetSize == null ? other.packetSize == null : packetSize.equals(other.packetSize));
         } catch (Exception any) {
             return false;
         }
@@ -3,15 +3,16 @@ package com.workshare.msnos.core.payloads;
 import com.workshare.msnos.core.Cloud.Internal;
 import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Payload;
-import com.workshare.msnos.soup.json.Json;
 import com.workshare.msnos.usvc.api.RestApi;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-public class  QnePayload implements Payload {
+public class  QnePayload implements Packable<RestApi> {
     
     private String name;
     private Set<RestApi> apis;
@@ -35,9 +36,42 @@ public class  QnePayload implements Payload {
 
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return "name: " + name + ", apis: " + apis;
     }
 
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        result = prime * result + ((apis == null) ? 0 : apis.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        try {
+            QnePayload other = (QnePayload) obj;
+            return areEquals(name, other.name) && areEquals(apis, other.apis);
+        } catch (Exception any) {
+            return false;
+        }
+    }
+
+    private static boolean areEquals(Object o1, Object o2) {
+        return o1 == o2 || (o1 != null && o1.equals(o2));
+    }
+
+
+    @Override
+    public List<RestApi> elements() {
+        return new ArrayList<RestApi>(apis);
+    }
+
+    @Override
+    public Payload with(List<RestApi> elements) {
+        return new QnePayload(name, new HashSet<RestApi>(elements));
+    }
 
     @Override
     public Payload[] split() {
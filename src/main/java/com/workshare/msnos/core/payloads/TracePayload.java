@@ -17,9 +17,8 @@ import com.workshare.msnos.core.Message.Payload;
 import com.workshare.msnos.core.MessageBuilder;
 import com.workshare.msnos.core.MsnosException;
 import com.workshare.msnos.core.cloud.IdentifiablesList;
-import com.workshare.msnos.soup.json.Json;
 
-public class TracePayload implements Message.Payload {
+public class TracePayload implements Packable<TracePayload.Crumb> {
 
     private static Logger log = LoggerFactory.getLogger(TracePayload.class);
 
@@ -30,12 +29,16 @@ public class TracePayload implements Message.Payload {
         private final int hop;
 
         private Crumb(UUID src, UUID dst, Gateway gate, int hops) {
-            if (src == null || dst == null || gate == null)
+            this(src, dst, gate == null ? null : gate.name(), hops);
+        }
+
+        public Crumb(UUID src, UUID dst, String way, int hops) {
+            if (src == null || dst == null || way == null)
                 throw new IllegalArgumentException("No nulls accepted here!");
 
             this.src = src;
             this.dst = dst;
-            this.way = gate.name();
+            this.way = way;
             this.hop = hops;
         }
 
@@ -66,6 +69,11 @@ public class TracePayload implements Message.Payload {
             return result;
         }
 
+        @Override
+        public String toString() {
+            return src + " -> " + dst + " via " + way + " (" + hop + ")";
+        }
+
         @Override
         public boolean equals(Object obj) {
             try {
@@ -91,7 +99,7 @@ public class TracePayload implements Message.Payload {
     private final Iden from;
     private final List<Crumb> crumbs;
     
-    TracePayload(Iden from, List<Crumb> someCrumbs) {
+    public TracePayload(Iden from, List<Crumb> someCrumbs) {
         if (from == null || someCrumbs == null)
             throw new IllegalArgumentException("No nulls accepted here!");
         
@@ -113,6 +121,16 @@ public class TracePayload implements Message.Payload {
         return from;
     }
 
+    @Override
+    public List<Crumb> elements() {
+        return crumbs;
+    }
+
+    @Override
+    public Payload with(List<Crumb> elements) {
+        return new TracePayload(from, new ArrayList<Crumb>(elements));
+    }
+
     @Override
     public Payload[] split() {
         List<Crumb> one = new ArrayList<Crumb>();
@@ -155,7 +173,7 @@ public class TracePayload implements Message.Payload {
     
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return "from: " + from + ", crumbs: " + crumbs;
     }
 
     @Override
@@ -7,7 +7,6 @@ import java.util.Set;
 import com.workshare.msnos.core.Agent;
 import com.workshare.msnos.core.MsnosException;
 import com.workshare.msnos.core.MsnosException.Code;
-import com.workshare.msnos.soup.json.Json;
 
 public class BaseEndpoint implements Endpoint {
 
@@ -45,7 +44,7 @@ public class BaseEndpoint implements Endpoint {
 
     @Override
     public String toString() {
-        return Json.toJsonString(this);
+        return type + "://" + network + ":" + port;
     }
     
     @Override
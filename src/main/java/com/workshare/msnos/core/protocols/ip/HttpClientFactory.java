@@ -1,5 +1,6 @@
 package com.workshare.msnos.core.protocols.ip;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import org.apache.http.client.HttpClient;
@@ -13,6 +14,9 @@ import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,14 +59,41 @@ public class HttpClientFactory {
                 .setUserAgent(getHttpUserAgent())
                 .build();     
 
+        addClosingHook(httpClient, "HTTP client");
+        return httpClient;
+    }
+
+    /**
+     * Creates and starts a client on non blocking I/O, where many requests
+     * can be in flight on the same connection pool without holding threads
+     */
+    public static HttpAsyncClient newHttpAsyncClient() {
+        final RequestConfig config = RequestConfig.custom()
+                .setSocketTimeout(getHttpSocketTimeout())
+                .setConnectTimeout(getHttpConnectTimeout())
+                .build();
+
+        final CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(config)
+                .setMaxConnTotal(getHttpMaxTotalConnections())
+                .setMaxConnPerRoute(getHttpMaxDefaultConnectionsPerRoute())
+                .setUserAgent(getHttpUserAgent())
+                .build();
+        httpClient.start();
+
+        addClosingHook(httpClient, "HTTP async client");
+        return httpClient;
+    }
+
+    private static void addClosingHook(final Closeable httpClient, final String what) {
         ShutdownHooks.addHook(new Hook(){
             @Override
             public void run() {
                 try {
-                    log.info("Shutting down HTTP client...");
+                    log.info("Shutting down {}...", what);
                     httpClient.close();
                 } catch (IOException ex) {
-                    log.debug("Error closing HTTP client", ex);
+                    log.debug("Error closing " + what, ex);
                 } finally {
                     log.info("done!");
                 }
@@ -70,15 +101,13 @@ public class HttpClientFactory {
 
             @Override
             public String name() {
-                return "HTTP client closing";
+                return what + " closing";
             }
 
             @Override
             public int priority() {
                 return Integer.MIN_VALUE;
             }});
-        
-        return httpClient;
     }
 
     public static String getHttpUserAgent() {
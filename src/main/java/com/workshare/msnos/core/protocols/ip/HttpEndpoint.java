@@ -61,14 +61,11 @@ public class HttpEndpoint extends BaseEndpoint {
         }
     }
 
-//    @Override
-//    public String toString() {
-//        JsonObject json = (JsonObject)Json.toJsonTree(this);
-//        json.add("target", Json.toJsonTree(target));
-//        return json.toString();
-//    }
-//    
-//
+    @Override
+    public String toString() {
+        return url + " (" + target + ")";
+    }
+
     private static short extractPort(String urlString) {
         URL url;
         try {
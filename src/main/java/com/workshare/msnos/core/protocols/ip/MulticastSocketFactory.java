@@ -1,6 +1,7 @@
 package com.workshare.msnos.core.protocols.ip;
 
 import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.MulticastSocket;
 
 public class MulticastSocketFactory {
@@ -8,4 +9,8 @@ public class MulticastSocketFactory {
     public MulticastSocket create() throws IOException {
         return new MulticastSocket(null);
     }
+
+    public DatagramSocket createUnicast() throws IOException {
+        return new DatagramSocket(null);
+    }
 }
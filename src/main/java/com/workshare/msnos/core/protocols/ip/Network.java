@@ -73,6 +73,24 @@ public class Network {
         return netmask;
     }
 
+    /**
+     * Tells whether the address of the other network falls within the prefix
+     * of this one
+     */
+    public boolean contains(Network other) {
+        if (address.length != other.address.length)
+            return false;
+
+        int bits = prefix;
+        for (int i = 0; i < address.length && bits > 0; i++, bits -= 8) {
+            final int mask = (bits >= 8 ? 0xff : (0xff << (8 - bits)) & 0xff);
+            if ((address[i] & mask) != (other.address[i] & mask))
+                return false;
+        }
+
+        return true;
+    }
+
     public String getHostString() {
         StringBuffer sb = new StringBuffer();
         for (int i = 0; i < address.length; i++) {
@@ -193,6 +211,52 @@ public class Network {
         return nets;
     }
 
+    /**
+     * Returns the smallest MTU among the interfaces listAll() would use, or 0
+     * when none of them reports one
+     */
+    public static int findMinimumMTU(boolean includeVirtual) {
+        try {
+            return findMinimumMTU(NetworkInterface.getNetworkInterfaces(), includeVirtual);
+        } catch (SocketException e) {
+            log.warn("Unable to read the MTU of network interfaces", e);
+            return 0;
+        }
+    }
+
+    public static int findMinimumMTU(Enumeration<NetworkInterface> nics, boolean includeVirtual) {
+        String bindings = System.getProperty(SYSP_NET_BINDINGS);
+
+        int min = 0;
+        while (nics != null && nics.hasMoreElements()) {
+            NetworkInterface nic = nics.nextElement();
+
+            if (bindings != null && !bindings.contains(nic.getName()))
+                continue;
+
+            if (!includeVirtual && nic.isVirtual())
+                continue;
+
+            if (isLoopback(nic))
+                continue;
+
+            final int mtu = getMTU(nic);
+            if (mtu > 0 && (min == 0 || mtu < min))
+                min = mtu;
+        }
+
+        return min;
+    }
+
+    private static int getMTU(NetworkInterface nic) {
+        try {
+            return nic.isUp() ? nic.getMTU() : 0;
+        } catch (SocketException e) {
+            log.debug("Unable to read the MTU of interface {}", nic.getName());
+            return 0;
+        }
+    }
+
     public static Set<Network> resolvePublicIPs(AddressResolver addresResolver) {
         log.debug("Trying to resolve a public address on the cloud...");
         Network publicIP = addresResolver.findPublicIP();
@@ -0,0 +1,155 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.core.Gateway;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
+import com.workshare.msnos.core.receipts.SingleReceipt;
+import com.workshare.msnos.soup.threading.ExecutorServices;
+
+/**
+ * Collects the messages sent to the same agent, so that they can be posted
+ * together in a single request.
+ *
+ * Messages are held for a short linger time, and the batch is flushed when
+ * the linger time is over or when it holds the maximum number of messages.
+ * Each message gets a pending receipt, settled when the batch is posted.
+ */
+class HttpBatches {
+
+    public static final String SYSP_BATCH_LINGER = "com.ws.msnos.http.batch.linger.millis";
+    public static final String SYSP_BATCH_MAX_MESSAGES = "com.ws.msnos.http.batch.max.messages";
+
+    public interface Sink {
+        public void post(HttpEndpoint endpoint, List<Message> messages, List<AsyncReceipt> receipts);
+    }
+
+    private static Logger log = LoggerFactory.getLogger(HttpBatches.class);
+
+    private final long linger;
+    private final int maxMessages;
+    private final Sink sink;
+    private final Map<Iden, Batch> batches = new HashMap<Iden, Batch>();
+
+    private ScheduledExecutorService scheduler;
+
+    HttpBatches(Sink sink) {
+        this(Long.getLong(SYSP_BATCH_LINGER, 0L), Integer.getInteger(SYSP_BATCH_MAX_MESSAGES, 32), sink);
+    }
+
+    HttpBatches(long linger, int maxMessages, Sink sink) {
+        this.linger = linger;
+        this.maxMessages = maxMessages;
+        this.sink = sink;
+    }
+
+    public boolean isEnabled() {
+        return linger > 0 && maxMessages > 1;
+    }
+
+    public AsyncReceipt add(Gateway gate, HttpEndpoint endpoint, Message message) {
+        final AsyncReceipt receipt = new AsyncReceipt(gate, message);
+
+        Batch full = null;
+        synchronized (this) {
+            final Iden target = endpoint.getTarget();
+            Batch batch = batches.get(target);
+            if (batch == null) {
+                batch = new Batch(endpoint);
+                batch.timer = schedule(target, batch);
+                batches.put(target, batch);
+            }
+
+            batch.messages.add(message);
+            batch.receipts.add(receipt);
+            if (batch.messages.size() >= maxMessages)
+                full = remove(target);
+        }
+
+        if (full != null)
+            post(full);
+
+        return receipt;
+    }
+
+    public void flush() {
+        final List<Batch> all;
+        synchronized (this) {
+            all = new ArrayList<Batch>(batches.values());
+            batches.clear();
+        }
+
+        for (Batch batch : all) {
+            batch.timer.cancel(false);
+            post(batch);
+        }
+    }
+
+    public synchronized void close() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    synchronized int pending() {
+        return batches.size();
+    }
+
+    private Batch remove(Iden target) {
+        final Batch batch = batches.remove(target);
+        if (batch != null)
+            batch.timer.cancel(false);
+        return batch;
+    }
+
+    private void post(Batch batch) {
+        try {
+            sink.post(batch.endpoint, batch.messages, batch.receipts);
+        } catch (Exception ex) {
+            log.warn("Unable to post batch to " + batch.endpoint.getUrl(), ex);
+            for (int i = 0; i < batch.receipts.size(); i++)
+                batch.receipts.get(i).update(SingleReceipt.failure(batch.messages.get(i)));
+        }
+    }
+
+    private ScheduledFuture<?> schedule(final Iden target, final Batch batch) {
+        if (scheduler == null)
+            scheduler = ExecutorServices.newSingleThreadScheduledExecutor();
+
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HttpBatches.this) {
+                    if (batches.get(target) != batch)
+                        return;
+
+                    batches.remove(target);
+                }
+
+                post(batch);
+            }
+        }, linger, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Batch {
+        private final HttpEndpoint endpoint;
+        private final List<Message> messages = new ArrayList<Message>();
+        private final List<AsyncReceipt> receipts = new ArrayList<AsyncReceipt>();
+        private ScheduledFuture<?> timer;
+
+        Batch(HttpEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+}
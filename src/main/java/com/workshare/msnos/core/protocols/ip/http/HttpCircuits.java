@@ -0,0 +1,181 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * Keeps a circuit breaker for each HTTP endpoint, so that an endpoint that
+ * is not answering fails immediately instead of waiting for the timeouts.
+ *
+ * A circuit opens after a number of consecutive failures, where a request
+ * slower than the configured latency counts as a failure. Once the open time
+ * is over the circuit is half-open and a single request is let through: the
+ * circuit closes if it succeeds, and opens again otherwise.
+ */
+class HttpCircuits {
+
+    public static final String SYSP_CIRCUIT_FAILURES = "com.ws.msnos.http.circuit.failures";
+    public static final String SYSP_CIRCUIT_OPEN_MILLIS = "com.ws.msnos.http.circuit.open.millis";
+    public static final String SYSP_CIRCUIT_SLOW_MILLIS = "com.ws.msnos.http.circuit.slow.millis";
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static Logger log = LoggerFactory.getLogger(HttpCircuits.class);
+
+    private final int maxFailures;
+    private final long openMillis;
+    private final long slowMillis;
+    private final ConcurrentMap<HttpEndpoint, Circuit> circuits = new ConcurrentHashMap<HttpEndpoint, Circuit>();
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    HttpCircuits() {
+        this(Integer.getInteger(SYSP_CIRCUIT_FAILURES, 3), Long.getLong(SYSP_CIRCUIT_OPEN_MILLIS, 30000L), Long.getLong(SYSP_CIRCUIT_SLOW_MILLIS, 5000L));
+    }
+
+    HttpCircuits(int maxFailures, long openMillis, long slowMillis) {
+        this.maxFailures = maxFailures;
+        this.openMillis = openMillis;
+        this.slowMillis = slowMillis;
+    }
+
+    /**
+     * Returns true if a request to the endpoint can be attempted, counting
+     * the ones rejected because the circuit is open
+     */
+    public boolean allow(HttpEndpoint endpoint) {
+        if (maxFailures <= 0)
+            return true;
+
+        final boolean allowed = circuit(endpoint).allow(SystemTime.asMillis());
+        if (!allowed)
+            rejected.incrementAndGet();
+
+        return allowed;
+    }
+
+    public void success(HttpEndpoint endpoint, long elapsed) {
+        if (maxFailures <= 0)
+            return;
+
+        if (slowMillis > 0 && elapsed >= slowMillis) {
+            log.debug("Request to {} took {} ms, counting as a failure", endpoint.getUrl(), elapsed);
+            circuit(endpoint).failure(SystemTime.asMillis());
+        } else {
+            circuit(endpoint).success();
+        }
+    }
+
+    public void failure(HttpEndpoint endpoint) {
+        if (maxFailures <= 0)
+            return;
+
+        circuit(endpoint).failure(SystemTime.asMillis());
+    }
+
+    public void remove(HttpEndpoint endpoint) {
+        circuits.remove(endpoint);
+    }
+
+    public State state(HttpEndpoint endpoint) {
+        final Circuit circuit = circuits.get(endpoint);
+        return circuit == null ? State.CLOSED : circuit.state();
+    }
+
+    public int openCount() {
+        int count = 0;
+        for (Circuit circuit : circuits.values()) {
+            if (circuit.state() != State.CLOSED)
+                count++;
+        }
+        return count;
+    }
+
+    public long opened() {
+        return opened.get();
+    }
+
+    public long closed() {
+        return closed.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    private Circuit circuit(HttpEndpoint endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            final Circuit other = circuits.putIfAbsent(endpoint, circuit = new Circuit(endpoint));
+            if (other != null)
+                circuit = other;
+        }
+
+        return circuit;
+    }
+
+    private class Circuit {
+        private final HttpEndpoint endpoint;
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private boolean probing;
+
+        Circuit(HttpEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        synchronized boolean allow(long now) {
+            switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openMillis)
+                    return false;
+                log.debug("Circuit to {} is now half-open", endpoint.getUrl());
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing)
+                    return false;
+                probing = true;
+                return true;
+            }
+        }
+
+        synchronized void success() {
+            failures = 0;
+            probing = false;
+            if (state != State.CLOSED) {
+                log.info("Circuit to {} closed", endpoint.getUrl());
+                state = State.CLOSED;
+                closed.incrementAndGet();
+            }
+        }
+
+        synchronized void failure(long now) {
+            failures++;
+            probing = false;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= maxFailures)) {
+                log.info("Circuit to {} opened after {} failures", endpoint.getUrl(), failures);
+                state = State.OPEN;
+                openedAt = now;
+                opened.incrementAndGet();
+            }
+        }
+    }
+}
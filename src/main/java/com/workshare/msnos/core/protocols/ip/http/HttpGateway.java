@@ -1,19 +1,26 @@
 package com.workshare.msnos.core.protocols.ip.http;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.http.Consts;
 import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonIOException;
 import com.workshare.msnos.core.Agent;
 import com.workshare.msnos.core.Cloud;
 import com.workshare.msnos.core.Gateway;
@@ -26,21 +33,54 @@ import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoints;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.soup.time.SystemTime;
 
+/**
+ * Delivers messages to the HTTP endpoints of remote agents.
+ *
+ * When an asynchronous client is available the request is only started on
+ * the calling thread, and the receipt returned is settled later, when the
+ * response arrives or the request fails: many requests can then be in flight
+ * at the same time without holding any thread.
+ *
+ * Each endpoint has its own circuit breaker: once an endpoint keeps failing,
+ * or answering too slowly, messages to it fail immediately for a while, so
+ * that the router can move to the next route without waiting for timeouts.
+ */
 public class HttpGateway implements Gateway {
 
     private static Logger log = LoggerFactory.getLogger(HttpGateway.class);
 
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final ContentType CONTENT_TYPE = ContentType.create("text/plain", Consts.UTF_8);
+
     private final Map<Iden, HttpEndpoint> endpoints;
     private final HttpClient client;
+    private final HttpAsyncClient asyncClient;
     private final WireJsonSerializer serializer;
+    private final HttpBatches batches;
+    private final HttpCircuits circuits;
     
     public HttpGateway(HttpClient client) {
+        this(client, null);
+    }
+
+    public HttpGateway(HttpClient client, HttpAsyncClient asyncClient) {
         this.client = client;
+        this.asyncClient = asyncClient;
         this.endpoints = new ConcurrentHashMap<Iden, HttpEndpoint>();
         this.serializer = new WireJsonSerializer();
+        this.circuits = new HttpCircuits();
+        this.batches = new HttpBatches(new HttpBatches.Sink() {
+            @Override
+            public void post(HttpEndpoint endpoint, List<Message> messages, List<AsyncReceipt> receipts) {
+                HttpGateway.this.post(endpoint, messages, receipts);
+            }
+        });
     }
 
     @Override
@@ -58,6 +98,12 @@ public class HttpGateway implements Gateway {
         HttpEndpoint endpoint = endpoints.get(destination);
         if (endpoint == null)
             return new SingleReceipt(this, Status.FAILED, message);
+        else if (!circuits.allow(endpoint))
+            return new SingleReceipt(this, Status.FAILED, message);
+        else if (batches.isEnabled())
+            return batches.add(this, endpoint, message);
+        else if (asyncClient != null)
+            return sendAsyncTo(message, endpoint);
         else
             return sendTo(message, endpoint);
     }
@@ -65,23 +111,151 @@ public class HttpGateway implements Gateway {
     private Receipt sendTo(Message message, HttpEndpoint endpoint) {
         try {
             HttpPost request = new HttpPost(endpoint.getUrl());
-            request.setEntity(new StringEntity(serializer.toText(message)));
+            request.setEntity(new MessagesEntity(serializer, Collections.singletonList(message), CONTENT_TYPE));
+            final long start = SystemTime.asMillis();
             HttpResponse res = client.execute(request);
-            consume(res);
-            return new SingleReceipt(this, Status.DELIVERED, message);
+            return new SingleReceipt(this, outcome(endpoint, res, start), message);
         }
         catch (IOException ex) {
-            if (log.isDebugEnabled())
-                log.debug("Unexpected exception sending message "+message+" to url "+endpoint.getUrl(), ex);
-            else
-                log.warn("Unexpected exception sending message "+message+" to url "+endpoint.getUrl());
-            
+            logFailure(message, endpoint, ex);
+            circuits.failure(endpoint);
+            return new SingleReceipt(this, Status.FAILED, message);
+        }
+        catch (RuntimeException ex) {
+            logFailure(message, endpoint, ex);
+            circuits.failure(endpoint);
             return new SingleReceipt(this, Status.FAILED, message);
         }
     }
 
+    private Receipt sendAsyncTo(final Message message, final HttpEndpoint endpoint) {
+        final AsyncReceipt receipt = new AsyncReceipt(this, message);
+        post(endpoint, Collections.singletonList(message), Collections.singletonList(receipt));
+        return receipt;
+    }
+
+    /**
+     * Posts the messages in a single request, one per line as the WWW relay
+     * does when there's more than one, settling their receipts on completion
+     */
+    private void post(final HttpEndpoint endpoint, final List<Message> messages, final List<AsyncReceipt> receipts) {
+        final HttpPost request = new HttpPost(endpoint.getUrl());
+        final Object what = (messages.size() == 1 ? messages.get(0) : messages.size() + " messages");
+        try {
+            request.setEntity(new MessagesEntity(serializer, messages, CONTENT_TYPE));
+        } catch (JsonIOException ex) {
+            logFailure(what, endpoint, ex);
+            circuits.failure(endpoint);
+            settle(messages, receipts, Status.FAILED);
+            return;
+        }
+
+        final long start = SystemTime.asMillis();
+        if (asyncClient == null) {
+            try {
+                settle(messages, receipts, outcome(endpoint, client.execute(request), start));
+            } catch (IOException ex) {
+                logFailure(what, endpoint, ex);
+                circuits.failure(endpoint);
+                settle(messages, receipts, Status.FAILED);
+            } catch (RuntimeException ex) {
+                logFailure(what, endpoint, ex);
+                circuits.failure(endpoint);
+                settle(messages, receipts, Status.FAILED);
+            }
+            return;
+        }
+
+        try {
+            asyncClient.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse res) {
+                    settle(messages, receipts, outcome(endpoint, res, start));
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    logFailure(what, endpoint, ex);
+                    circuits.failure(endpoint);
+                    settle(messages, receipts, Status.FAILED);
+                }
+
+                @Override
+                public void cancelled() {
+                    circuits.failure(endpoint);
+                    settle(messages, receipts, Status.FAILED);
+                }
+            });
+        } catch (RuntimeException ex) {
+            logFailure(what, endpoint, ex);
+            circuits.failure(endpoint);
+            settle(messages, receipts, Status.FAILED);
+        }
+    }
+
+    /**
+     * Returns the status of a completed request, where an endpoint that is
+     * overloaded or broken fails the delivery, and updates its circuit
+     */
+    private Status outcome(HttpEndpoint endpoint, HttpResponse res, long start) {
+        consume(res);
+
+        final StatusLine status = res.getStatusLine();
+        if (status != null && (status.getStatusCode() == SC_TOO_MANY_REQUESTS || status.getStatusCode() >= 500)) {
+            log.warn("Endpoint {} refused the request with status {}", endpoint.getUrl(), status);
+            circuits.failure(endpoint);
+            return Status.FAILED;
+        }
+
+        circuits.success(endpoint, SystemTime.asMillis() - start);
+        return Status.DELIVERED;
+    }
+
+    private void settle(List<Message> messages, List<AsyncReceipt> receipts, Status status) {
+        for (int i = 0; i < receipts.size(); i++) {
+            receipts.get(i).update(new SingleReceipt(this, status, messages.get(i)));
+        }
+    }
+
+    private void logFailure(Object what, HttpEndpoint endpoint, Exception ex) {
+        if (log.isDebugEnabled())
+            log.debug("Unexpected exception sending message "+what+" to url "+endpoint.getUrl(), ex);
+        else
+            log.warn("Unexpected exception sending message "+what+" to url "+endpoint.getUrl());
+    }
+
     @Override
     public void close() throws IOException {
+        batches.flush();
+        batches.close();
+    }
+
+    /**
+     * Returns the number of endpoints whose circuit is not closed
+     */
+    public int openCircuits() {
+        return circuits.openCount();
+    }
+
+    /**
+     * Returns how many times a circuit was opened
+     */
+    public long circuitsOpened() {
+        return circuits.opened();
+    }
+
+    /**
+     * Returns how many times a circuit was closed again after being opened
+     */
+    public long circuitsClosed() {
+        return circuits.closed();
+    }
+
+    /**
+     * Returns the number of messages failed immediately as their circuit was open
+     */
+    public long circuitRejections() {
+        return circuits.rejected();
     }
 
     @Override
@@ -103,7 +277,9 @@ public class HttpGateway implements Gateway {
 
             @Override
             public Endpoint remove(Endpoint endpoint) throws MsnosException {
-                endpoints.remove(ensureHttp(endpoint).getTarget());
+                final HttpEndpoint httpEndpoint = ensureHttp(endpoint);
+                endpoints.remove(httpEndpoint.getTarget());
+                circuits.remove(httpEndpoint);
                 log.debug("Removed endpoint {}, all: {}",endpoint, endpoints);
                 return endpoint;
             }
@@ -0,0 +1,113 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+
+/**
+ * The body of a request carrying one or more messages, one per line when
+ * there's more than one.
+ *
+ * The body is never assembled: the wire form of each message, shared by all
+ * the requests sending it, is written straight to the connection, by both
+ * the blocking and the non-blocking clients.
+ */
+class MessagesEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private static final byte[] NEWLINE = new byte[] { '\n' };
+
+    private final List<byte[]> parts;
+    private final long length;
+
+    private int next;
+    private ByteBuffer current;
+
+    MessagesEntity(WireJsonSerializer serializer, List<Message> messages, ContentType contentType) {
+        this.parts = new ArrayList<byte[]>(messages.size() * 2);
+        long total = 0;
+        for (Message message : messages) {
+            final byte[] data = serializer.encode(message);
+            parts.add(data);
+            total += data.length;
+            if (messages.size() > 1) {
+                parts.add(NEWLINE);
+                total += NEWLINE.length;
+            }
+        }
+
+        this.length = total;
+        setContentType(contentType.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final List<InputStream> streams = new ArrayList<InputStream>(parts.size());
+        for (byte[] part : parts)
+            streams.add(new ByteArrayInputStream(part));
+
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] part : parts)
+            out.write(part);
+
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public synchronized void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+        while (true) {
+            if (current == null || !current.hasRemaining()) {
+                if (next == parts.size()) {
+                    encoder.complete();
+                    close();
+                    return;
+                }
+
+                current = ByteBuffer.wrap(parts.get(next++));
+            }
+
+            encoder.write(current);
+            if (current.hasRemaining())
+                return;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        next = 0;
+        current = null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.serializers.WireSerializer;
+
+/**
+ * Reads the messages posted to an HTTP endpoint: either a single message, or
+ * a batch of messages one per line, as the WWW relay does. A single message
+ * may also span many lines, as pretty printed json does: that's told by its
+ * first line, which does not hold a whole message.
+ *
+ * <pre>
+ *   MessagesReader messages = new MessagesReader(serializer, reader);
+ *   try {
+ *     Message message;
+ *     while ((message = messages.next()) != null)
+ *       cloud.process(message, Endpoint.Type.HTTP);
+ *   } finally {
+ *     messages.close();
+ *   }
+ * </pre>
+ */
+public class MessagesReader implements Closeable {
+
+    private final WireSerializer serializer;
+    private final BufferedReader reader;
+    private boolean first = true;
+
+    public MessagesReader(WireSerializer serializer, Reader reader) {
+        this.serializer = serializer;
+        this.reader = (reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader));
+    }
+
+    /**
+     * Returns the next message of the body, or null when there are no more
+     */
+    public Message next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().length() == 0)
+                continue;
+
+            final Message message = decode(line);
+            if (message != null)
+                return message;
+        }
+
+        return null;
+    }
+
+    private Message decode(String line) throws IOException {
+        final boolean single = first && !line.trim().endsWith("}");
+        first = false;
+        if (!single)
+            return serializer.fromText(line, Message.class);
+
+        final StringBuilder body = new StringBuilder(line);
+        String next;
+        while ((next = reader.readLine()) != null)
+            body.append('\n').append(next);
+
+        return serializer.fromReader(new StringReader(body.toString()), Message.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,210 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.soup.threading.ExecutorServices;
+
+/**
+ * Envelopes of small messages sent together in a single packet, spoken by
+ * nodes at version 1.5 or later.
+ *
+ * Each envelope carries a header with the count of the messages, followed
+ * by each encoded message prefixed by its length. Messages added for a group
+ * are held for a short linger time, and sent when the linger time is over,
+ * when the envelope is full or when it holds the maximum number of messages.
+ * An envelope holding a single message is sent as that message alone.
+ */
+class UDPEnvelopes {
+
+    public static final String SYSP_ENVELOPE_LINGER = "com.ws.nsnos.udp.envelope.linger.millis";
+    public static final String SYSP_ENVELOPE_MAX_MESSAGES = "com.ws.nsnos.udp.envelope.max.messages";
+
+    public static final byte MAGIC = (byte) 0xEB;
+    public static final Version MIN_VERSION = Version.V1_5;
+
+    // magic and count (2 bytes), then the length (2 bytes) of each message
+    public static final int HEADER_SIZE = 3;
+    public static final int PART_HEADER_SIZE = 2;
+
+    public interface Sink {
+        public void send(InetAddress group, byte[] data, int size) throws IOException;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(UDPEnvelopes.class);
+
+    private final long linger;
+    private final int maxMessages;
+    private final Sink sink;
+    private final Map<InetAddress, Pending> pendings = new HashMap<InetAddress, Pending>();
+
+    private ScheduledExecutorService scheduler;
+
+    UDPEnvelopes(Sink sink) {
+        this(Long.getLong(SYSP_ENVELOPE_LINGER, 2L), Integer.getInteger(SYSP_ENVELOPE_MAX_MESSAGES, 32), sink);
+    }
+
+    UDPEnvelopes(long linger, int maxMessages, Sink sink) {
+        this.linger = linger;
+        this.maxMessages = Math.min(maxMessages, 0xFFFF);
+        this.sink = sink;
+    }
+
+    public boolean isEnabled() {
+        return linger > 0 && maxMessages > 1;
+    }
+
+    public static boolean isEnvelope(byte[] array, int offset, int length) {
+        return length > HEADER_SIZE && array[offset] == MAGIC;
+    }
+
+    /**
+     * Tells if an encoded message of the given size can travel in an envelope
+     * together with other messages
+     */
+    public static boolean fits(int size, int packetSize) {
+        return HEADER_SIZE + 2 * (PART_HEADER_SIZE + size) <= packetSize;
+    }
+
+    /**
+     * Returns the encoded messages held in an envelope
+     */
+    public static List<byte[]> open(byte[] array, int offset, int length) {
+        final int count = readShort(array, offset + 1);
+        final int end = offset + length;
+        final List<byte[]> parts = new ArrayList<byte[]>(count);
+
+        int index = offset + HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (index + PART_HEADER_SIZE > end)
+                throw new IllegalArgumentException("Truncated envelope, message " + i + " of " + count + " missing");
+
+            final int size = readShort(array, index);
+            index += PART_HEADER_SIZE;
+            if (index + size > end)
+                throw new IllegalArgumentException("Truncated envelope, message " + i + " of " + count + " incomplete");
+
+            final byte[] part = new byte[size];
+            System.arraycopy(array, index, part, 0, size);
+            parts.add(part);
+            index += size;
+        }
+
+        return parts;
+    }
+
+    /**
+     * Adds an encoded message to the envelope pending for the group, sending
+     * the envelope first when the message would not fit in it
+     */
+    public synchronized void add(InetAddress group, byte[] data, int size, int packetSize) throws IOException {
+        Pending pending = pendings.get(group);
+        if (pending != null && !pending.fits(size, packetSize)) {
+            flush(group);
+            pending = null;
+        }
+
+        if (pending == null) {
+            pending = new Pending(packetSize, schedule(group));
+            pendings.put(group, pending);
+        }
+
+        pending.add(data, size);
+        if (pending.count == maxMessages)
+            flush(group);
+    }
+
+    public synchronized void flush() throws IOException {
+        for (InetAddress group : new ArrayList<InetAddress>(pendings.keySet())) {
+            flush(group);
+        }
+    }
+
+    public synchronized void close() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    synchronized int pending() {
+        return pendings.size();
+    }
+
+    private void flush(InetAddress group) throws IOException {
+        final Pending pending = pendings.remove(group);
+        if (pending == null)
+            return;
+
+        pending.timer.cancel(false);
+        if (pending.count == 1) {
+            final byte[] single = Arrays.copyOfRange(pending.data, HEADER_SIZE + PART_HEADER_SIZE, pending.size);
+            sink.send(group, single, single.length);
+        } else {
+            writeShort(pending.data, 1, pending.count);
+            sink.send(group, pending.data, pending.size);
+        }
+    }
+
+    private ScheduledFuture<?> schedule(final InetAddress group) {
+        if (scheduler == null)
+            scheduler = ExecutorServices.newSingleThreadScheduledExecutor();
+
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UDPEnvelopes.this) {
+                    try {
+                        flush(group);
+                    } catch (Exception ex) {
+                        logger.warn("Unable to send envelope to " + group, ex);
+                    }
+                }
+            }
+        }, linger, TimeUnit.MILLISECONDS);
+    }
+
+    private static void writeShort(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 8);
+        array[offset + 1] = (byte) value;
+    }
+
+    private static int readShort(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 8) | (array[offset + 1] & 0xFF);
+    }
+
+    private static class Pending {
+        private final byte[] data;
+        private final ScheduledFuture<?> timer;
+        private int size;
+        private int count;
+
+        Pending(int packetSize, ScheduledFuture<?> timer) {
+            this.data = new byte[packetSize];
+            this.timer = timer;
+            this.data[0] = MAGIC;
+            this.size = HEADER_SIZE;
+        }
+
+        boolean fits(int length, int packetSize) {
+            return size + PART_HEADER_SIZE + length <= Math.min(data.length, packetSize);
+        }
+
+        void add(byte[] array, int length) {
+            writeShort(data, size, length);
+            System.arraycopy(array, 0, data, size + PART_HEADER_SIZE, length);
+            size += PART_HEADER_SIZE + length;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * Fragments of a message too big for a single packet, spoken by nodes at
+ * version 1.3 or later.
+ *
+ * Each fragment carries a header with the id of the transmission, its index
+ * and the total count, followed by a slice of the encoded message. The
+ * reassembly buffer keeps partial messages until they are complete, dropping
+ * them when they are not completed in time or when they take too much memory.
+ * The ids of completed messages are remembered for as long, so that late
+ * duplicates of their fragments are dropped instead of starting a new message.
+ */
+class UDPFragments {
+
+    public static final String SYSP_REASSEMBLY_TIMEOUT = "com.ws.nsnos.udp.reassembly.timeout";
+    public static final String SYSP_REASSEMBLY_MAXBYTES = "com.ws.nsnos.udp.reassembly.maxbytes";
+
+    public static final byte MAGIC = (byte) 0xF7;
+    public static final Version MIN_VERSION = Version.V1_3;
+
+    // magic, id (16 bytes), index and count (2 bytes each)
+    public static final int HEADER_SIZE = 21;
+    public static final int MAX_COUNT = 0xFFFF;
+
+    private final long timeout;
+    private final long maxBytes;
+    private final Map<UUID, Partial> partials = new LinkedHashMap<UUID, Partial>();
+    private final Map<UUID, Long> completed = new LinkedHashMap<UUID, Long>();
+
+    private long usedBytes;
+    private long expired;
+
+    UDPFragments() {
+        this(Long.getLong(SYSP_REASSEMBLY_TIMEOUT, 5000L), Long.getLong(SYSP_REASSEMBLY_MAXBYTES, 4L * 1024 * 1024));
+    }
+
+    UDPFragments(long timeout, long maxBytes) {
+        this.timeout = timeout;
+        this.maxBytes = maxBytes;
+    }
+
+    public static boolean isFragment(byte[] array, int offset, int length) {
+        return length > HEADER_SIZE && array[offset] == MAGIC;
+    }
+
+    public static int count(int size, int packetSize) {
+        final int chunk = packetSize - HEADER_SIZE;
+        return (size + chunk - 1) / chunk;
+    }
+
+    /**
+     * Builds the fragment number index of the given encoded message
+     */
+    public static byte[] fragment(UUID id, int index, int count, byte[] data, int size, int packetSize) {
+        final int chunk = packetSize - HEADER_SIZE;
+        final int from = index * chunk;
+        final int length = Math.min(chunk, size - from);
+
+        final byte[] frame = new byte[HEADER_SIZE + length];
+        frame[0] = MAGIC;
+        writeLong(frame, 1, id.getMostSignificantBits());
+        writeLong(frame, 9, id.getLeastSignificantBits());
+        writeShort(frame, 17, index);
+        writeShort(frame, 19, count);
+        System.arraycopy(data, from, frame, HEADER_SIZE, length);
+        return frame;
+    }
+
+    /**
+     * Stores a fragment, returning the whole encoded message once all its
+     * fragments have been received, null otherwise
+     */
+    public synchronized byte[] add(byte[] array, int offset, int length) {
+        final long now = SystemTime.asMillis();
+        expire(now);
+
+        final UUID id = new UUID(readLong(array, offset + 1), readLong(array, offset + 9));
+        final int index = readShort(array, offset + 17);
+        final int count = readShort(array, offset + 19);
+        if (count == 0 || index >= count)
+            throw new IllegalArgumentException("Invalid fragment " + index + " of " + count);
+        if (completed.containsKey(id))
+            return null;
+
+        Partial partial = partials.get(id);
+        if (partial == null) {
+            partial = new Partial(count, now + timeout);
+            partials.put(id, partial);
+        } else if (partial.chunks.length != count) {
+            throw new IllegalArgumentException("Invalid fragment count " + count + ", expected " + partial.chunks.length);
+        }
+
+        if (partial.chunks[index] != null)
+            return null;
+
+        final int size = length - HEADER_SIZE;
+        final byte[] chunk = new byte[size];
+        System.arraycopy(array, offset + HEADER_SIZE, chunk, 0, size);
+        partial.chunks[index] = chunk;
+        partial.received++;
+        partial.bytes += size;
+        usedBytes += size;
+
+        if (partial.received == count) {
+            remove(id);
+            completed.put(id, now + timeout);
+            return partial.join();
+        }
+
+        shrink();
+        return null;
+    }
+
+    public synchronized long expired() {
+        return expired;
+    }
+
+    synchronized int pending() {
+        return partials.size();
+    }
+
+    private void expire(long now) {
+        final Iterator<Long> deadlines = completed.values().iterator();
+        while (deadlines.hasNext() && deadlines.next() <= now)
+            deadlines.remove();
+
+        final Iterator<Partial> iterator = partials.values().iterator();
+        while (iterator.hasNext()) {
+            final Partial partial = iterator.next();
+            if (partial.deadline > now)
+                break;
+
+            iterator.remove();
+            usedBytes -= partial.bytes;
+            expired++;
+        }
+    }
+
+    private void shrink() {
+        final Iterator<Partial> iterator = partials.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            final Partial partial = iterator.next();
+            iterator.remove();
+            usedBytes -= partial.bytes;
+            expired++;
+        }
+    }
+
+    private void remove(UUID id) {
+        final Partial partial = partials.remove(id);
+        usedBytes -= partial.bytes;
+    }
+
+    private static void writeLong(byte[] array, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            array[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] array, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (array[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static void writeShort(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 8);
+        array[offset + 1] = (byte) value;
+    }
+
+    private static int readShort(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 8) | (array[offset + 1] & 0xFF);
+    }
+
+    private static class Partial {
+        private final byte[][] chunks;
+        private final long deadline;
+        private int received;
+        private int bytes;
+
+        Partial(int count, long deadline) {
+            this.chunks = new byte[count][];
+            this.deadline = deadline;
+        }
+
+        byte[] join() {
+            final byte[] data = new byte[bytes];
+            int offset = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, data, offset, chunk.length);
+                offset += chunk.length;
+            }
+            return data;
+        }
+    }
+}
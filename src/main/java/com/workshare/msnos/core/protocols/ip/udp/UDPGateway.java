@@ -4,33 +4,48 @@ import static java.lang.Math.min;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.util.ArrayList;
+import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.workshare.msnos.core.Agent;
 import com.workshare.msnos.core.Cloud;
 import com.workshare.msnos.core.Gateway;
 import com.workshare.msnos.core.Identifiable;
 import com.workshare.msnos.core.Message;
-import com.workshare.msnos.core.Message.Payload;
 import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Receipt;
+import com.workshare.msnos.core.Version;
 import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoint.Type;
 import com.workshare.msnos.core.protocols.ip.Endpoints;
 import com.workshare.msnos.core.protocols.ip.MulticastSocketFactory;
 import com.workshare.msnos.core.protocols.ip.Network;
 import com.workshare.msnos.core.receipts.SingleReceipt;
+import com.workshare.msnos.core.serializers.WireBinarySerializer;
+import com.workshare.msnos.core.serializers.WireDeflateSerializer;
+import com.workshare.msnos.core.serializers.WireHeader;
 import com.workshare.msnos.core.serializers.WireSerializer;
+import com.workshare.msnos.soup.io.ByteBufferOutputStream;
 import com.workshare.msnos.soup.threading.Multicaster;
+import com.workshare.msnos.soup.threading.ThreadFactories;
 import com.workshare.msnos.soup.time.SystemTime;
 
 public class UDPGateway implements Gateway {
@@ -40,35 +55,75 @@ public class UDPGateway implements Gateway {
     public static final String SYSP_PORT_NUM = "com.ws.nsnos.udp.port.number";
     public static final String SYSP_PORT_WIDTH = "com.ws.nsnos.udp.port.width";
     public static final String SYSP_UDP_GROUP = "com.ws.nsnos.udp.group";
+    public static final String SYSP_UDP_GROUP_PER_CLOUD = "com.ws.nsnos.udp.group.percloud";
     public static final String SYSP_UDP_PACKET_SIZE = "com.ws.nsnos.udp.packet.size";
     public static final String SYSP_RETRY_TIMES = "com.ws.nsnos.udp.group.retry.times";
+    public static final String SYSP_UNICAST_DISABLED = "com.ws.nsnos.udp.unicast.disabled";
 
     public static final String SYSP_NET_IPV6ALSO = "com.ws.msnos.network.ipv6also";
     public static final String SYSP_NET_VIRTUAL = "com.ws.msnos.network.includevirtual";
 
+    public static final int LEGACY_PACKET_SIZE = 512;
+
+    // IP and UDP headers, sized for IPv6 when it's in use
+    private static final int IPV4_HEADERS_SIZE = 20 + 8;
+    private static final int IPV6_HEADERS_SIZE = 40 + 8;
+
+    // small messages, travelling together in envelopes when possible
+    private static final Set<Message.Type> ENVELOPED = EnumSet.of(Message.Type.PIN, Message.Type.PON, Message.Type.HCK, Message.Type.ENQ, Message.Type.DSC);
+
     private MulticastSocket socket;
+    private DatagramSocket unicast;
     private InetAddress group;
+    private final boolean groupPerCloud;
+    private final Map<UUID, InetAddress> cloudGroups = new ConcurrentHashMap<UUID, InetAddress>();
+    private final List<Cloud> clouds = new CopyOnWriteArrayList<Cloud>();
     private int ports[];
 
     private final Multicaster<Listener, Message> caster;
     private final WireSerializer sz;
+    private final WireSerializer binary;
+    private final WireSerializer deflated;
+    private final UDPPeers peers;
+    private final UDPPorts livePorts;
     private final int packetSize;
+    private final boolean fixedPacketSize;
+    private final long nonce = new Random().nextLong();
+    private final AtomicLong fragmentsSent = new AtomicLong();
     private final int retries;
     private final Endpoints endpoints;
     private final UDPServer server;
+    private final UDPPacer pacer;
+    private final UDPEnvelopes envelopes;
 
 
     public UDPGateway(MulticastSocketFactory sockets, UDPServer aServer, Multicaster<Listener, Message> caster) throws IOException {
         this.caster = caster;
         this.sz = aServer.serializer();
+        this.binary = new WireBinarySerializer(sz);
+        this.deflated = new WireDeflateSerializer(binary);
+        this.peers = new UDPPeers();
+        this.livePorts = new UDPPorts();
         this.retries = Integer.getInteger(SYSP_RETRY_TIMES, 3);
-        this.packetSize = Integer.getInteger(SYSP_UDP_PACKET_SIZE, 512);
-        this.endpoints = createEndpoints();
+        this.fixedPacketSize = (Integer.getInteger(SYSP_UDP_PACKET_SIZE) != null);
+        this.packetSize = loadPacketSize();
         this.server = aServer;
+        this.groupPerCloud = Boolean.getBoolean(SYSP_UDP_GROUP_PER_CLOUD);
         
         loadPorts();
         openSocket(sockets);
+        openUnicastSocket(sockets);
+        this.endpoints = createEndpoints();
         startServer(aServer);
+        this.pacer = startPacer();
+        this.envelopes = createEnvelopes();
+    }
+
+    /**
+     * Returns the size of the largest packet this gateway is willing to receive
+     */
+    public int packetSize() {
+        return packetSize;
     }
     
     @Override
@@ -79,14 +134,64 @@ public class UDPGateway implements Gateway {
     @Override
     public void close() throws IOException {
         server.stop();
+        envelopes.close();
+        pacer.stop();
         socket.close();
+        if (unicast != null)
+            unicast.close();
+    }
+
+    /**
+     * Returns the number of datagrams waiting to be sent by the pacer
+     */
+    public int pacingQueued() {
+        return pacer.queued();
+    }
+
+    /**
+     * Returns the number of datagrams the pacer dropped as its queue was full
+     */
+    public long pacingDropped() {
+        return pacer.dropped();
+    }
+
+    private UDPPacer startPacer() {
+        final UDPPacer pacer = new UDPPacer();
+        if (pacer.isEnabled()) {
+            pacer.start(ThreadFactories.DEFAULT, new UDPPacer.Sink() {
+                @Override
+                public void send(DatagramPacket packet) throws IOException {
+                    doSend(packet);
+                }
+            });
+        }
+
+        return pacer;
+    }
+
+    private UDPEnvelopes createEnvelopes() {
+        return new UDPEnvelopes(new UDPEnvelopes.Sink() {
+            @Override
+            public void send(InetAddress group, byte[] data, int size) throws IOException {
+                sendToPorts(group, livePorts.targets(ports), data, size);
+            }
+        });
     }
 
     private void startServer(UDPServer server) {
-        server.start(socket, packetSize);
+        server.start(socket, packetSize, livePorts);
+        if (unicast != null)
+            server.listen(unicast);
+        server.setFilter(new UDPServer.Filter() {
+            @Override
+            public boolean accept(WireHeader header) {
+                return isReceivable(header);
+            }
+        });
         server.addListener(new Listener() {
             @Override
             public void onMessage(Message message) {
+                peers.seen(message);
                 caster.dispatch(message);
             }
         });
@@ -111,15 +216,92 @@ public class UDPGateway implements Gateway {
 
         String groupAddressName = loadUDPGroup();
         group = InetAddress.getByName(groupAddressName);
+        if (groupPerCloud) {
+            logger.info("Using one group per cloud, derived from " + group);
+            return;
+        }
+
         socket.joinGroup(group);
         logger.info("Joined group " + group);
     }
 
+    // the multicast port is shared by every agent on the host, so the one we advertise is ours only
+    private void openUnicastSocket(MulticastSocketFactory sockets) {
+        if (Boolean.getBoolean(SYSP_UNICAST_DISABLED))
+            return;
+
+        DatagramSocket usock = null;
+        try {
+            usock = sockets.createUnicast();
+            usock.setReuseAddress(false);
+            usock.bind(new InetSocketAddress(0));
+            if (usock.getLocalPort() > 0) {
+                unicast = usock;
+                logger.info("Unicast socket opened on port: {} ", usock.getLocalPort());
+                return;
+            }
+        } catch (IOException ex) {
+            logger.warn("Unable to open unicast socket, only multicast will be used", ex);
+        }
+
+        if (usock != null)
+            usock.close();
+    }
+
     @Override
     public void addListener(Cloud cloud, Listener listener) {
+        if (cloud != null && !clouds.contains(cloud))
+            clouds.add(cloud);
+        if (groupPerCloud && cloud != null)
+            joinCloudGroup(cloud);
+
         caster.addListener(listener);
     }
 
+    // unrelated clouds talk on different groups, so their traffic is filtered by the kernel
+    private synchronized void joinCloudGroup(Cloud cloud) {
+        final UUID uuid = cloud.getIden().getUUID();
+        if (cloudGroups.containsKey(uuid))
+            return;
+
+        final InetAddress cloudGroup = groupOf(uuid);
+        try {
+            socket.joinGroup(cloudGroup);
+            cloudGroups.put(uuid, cloudGroup);
+            logger.info("Joined group {} for cloud {}", cloudGroup, uuid);
+        } catch (IOException ex) {
+            logger.warn("Unable to join group " + cloudGroup + " for cloud " + uuid, ex);
+        }
+    }
+
+    private InetAddress groupOf(Cloud cloud) {
+        if (!groupPerCloud || cloud == null)
+            return group;
+
+        final InetAddress cloudGroup = cloudGroups.get(cloud.getIden().getUUID());
+        return cloudGroup != null ? cloudGroup : groupOf(cloud.getIden().getUUID());
+    }
+
+    /**
+     * Derives the group of a cloud from the configured one, replacing its
+     * last three bytes with a hash of the cloud uuid
+     */
+    InetAddress groupOf(UUID cloud) {
+        final long hash = cloud.getMostSignificantBits() ^ cloud.getLeastSignificantBits();
+        final int folded = (int) (hash ^ (hash >>> 24) ^ (hash >>> 48));
+
+        final byte[] address = group.getAddress();
+        final int last = address.length - 1;
+        address[last] = (byte) folded;
+        address[last - 1] = (byte) (folded >>> 8);
+        address[last - 2] = (byte) (folded >>> 16);
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException("Unable to derive group from " + group, ex);
+        }
+    }
+
     @Override
     public Endpoints endpoints() {
         return endpoints;
@@ -130,31 +312,72 @@ public class UDPGateway implements Gateway {
 
         logger.debug("send message {} ", message);
 
-        List<Payload> payloads;
-        int fullMsgLength = sz.toBytes(message).length;
-        int lengthWithoutPayload = fullMsgLength - sz.toBytes(message.getData()).length;
+        final WireSerializer wire = wireSerializer();
+        final ByteBufferOutputStream buffer = ByteBufferOutputStream.local();
+        wire.toStream(message, buffer);
 
-        if (fullMsgLength > packetSize) {
-            payloads = getSplitPayloads(new ArrayList<Payload>(), message.getData(), lengthWithoutPayload);
+        final int size = ringPacketSize();
+        final Endpoint unicast = (to instanceof Agent ? findUnicastEndpoint((Agent) to) : null);
+        final InetAddress address = (unicast == null ? groupOf(cloud) : InetAddress.getByAddress(unicast.getNetwork().getAddress()));
+        if (unicast == null && isEnvelopable(message, buffer.size(), size)) {
+            envelopes.add(address, buffer.array(), buffer.size(), size);
+            return new SingleReceipt(this, Status.PENDING, message);
+        }
+
+        final int[] targets = (unicast == null ? livePorts.targets(ports) : new int[]{unicast.getPort() & 0xffff});
+        if (buffer.size() <= size) {
+            sendToPorts(address, targets, buffer);
+        } else if (speaks(UDPFragments.MIN_VERSION)) {
+            sendFragments(message, buffer, size, address, targets);
         } else {
-            payloads = Arrays.asList(message.getData());
+            // legacy peers would truncate a part bigger than the packet size
+            List<Message> parts = new UDPPacker(size, peers.packetSize(UDPPacker.MAX_DATAGRAM_SIZE)).pack(wire, message);
+            logger.debug("Message {} of {} bytes sent in {} datagrams", message.getUuid(), buffer.size(), parts.size());
+            for (Message part : parts) {
+                buffer.reset();
+                wire.toStream(part, buffer);
+                sendToPorts(address, targets, buffer);
+            }
+        }
+
+        return new SingleReceipt(this, Status.PENDING, message);
+    }
+
+    private void sendFragments(Message message, ByteBufferOutputStream buffer, int packetSize, InetAddress address, int[] targets) throws IOException {
+        final int count = UDPFragments.count(buffer.size(), packetSize);
+        if (count > UDPFragments.MAX_COUNT)
+            throw new IOException("Unable to send message: the payload is too big even for fragments");
+
+        final UUID id = new UUID(nonce, fragmentsSent.incrementAndGet());
+        logger.debug("Message {} of {} bytes sent in {} fragments", message.getUuid(), buffer.size(), count);
+        for (int i = 0; i < count; i++) {
+            final byte[] frame = UDPFragments.fragment(id, i, count, buffer.array(), buffer.size(), packetSize);
+            sendToPorts(address, targets, frame, frame.length);
         }
+    }
 
-        for (Payload load : payloads) {
-            Message msg = message.data(load);
-            byte[] payload = sz.toBytes(msg);
+    private void sendToPorts(InetAddress address, int[] targets, ByteBufferOutputStream buffer) throws IOException {
+        sendToPorts(address, targets, buffer.array(), buffer.size());
+    }
 
-            for (int port : ports) {
-                DatagramPacket packet = new DatagramPacket(
-                        payload,
-                        payload.length,
-                        group,
-                        port);
-                doSend(packet);
+    private void sendToPorts(InetAddress address, int[] targets, byte[] data, int size) throws IOException {
+        if (pacer.isEnabled()) {
+            // the buffer is reused by the next send, while the pacer may not be done yet
+            final byte[] copy = Arrays.copyOf(data, size);
+            for (int port : targets) {
+                pacer.offer(new DatagramPacket(copy, size, address, port));
             }
+            return;
         }
 
-        return new SingleReceipt(this, Status.PENDING, message);
+        for (int port : targets) {
+            DatagramPacket packet = new DatagramPacket(
+                    data,
+                    size,
+                    address,
+                    port);
+            doSend(packet);
+        }
     }
 
     private void doSend(DatagramPacket packet) throws IOException {
@@ -183,19 +406,43 @@ public class UDPGateway implements Gateway {
         catch (InterruptedException ex) {Thread.interrupted();}
     }
 
-    private List<Payload> getSplitPayloads(List<Payload> payloads, Payload payload, int msgLength) throws IOException {
-        Payload[] loads = payload.split();
-        if (loads == null)
-            throw new IOException("Unable to send message: the payload is too big and unsplittable");
+    // newer frames are used only when we speak a recent enough version and so does everyone we heard from
+    private WireSerializer wireSerializer() {
+        if (speaks(WireDeflateSerializer.MIN_VERSION))
+            return deflated;
+        else if (speaks(WireBinarySerializer.MIN_VERSION))
+            return binary;
+        else
+            return sz;
+    }
 
-        for (Payload load : loads) {
-            if (sz.toBytes(load).length + msgLength > packetSize) {
-                getSplitPayloads(payloads, load, msgLength);
-            } else {
-                payloads.add(load);
-            }
+    private boolean isEnvelopable(Message message, int encodedSize, int packetSize) {
+        return envelopes.isEnabled()
+            && ENVELOPED.contains(message.getType())
+            && UDPEnvelopes.fits(encodedSize, packetSize)
+            && speaks(UDPEnvelopes.MIN_VERSION);
+    }
+
+    // presences are always decoded, as they tell versions, sizes and ports of peers
+    private boolean isReceivable(WireHeader header) {
+        if (header.getType() == Message.Type.PRS || clouds.isEmpty())
+            return true;
+
+        for (Cloud cloud : clouds) {
+            if (cloud.validators().isReceivable(header.getFrom(), header.getTo(), header.getUuid()).success())
+                return true;
         }
-        return payloads;
+
+        return false;
+    }
+
+    // the largest packet everybody in the ring accepts, unless the size was forced
+    private int ringPacketSize() {
+        return fixedPacketSize ? packetSize : peers.packetSize(packetSize);
+    }
+
+    private boolean speaks(Version min) {
+        return Version.CURRENT.isAtLeast(min) && peers.allAtLeast(min);
     }
 
     private void loadPorts() {
@@ -214,6 +461,24 @@ public class UDPGateway implements Gateway {
         return Integer.getInteger(SYSP_PORT_NUM, 3728);
     }
 
+    private int loadPacketSize() {
+        final Integer size = Integer.getInteger(SYSP_UDP_PACKET_SIZE);
+        if (size != null)
+            return size;
+
+        final boolean ipv6Also = Boolean.getBoolean(SYSP_NET_IPV6ALSO);
+        final int headers = (ipv6Also ? IPV6_HEADERS_SIZE : IPV4_HEADERS_SIZE);
+        final int mtu = Network.findMinimumMTU(Boolean.getBoolean(SYSP_NET_VIRTUAL));
+        if (mtu - headers < LEGACY_PACKET_SIZE) {
+            logger.debug("No usable MTU found, packet size defaulted to {}", LEGACY_PACKET_SIZE);
+            return LEGACY_PACKET_SIZE;
+        }
+
+        final int packet = min(mtu - headers, UDPPacker.MAX_DATAGRAM_SIZE);
+        logger.debug("Packet size {} from a minimum MTU of {}", packet, mtu);
+        return packet;
+    }
+
     private Integer loadPortWidth() {
         return Integer.getInteger(SYSP_PORT_WIDTH, 3);
     }
@@ -225,16 +490,56 @@ public class UDPGateway implements Gateway {
     public WireSerializer serializer() {
         return sz;
     }
+
+    /**
+     * Returns the UDP endpoint the agent receives unicast datagrams on, if
+     * any: only endpoints advertising a port on one of our own networks do,
+     * IPv4 ones preferred
+     */
+    public Endpoint findUnicastEndpoint(Agent agent) {
+        return findUnicastEndpoint(agent, endpoints.all());
+    }
+
+    static Endpoint findUnicastEndpoint(Agent agent, Set<? extends Endpoint> locals) {
+        final Set<Endpoint> points = agent.getEndpoints();
+        if (points == null)
+            return null;
+
+        Endpoint found = null;
+        for (Endpoint point : points) {
+            if (point.getType() != Type.UDP || point.getPort() == 0 || !isLocal(point, locals))
+                continue;
+
+            if (point.getNetwork().getAddress().length == 4)
+                return point;
+            else if (found == null)
+                found = point;
+        }
+
+        return found;
+    }
+
+    private static boolean isLocal(Endpoint point, Set<? extends Endpoint> locals) {
+        for (Endpoint local : locals) {
+            if (local.getNetwork().contains(point.getNetwork()))
+                return true;
+        }
+
+        return false;
+    }
     
     private Endpoints createEndpoints() {
         boolean ipv6Also= Boolean.getBoolean(SYSP_NET_IPV6ALSO);
         boolean includeVirtual = Boolean.getBoolean(SYSP_NET_VIRTUAL);
 
         logger.debug("Collecting endpoints: ipv6 {}, virtual {}", ipv6Also, includeVirtual);
+        // the port tells other agents they can reach us directly
+        short port = (unicast == null ? Type.UDP.defaultPort() : (short) unicast.getLocalPort());
+
         Set<Network> nets = Network.listAll(!ipv6Also, includeVirtual);
         Set<BaseEndpoint> ends = new HashSet<BaseEndpoint>();
         for (Network net : nets) {
-            ends.add(new BaseEndpoint(Type.UDP, net));
+            ends.add(new BaseEndpoint(Type.UDP, net, port));
         }
         logger.debug("Loaded endpoints: {}", ends);
 
@@ -0,0 +1,181 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * Paces the datagrams sent by the gateway, so that a burst of messages does
+ * not overflow the buffers of switches and receivers.
+ *
+ * Datagrams are queued and sent by a dedicated thread, as long as the token
+ * buckets for packets and bytes per second allow it. A bucket holds at most
+ * the tokens for a short burst, and may go below zero by one datagram, so
+ * that datagrams bigger than the burst still go out. Datagrams that do not
+ * fit the queue are counted as dropped and discarded.
+ *
+ * Pacing is enabled only when at least one of the rates is configured.
+ */
+class UDPPacer {
+
+    public static final String SYSP_PACING_PPS = "com.ws.nsnos.udp.pacing.pps";
+    public static final String SYSP_PACING_BPS = "com.ws.nsnos.udp.pacing.bps";
+    public static final String SYSP_PACING_BURST = "com.ws.nsnos.udp.pacing.burst.millis";
+    public static final String SYSP_PACING_QUEUE_SIZE = "com.ws.nsnos.udp.pacing.queue.size";
+
+    public interface Sink {
+        public void send(DatagramPacket packet) throws IOException;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(UDPPacer.class);
+    private static final String THREAD_NAME = "UDP-Sender";
+
+    private final long packetsPerSecond;
+    private final long bytesPerSecond;
+    private final double packetsBurst;
+    private final double bytesBurst;
+    private final BlockingQueue<DatagramPacket> queue;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private double packets;
+    private double bytes;
+    private long last;
+    private Thread thread;
+
+    UDPPacer() {
+        this(Long.getLong(SYSP_PACING_PPS, 0L), Long.getLong(SYSP_PACING_BPS, 0L), Long.getLong(SYSP_PACING_BURST, 100L), Integer.getInteger(SYSP_PACING_QUEUE_SIZE, 4096));
+    }
+
+    UDPPacer(long packetsPerSecond, long bytesPerSecond, long burstMillis, int queueSize) {
+        this.packetsPerSecond = packetsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.packetsBurst = Math.max(1.0, packetsPerSecond * burstMillis / 1000.0);
+        this.bytesBurst = Math.max(1.0, bytesPerSecond * burstMillis / 1000.0);
+        this.queue = new ArrayBlockingQueue<DatagramPacket>(queueSize);
+        this.packets = packetsBurst;
+        this.bytes = bytesBurst;
+        this.last = -1;
+    }
+
+    public boolean isEnabled() {
+        return packetsPerSecond > 0 || bytesPerSecond > 0;
+    }
+
+    public synchronized void start(ThreadFactory threads, final Sink sink) {
+        if (thread != null)
+            throw new RuntimeException("UDPPacer started two times? WTF?");
+
+        thread = threads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                loop(sink);
+            }
+        });
+
+        thread.setDaemon(true);
+        thread.setName(THREAD_NAME);
+        thread.start();
+        logger.info("Pacing UDP at {} packets/sec and {} bytes/sec", packetsPerSecond, bytesPerSecond);
+    }
+
+    public synchronized void stop() {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Queues a datagram for sending, returning false when the queue is full
+     * and the datagram was dropped
+     */
+    public boolean offer(DatagramPacket packet) {
+        if (queue.offer(packet))
+            return true;
+
+        dropped.incrementAndGet();
+        logger.debug("Pacing queue full, datagram to {}:{} dropped", packet.getAddress(), packet.getPort());
+        return false;
+    }
+
+    /**
+     * Takes the tokens needed to send a datagram of the given size, returning
+     * zero, or the milliseconds to wait before trying again when the tokens
+     * are not there yet
+     */
+    synchronized long reserve(int size, long now) {
+        refill(now);
+
+        long wait = 0;
+        if (packetsPerSecond > 0 && packets < 1.0)
+            wait = Math.max(wait, (long) Math.ceil((1.0 - packets) * 1000 / packetsPerSecond));
+        if (bytesPerSecond > 0 && bytes <= 0.0)
+            wait = Math.max(wait, (long) Math.ceil((1.0 - bytes) * 1000 / bytesPerSecond));
+        if (wait > 0)
+            return wait;
+
+        packets -= 1.0;
+        bytes -= size;
+        return 0;
+    }
+
+    private void refill(long now) {
+        if (last >= 0 && now > last) {
+            final long elapsed = now - last;
+            packets = Math.min(packetsBurst, packets + elapsed * packetsPerSecond / 1000.0);
+            bytes = Math.min(bytesBurst, bytes + elapsed * bytesPerSecond / 1000.0);
+        }
+
+        last = Math.max(last, now);
+    }
+
+    private void loop(Sink sink) {
+        final Thread current = Thread.currentThread();
+        try {
+            while (!current.isInterrupted()) {
+                final DatagramPacket packet = queue.take();
+
+                long wait;
+                while ((wait = reserve(packet.getLength(), SystemTime.asMillis())) > 0)
+                    SystemTime.sleep(wait);
+
+                try {
+                    sink.send(packet);
+                    sent.incrementAndGet();
+                } catch (IOException ex) {
+                    failed.incrementAndGet();
+                    logger.debug("Unable to send datagram to {}:{}", packet.getAddress(), packet.getPort());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.interrupted();
+        }
+
+        logger.info("Sender loop ended!");
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,166 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Message.Payload;
+import com.workshare.msnos.core.payloads.Packable;
+import com.workshare.msnos.core.serializers.WireSerializer;
+import com.workshare.msnos.soup.io.SizeOutputStream;
+
+/**
+ * Spreads a message too big for a packet over as few messages as possible.
+ *
+ * Elements of packable payloads are measured once and packed first-fit
+ * decreasing; other payloads fall back to their own split. A part that
+ * cannot be made smaller is still sent on its own, but only when it fits
+ * into what every receiver accepts.
+ */
+class UDPPacker {
+
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    // room for the separator between elements, if any
+    private static final int ELEMENT_SLACK = 1;
+
+    private final int packetSize;
+    private final int maxPartSize;
+
+    UDPPacker(int packetSize, int maxPartSize) {
+        this.packetSize = packetSize;
+        this.maxPartSize = Math.min(Math.max(packetSize, maxPartSize), MAX_DATAGRAM_SIZE);
+    }
+
+    // every part is encoded once: its wire form is memoized and reused when sent
+    public List<Message> pack(WireSerializer wire, Message message) throws IOException {
+        final List<Message> parts = new ArrayList<Message>();
+        if (sizeOf(wire, message) <= packetSize)
+            parts.add(message);
+        else
+            pack(wire, message, parts);
+        return parts;
+    }
+
+    private void pack(WireSerializer wire, Message message, List<Message> parts) throws IOException {
+        final Payload data = message.getData();
+        if (data instanceof Packable)
+            packElements(wire, message, (Packable<?>) data, parts);
+        else
+            splitPayload(wire, message, parts);
+    }
+
+    private <E> void packElements(WireSerializer wire, Message message, Packable<E> data, List<Message> parts) throws IOException {
+        final List<E> elements = data.elements();
+        if (elements.size() < 2) {
+            addAlone(wire, message, parts);
+            return;
+        }
+
+        final int base = sizeOf(wire, message.data(data.with(Collections.<E>emptyList())));
+        final List<Sized<E>> sized = new ArrayList<Sized<E>>(elements.size());
+        for (E element : elements) {
+            final int size = sizeOf(wire, message.data(data.with(Collections.singletonList(element)))) - base;
+            sized.add(new Sized<E>(element, size + ELEMENT_SLACK));
+        }
+        Collections.sort(sized, Sized.DECREASING);
+
+        final int capacity = packetSize - base;
+        final List<Bin<E>> bins = new ArrayList<Bin<E>>();
+        for (Sized<E> item : sized) {
+            Bin<E> target = null;
+            for (Bin<E> bin : bins) {
+                if (bin.free >= item.size) {
+                    target = bin;
+                    break;
+                }
+            }
+
+            if (target == null) {
+                target = new Bin<E>(capacity);
+                bins.add(target);
+            }
+
+            target.add(item);
+        }
+
+        for (Bin<E> bin : bins) {
+            final Message part = message.data(data.with(bin.elements));
+            if (bin.elements.size() > 1 && sizeOf(wire, part) > packetSize)
+                packHalves(wire, message, data, bin.elements, parts);
+            else
+                addAlone(wire, part, parts);
+        }
+    }
+
+    // sizes are estimates on non additive encodings (i.e. compressed), so a bin may still overflow
+    private <E> void packHalves(WireSerializer wire, Message message, Packable<E> data, List<E> elements, List<Message> parts) throws IOException {
+        final int half = elements.size() / 2;
+        pack(wire, message.data(data.with(elements.subList(0, half))), parts);
+        pack(wire, message.data(data.with(elements.subList(half, elements.size()))), parts);
+    }
+
+    private void splitPayload(WireSerializer wire, Message message, List<Message> parts) throws IOException {
+        if (sizeOf(wire, message) <= packetSize) {
+            parts.add(message);
+            return;
+        }
+
+        final Payload[] loads = message.getData().split();
+        if (loads == null || loads.length < 2) {
+            addAlone(wire, message, parts);
+            return;
+        }
+
+        for (Payload load : loads) {
+            splitPayload(wire, message.data(load), parts);
+        }
+    }
+
+    private void addAlone(WireSerializer wire, Message part, List<Message> parts) throws IOException {
+        if (sizeOf(wire, part) > maxPartSize)
+            throw new IOException("Unable to send message: the payload is too big and unsplittable");
+
+        parts.add(part);
+    }
+
+    static int sizeOf(WireSerializer wire, Object anyObject) throws IOException {
+        final SizeOutputStream counter = new SizeOutputStream();
+        wire.toStream(anyObject, counter);
+        return counter.size();
+    }
+
+    private static class Sized<E> {
+        private static final Comparator<Sized<?>> DECREASING = new Comparator<Sized<?>>() {
+            @Override
+            public int compare(Sized<?> one, Sized<?> two) {
+                return two.size - one.size;
+            }
+        };
+
+        private final E element;
+        private final int size;
+
+        Sized(E element, int size) {
+            this.element = element;
+            this.size = size;
+        }
+    }
+
+    private static class Bin<E> {
+        private final List<E> elements = new ArrayList<E>();
+        private int free;
+
+        Bin(int capacity) {
+            this.free = capacity;
+        }
+
+        void add(Sized<E> item) {
+            elements.add(item.element);
+            free -= item.size;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jodah.expiringmap.ExpiringMap;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.core.payloads.Presence;
+
+/**
+ * Remembers the wire version spoken by every sender heard on the UDP group, so
+ * that the gateway can switch to a newer format only when nobody would be left
+ * behind, and the packet size each of them advertised in its presence.
+ */
+class UDPPeers {
+
+    public static final String SYSP_PEERS_EXPIRE = "com.ws.nsnos.udp.peers.expire";
+
+    private final ExpiringMap<Iden, Version> versions;
+    private final ExpiringMap<Iden, Integer> sizes;
+
+    UDPPeers() {
+        final long expire = Long.getLong(SYSP_PEERS_EXPIRE, 300);
+        this.versions = ExpiringMap.builder().expiration(expire, TimeUnit.SECONDS).build();
+        this.sizes = ExpiringMap.builder().expiration(expire, TimeUnit.SECONDS).build();
+    }
+
+    public void seen(Message message) {
+        final Iden from = message.getFrom();
+        if (from == null)
+            return;
+
+        versions.put(from, message.getVersion());
+        if (message.getData() instanceof Presence) {
+            final Integer size = ((Presence) message.getData()).getPacketSize();
+            if (size != null)
+                sizes.put(from, size);
+        }
+    }
+
+    /**
+     * Returns the largest packet size accepted by all the known peers, capped
+     * to the given one: peers that never advertised a size get the legacy one
+     */
+    public int packetSize(int ownSize) {
+        if (versions.isEmpty())
+            return Math.min(ownSize, UDPGateway.LEGACY_PACKET_SIZE);
+
+        int size = ownSize;
+        for (Iden peer : versions.keySet()) {
+            final Integer peerSize = sizes.get(peer);
+            size = Math.min(size, peerSize == null ? UDPGateway.LEGACY_PACKET_SIZE : peerSize);
+        }
+
+        return size;
+    }
+
+    public boolean allAtLeast(Version version) {
+        if (versions.isEmpty())
+            return false;
+
+        for (Version peer : versions.values()) {
+            if (!peer.isAtLeast(version))
+                return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * Remembers which ports of the group have live agents, learned from the
+ * source port of the presences received, so that the gateway can avoid
+ * sending to ports where nobody listens.
+ *
+ * Every now and then the whole port width is probed anyway, so that agents
+ * that joined on other ports are still found.
+ */
+class UDPPorts {
+
+    public static final String SYSP_PORTS_EXPIRE = "com.ws.nsnos.udp.ports.expire";
+    public static final String SYSP_PORTS_PROBE = "com.ws.nsnos.udp.ports.probe";
+
+    private final long expire;
+    private final long probe;
+    private final Map<Integer, Long> lastSeen = new HashMap<Integer, Long>();
+
+    private long nextProbe;
+
+    UDPPorts() {
+        this(Long.getLong(SYSP_PORTS_EXPIRE, 300000L), Long.getLong(SYSP_PORTS_PROBE, 60000L));
+    }
+
+    UDPPorts(long expire, long probe) {
+        this.expire = expire;
+        this.probe = probe;
+    }
+
+    public synchronized void seen(int port) {
+        lastSeen.put(port, SystemTime.asMillis());
+    }
+
+    /**
+     * Returns the ports to send to, out of all the given ones: all of them when
+     * a probe is due or when no live port is known
+     */
+    public synchronized int[] targets(int[] ports) {
+        final long now = SystemTime.asMillis();
+        if (now >= nextProbe) {
+            nextProbe = now + probe;
+            return ports;
+        }
+
+        expire(now);
+        int count = 0;
+        final int[] live = new int[ports.length];
+        for (int port : ports) {
+            if (lastSeen.containsKey(port))
+                live[count++] = port;
+        }
+
+        if (count == 0 || count == ports.length)
+            return ports;
+
+        final int[] result = new int[count];
+        System.arraycopy(live, 0, result, 0, count);
+        return result;
+    }
+
+    private void expire(long now) {
+        final Iterator<Long> iterator = lastSeen.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() + expire <= now)
+                iterator.remove();
+        }
+    }
+}
@@ -2,30 +2,83 @@ package com.workshare.msnos.core.protocols.ip.udp;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.MulticastSocket;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.workshare.msnos.core.Gateway.Listener;
 import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.serializers.WireBinarySerializer;
+import com.workshare.msnos.core.serializers.WireDeflateSerializer;
 import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.core.serializers.WireHeader;
 import com.workshare.msnos.core.serializers.WireSerializer;
 import com.workshare.msnos.soup.threading.Multicaster;
 import com.workshare.msnos.soup.threading.ThreadFactories;
 
+/**
+ * Receives messages from the multicast socket.
+ *
+ * By default the receiving thread also decodes each packet and dispatches it.
+ * When workers are configured the receiving thread only drains the socket,
+ * handing a copy of each frame to a bounded queue served by the workers:
+ * frames that do not fit are counted as overflowed and discarded.
+ *
+ * Fragments are held until the whole message is received, so listeners always
+ * get one logical message: incomplete ones are counted as expired and dropped.
+ *
+ * The source port of each presence received, which is the port its sender is
+ * listening on, is reported to the live ports of the gateway.
+ *
+ * Envelopes are opened, and each message they hold is handled on its own.
+ *
+ * A unicast socket, owned by this agent only, can be listened on as well: its
+ * datagrams are handled exactly as the multicast ones.
+ *
+ * When a filter is set, the header of each frame is scanned before decoding
+ * it, and frames the filter would not accept are counted and skipped.
+ */
 public class UDPServer {
 
+    public static final String SYSP_UDP_WORKERS = "com.ws.nsnos.udp.workers";
+    public static final String SYSP_UDP_QUEUE_SIZE = "com.ws.nsnos.udp.queue.size";
+    public static final String SYSP_UDP_RCVBUF = "com.ws.nsnos.udp.rcvbuf";
+
+    public interface Filter {
+        public boolean accept(WireHeader header);
+    }
+
     private static Logger logger = Logger.getLogger(UDPServer.class.getName());
     private static final String THREAD_NAME = "UDP-Server";
+    private static final String UNICAST_NAME = "UDP-Unicast";
+    private static final String WORKER_NAME = "UDP-Worker-";
     
     private final ThreadFactory threads;
     private final Multicaster<Listener, Message> multicaster;
     private final WireSerializer sz;
+    private final WireSerializer decoder;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final UDPFragments fragments = new UDPFragments();
 
     private Thread thread;
+    private Thread unicastThread;
+    private Thread[] workers;
+    private BlockingQueue<Frame> frames;
     private int maxPacketSize;
     private MulticastSocket socket;
+    private UDPPorts ports;
+    private volatile Filter filter;
 
     public UDPServer() {
         this(ThreadFactories.DEFAULT, new Multicaster<Listener, Message>() {
@@ -38,22 +91,31 @@ public class UDPServer {
 
     public UDPServer(ThreadFactory threads, Multicaster<Listener, Message> caster) {
         this.sz = new WireJsonSerializer();        // hard dependency to remove in future?
+        this.decoder = new WireDeflateSerializer(new WireBinarySerializer(sz));
         this.threads = threads;
         this.multicaster = caster;
     }
 
-    public synchronized void start(MulticastSocket socket, int maxPacketSize) {
+    public void start(MulticastSocket socket, int maxPacketSize) {
+        start(socket, maxPacketSize, new UDPPorts());
+    }
+
+    synchronized void start(MulticastSocket socket, int maxPacketSize, UDPPorts ports) {
 
         if (thread != null)
             throw new RuntimeException("UDPServer started two times? WTF?");
 
         this.socket = socket;
         this.maxPacketSize = maxPacketSize;
+        this.ports = ports;
+
+        setReceiveBufferSize(socket);
+        startWorkers(Integer.getInteger(SYSP_UDP_WORKERS, 0));
 
         thread = threads.newThread(new Runnable() {
             @Override
             public void run() {
-                loop();
+                loop(UDPServer.this.socket, thread);
             }
         });
 
@@ -62,6 +124,24 @@ public class UDPServer {
         thread.start();
     }
 
+    synchronized void listen(final DatagramSocket unicast) {
+
+        if (thread == null || unicastThread != null)
+            throw new RuntimeException("UDPServer not started or already listening on unicast? WTF?");
+
+        setReceiveBufferSize(unicast);
+        unicastThread = threads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                loop(unicast, unicastThread);
+            }
+        });
+
+        unicastThread.setDaemon(true);
+        unicastThread.setName(UNICAST_NAME);
+        unicastThread.start();
+    }
+
     public synchronized void stop() {
 
         if (!THREAD_NAME.equals(thread.getName()))
@@ -69,9 +149,52 @@ public class UDPServer {
 
         thread.setName("-ghost-");
         thread.interrupt();
+
+        if (unicastThread != null)
+            unicastThread.interrupt();
+
+        if (workers != null) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    private void setReceiveBufferSize(DatagramSocket socket) {
+        final Integer size = Integer.getInteger(SYSP_UDP_RCVBUF);
+        if (size == null)
+            return;
+
+        try {
+            socket.setReceiveBufferSize(size);
+            logger.info("Receive buffer size set to " + socket.getReceiveBufferSize());
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Unable to set receive buffer size to " + size, ex);
+        }
     }
 
-    private void loop() {
+    private void startWorkers(int count) {
+        if (count <= 0)
+            return;
+
+        frames = new ArrayBlockingQueue<Frame>(Integer.getInteger(SYSP_UDP_QUEUE_SIZE, 1024));
+        workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final Thread worker = threads.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+
+            worker.setDaemon(true);
+            worker.setName(WORKER_NAME + i);
+            worker.start();
+            workers[i] = worker;
+        }
+    }
+
+    private void loop(DatagramSocket socket, Thread thread) {
 
         byte[] buf = new byte[maxPacketSize];
 
@@ -82,15 +205,20 @@ public class UDPServer {
                 socket.receive(packet);
             } catch (IOException e) {
                 logger.log(Level.FINEST, "IOException receiving UDP packet", e);
+                continue;
             }
 
             if (thread.isInterrupted())
                 break;
 
-            try {
-                process(packet);
-            } catch (Exception ex) {
-                logger.log(Level.WARNING, "Unable to process packet", ex);
+            received.incrementAndGet();
+            if (frames == null) {
+                handle(packet.getData(), packet.getOffset(), packet.getLength(), packet.getPort());
+            } else {
+                final int offset = packet.getOffset();
+                final byte[] frame = Arrays.copyOfRange(packet.getData(), offset, offset + packet.getLength());
+                if (!frames.offer(new Frame(frame, packet.getPort())))
+                    overflowed.incrementAndGet();
             }
         }
 
@@ -98,9 +226,65 @@ public class UDPServer {
         logger.info("Listening loop ended!");
     }
 
-    private void process(DatagramPacket packet) {
-        Message message = (Message) sz.fromBytes(packet.getData(), 0, packet.getLength(), Message.class);
-        logger.log(Level.FINEST, "Received message {} ", message.toString());
+    private void work() {
+        final Thread current = Thread.currentThread();
+        while (!current.isInterrupted()) {
+            final Frame frame;
+            try {
+                frame = frames.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            handle(frame.data, 0, frame.data.length, frame.port);
+        }
+
+        logger.info("Worker " + current.getName() + " ended!");
+    }
+
+    private void handle(byte[] array, int offset, int length, int port) {
+        try {
+            if (UDPFragments.isFragment(array, offset, length)) {
+                final byte[] whole = fragments.add(array, offset, length);
+                if (whole != null)
+                    process(whole, 0, whole.length, port);
+            } else if (UDPEnvelopes.isEnvelope(array, offset, length)) {
+                for (byte[] part : UDPEnvelopes.open(array, offset, length)) {
+                    handle(part, 0, part.length, port);
+                }
+            } else {
+                process(array, offset, length, port);
+            }
+        } catch (Exception ex) {
+            dropped.incrementAndGet();
+            logger.log(Level.WARNING, "Unable to process packet", ex);
+        }
+    }
+
+    private void process(byte[] array, int offset, int length, int port) {
+        if (WireDeflateSerializer.isCompressed(array, offset, length)) {
+            array = WireDeflateSerializer.decompress(array, offset, length);
+            offset = 0;
+            length = array.length;
+        }
+
+        final Filter current = filter;
+        if (current != null) {
+            final WireHeader header = WireHeader.scan(array, offset, length);
+            if (header != null && !current.accept(header)) {
+                filtered.incrementAndGet();
+                if (logger.isLoggable(Level.FINEST))
+                    logger.log(Level.FINEST, "Skipped message {0}", header);
+                return;
+            }
+        }
+
+        Message message = decoder.fromBytes(array, offset, length, Message.class);
+        if (logger.isLoggable(Level.FINEST))
+            logger.log(Level.FINEST, "Received message {0}", message);
+
+        if (message.getData() instanceof Presence)
+            ports.seen(port);
 
         sendToListeners(message);
     }
@@ -109,6 +293,10 @@ public class UDPServer {
         multicaster.dispatch(message);
     }
 
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
     public void addListener(final Listener listener) {
         multicaster.addListener(listener);
     }
@@ -116,4 +304,34 @@ public class UDPServer {
     public WireSerializer serializer() {
         return sz;
     }
+
+    public long received() {
+        return received.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long overflowed() {
+        return overflowed.get();
+    }
+
+    public long expired() {
+        return fragments.expired();
+    }
+
+    public long filtered() {
+        return filtered.get();
+    }
+
+    private static class Frame {
+        private final byte[] data;
+        private final int port;
+
+        Frame(byte[] data, int port) {
+            this.data = data;
+            this.port = port;
+        }
+    }
 }
@@ -5,21 +5,25 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.EnumSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.HttpHostConnectException;
@@ -37,23 +41,47 @@ import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoints;
+import com.workshare.msnos.core.protocols.ip.HttpClientFactory;
 import com.workshare.msnos.core.protocols.ip.www.WWWSynchronizer.Processor;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 import com.workshare.msnos.core.serializers.WireSerializer;
 import com.workshare.msnos.soup.threading.ConcurrentBuildingMap;
 import com.workshare.msnos.soup.threading.ConcurrentBuildingMap.Factory;
+import com.workshare.msnos.soup.threading.ExecutorServices;
 import com.workshare.msnos.soup.threading.Multicaster;
-
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * Exchanges messages with the other networks of the cloud through the WWW
+ * relay: messages sent are posted to the relay and the messages of each cloud
+ * are polled from it, periodically.
+ *
+ * Each cloud is synchronized on its own, by a bounded pool of threads, so that
+ * a slow relay call for one cloud does not hold the others. Messages are not
+ * held until the next poll: they are posted once they linger for a short time,
+ * or as soon as enough of them are queued.
+ *
+ * When streaming is enabled the relay is asked to hold the request open and
+ * to push the messages as they arrive, one per line, so that they are not
+ * delayed until the next poll. The relay signals that it's streaming with the
+ * {@value #STREAM_HEADER} header: when it does not, or when the stream breaks,
+ * the messages are polled as usual.
+ */
 public class WWWGateway implements Gateway {
 
-    private enum Sync {
-        TX, RX
-    };
-
     public static final int MAX_TOTAL_CONSECUTIVE_ERRORS = Integer.getInteger("com.ws.nsnos.www.sync.max.consecutive.errors", 3);
 
     public static final String SYSP_SYNC_PERIOD = "com.ws.nsnos.www.sync.period.millis";
     public static final String SYSP_ADDRESS = "com.ws.nsnos.www.address";
+    public static final String SYSP_SYNC_THREADS = "com.ws.nsnos.www.sync.threads";
+    public static final String SYSP_TX_LINGER = "com.ws.nsnos.www.tx.linger.millis";
+    public static final String SYSP_TX_QUEUE_SIZE = "com.ws.nsnos.www.tx.queue.size";
+    public static final String SYSP_RX_STREAM = "com.ws.nsnos.www.rx.stream";
+    public static final String SYSP_RX_STREAM_WAIT = "com.ws.nsnos.www.rx.stream.wait.millis";
+
+    static final String STREAM_HEADER = "X-Msnos-Stream";
+
+    private static final long STREAM_RETRY_MILLIS = 50L;
 
     private static final UUID NULL = new UUID(0, 0);
     private static final UUID VOID = new UUID(0, 1);
@@ -61,44 +89,71 @@ public class WWWGateway implements Gateway {
     private static Logger log = LoggerFactory.getLogger(WWWGateway.class);
 
     private final ScheduledExecutorService scheduler;
+    private final Executor executor;
     private final HttpClient client;
     private final WireSerializer serializer;
     private final Map<Cloud, UUID> cloudListeners;
-    private final Map<Cloud, Queue<Message>> cloudMessages;
+    private final Map<Cloud, WWWOutbox> cloudMessages;
     private final Multicaster<Listener, Message> caster;
     private final WWWSynchronizer synchro;
+    private final long period;
+    private final long txLinger;
+    private final int txQueueSize;
+    private final Set<Cloud> txScheduled;
+    private final Set<Cloud> txSyncing;
+    private final Set<Cloud> txPending;
+    private final Set<Cloud> rxSyncing;
+    private final long streamWait;
+    private final Set<Cloud> streamed;
+    private final Set<Cloud> streaming;
+    private final Map<Cloud, HttpGet> streamRequests;
+    private ExecutorService streamers;
 
     private final String urlRoot;
     private final String urlMsgs;
 
-    private final AtomicInteger syncing = new AtomicInteger(0);
-    private int consecutiveRxErrors;
+    private final AtomicInteger consecutiveRxErrors = new AtomicInteger(0);
 
     private volatile boolean logNextException = true;
+    private volatile boolean streamSupported = true;
+    private volatile boolean closed;
 
     public WWWGateway(HttpClient client, ScheduledExecutorService scheduler, WireSerializer serializer, Multicaster<Listener, Message> caster) throws IOException {
-        this(client, new WWWSynchronizer(caster), scheduler, serializer, caster);
+        this(client, new WWWSynchronizer(caster), scheduler, ExecutorServices.newFixedDaemonThreadPool(Integer.getInteger(SYSP_SYNC_THREADS, 4)), serializer, caster);
     }
 
-    WWWGateway(HttpClient client, WWWSynchronizer processor, ScheduledExecutorService scheduler, WireSerializer serializer, Multicaster<Listener, Message> caster) throws IOException {
+    WWWGateway(HttpClient client, WWWSynchronizer processor, ScheduledExecutorService scheduler, Executor executor, WireSerializer serializer, Multicaster<Listener, Message> caster) throws IOException {
         this.synchro = processor;
         this.client = client;
         this.caster = caster;
         this.scheduler = scheduler;
+        this.executor = executor;
         this.serializer = serializer;
         this.cloudListeners = new ConcurrentHashMap<Cloud, UUID>();
-        this.cloudMessages = new ConcurrentBuildingMap<Cloud, Queue<Message>>(new Factory<Queue<Message>>() {
+        this.cloudMessages = new ConcurrentBuildingMap<Cloud, WWWOutbox>(new Factory<WWWOutbox>() {
             @Override
-            public Queue<Message> make() {
-                return new ConcurrentLinkedQueue<Message>();
+            public WWWOutbox make() {
+                return new WWWOutbox();
             }
         });
 
-        long period = loadSyncPeriod();
+        this.streamed = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.streaming = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.streamRequests = new ConcurrentHashMap<Cloud, HttpGet>();
+        this.streamWait = Boolean.getBoolean(SYSP_RX_STREAM) ? Long.getLong(SYSP_RX_STREAM_WAIT, 30000L) : 0L;
+
+        this.txScheduled = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.txSyncing = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.txPending = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.rxSyncing = Collections.newSetFromMap(new ConcurrentHashMap<Cloud, Boolean>());
+        this.txLinger = Long.getLong(SYSP_TX_LINGER, 500L);
+        this.txQueueSize = Integer.getInteger(SYSP_TX_QUEUE_SIZE, 64);
+
+        this.period = loadSyncPeriod();
         this.scheduler.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                sync(EnumSet.of(Sync.TX, Sync.RX));
+                sync();
             }
         }, period, period, TimeUnit.MILLISECONDS);
 
@@ -133,13 +188,46 @@ public class WWWGateway implements Gateway {
 
     @Override
     public void close() throws IOException {
-        sync(EnumSet.of(Sync.TX));
+        closed = true;
+        synchronized (this) {
+            if (streamers != null)
+                streamers.shutdownNow();
+        }
+        for (HttpGet request : streamRequests.values())
+            request.abort();
+
+        for (Cloud cloud : new HashSet<Cloud>(cloudMessages.keySet())) {
+            awaitTx(cloud);
+            syncTx(cloud);
+        }
+
+        // the executor is owned by the gateway, whether built here or given
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
     }
 
     @Override
     public void addListener(Cloud cloud, Listener listener) {
         cloudListeners.put(cloud, NULL);
         caster.addListener(listener);
+
+        if (streamWait > 0 && streamed.add(cloud))
+            startStream(cloud);
+    }
+
+    /**
+     * Returns the number of messages evicted from the outboxes before being
+     * sent, as superseded by newer ones, too old, or exceeding the capacity
+     */
+    public long outboxEvicted() {
+        long total = 0;
+        for (WWWOutbox outbox : cloudMessages.values())
+            total += outbox.evicted();
+        return total;
+    }
+
+    boolean isStreaming(Cloud cloud) {
+        return streaming.contains(cloud);
     }
 
     @Override
@@ -149,48 +237,123 @@ public class WWWGateway implements Gateway {
 
     @Override
     public Receipt send(Cloud cloud, Message message, Identifiable to) throws IOException {
-        cloudMessages.get(cloud).add(message);
+        final Queue<Message> messages = cloudMessages.get(cloud);
+        messages.add(message);
+
+        if (messages.size() >= txQueueSize || txLinger <= 0)
+            submitTx(cloud);
+        else
+            scheduleTx(cloud);
+
         return new SingleReceipt(this, Status.PENDING, message);
     }
 
-    private void sync(Set<Sync> syncs) {
-        int value = syncing.incrementAndGet();
-        try {
-            if (value > 1) {
-                log.warn("Request to sync while syncing was in progress");
-                return;
-            } else {
-                doSync(syncs);
-            }
-        } finally {
-            syncing.decrementAndGet();
+    private void sync() {
+        if (closed)
+            return;
+
+        for (Cloud cloud : new HashSet<Cloud>(cloudMessages.keySet()))
+            submitTx(cloud);
+
+        for (final Cloud cloud : new HashSet<Cloud>(cloudListeners.keySet())) {
+            if (streaming.contains(cloud))
+                continue;
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    syncRxNow(cloud);
+                }
+            });
         }
     }
 
-    private void doSync(Set<Sync> syncs) {
-        if (syncs.contains(Sync.TX))
-            try {
-                if (syncTx())
-                    logNextException = true;
-            } catch (HttpHostConnectException ex) {
-                logIfNecessary(ex);
-                return;
-            } catch (Exception ex) {
-                log.warn("Unexpected exception during sync (TX)", ex);
+    private void scheduleTx(final Cloud cloud) {
+        if (closed || !txScheduled.add(cloud))
+            return;
+
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                txScheduled.remove(cloud);
+                submitTx(cloud);
             }
+        }, txLinger, TimeUnit.MILLISECONDS);
+    }
 
-        if (syncs.contains(Sync.RX))
-            try {
-                syncRx();
-                noRxError();
+    private void submitTx(final Cloud cloud) {
+        if (closed || cloudMessages.get(cloud).isEmpty())
+            return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                syncTx(cloud);
+            }
+        });
+    }
+
+    // a request made while sending is remembered, and served once the send is over
+    private void syncTx(Cloud cloud) {
+        txPending.add(cloud);
+        if (!txSyncing.add(cloud)) {
+            log.debug("Request to send while sending was in progress");
+            return;
+        }
+
+        try {
+            txPending.remove(cloud);
+            if (syncTxNow(cloud))
                 logNextException = true;
-            } catch (HttpHostConnectException ex) {
-                onRxError();
-                logIfNecessary(ex);
-            } catch (Exception ex) {
-                onRxError();
-                log.warn("Unexpected exception during sync (RX)", ex);
+        } catch (HttpHostConnectException ex) {
+            logIfNecessary(ex);
+        } catch (Exception ex) {
+            log.warn("Unexpected exception during sync (TX)", ex);
+        } finally {
+            synchronized (txSyncing) {
+                txSyncing.remove(cloud);
+                txSyncing.notifyAll();
+            }
+
+            if (txPending.contains(cloud) && !cloudMessages.get(cloud).isEmpty())
+                submitTx(cloud);
+        }
+    }
+
+    private void awaitTx(Cloud cloud) {
+        final long deadline = System.currentTimeMillis() + HttpClientFactory.getHttpSocketTimeout();
+        synchronized (txSyncing) {
+            long left;
+            while (txSyncing.contains(cloud) && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    txSyncing.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
+        }
+    }
+
+    private void syncRxNow(Cloud cloud) {
+        if (!rxSyncing.add(cloud)) {
+            log.debug("Request to receive while receiving was in progress");
+            return;
+        }
+
+        try {
+            syncRx(cloud);
+            noRxError();
+            logNextException = true;
+        } catch (HttpHostConnectException ex) {
+            onRxError();
+            logIfNecessary(ex);
+        } catch (Exception ex) {
+            onRxError();
+            log.warn("Unexpected exception during sync (RX)", ex);
+        } finally {
+            rxSyncing.remove(cloud);
+        }
     }
 
     private void logIfNecessary(HttpHostConnectException ex) {
@@ -201,13 +364,13 @@ public class WWWGateway implements Gateway {
     }
 
     private void noRxError() {
-        consecutiveRxErrors = 0;
+        consecutiveRxErrors.set(0);
     }
 
     private void onRxError() {
-        if (++consecutiveRxErrors >= MAX_TOTAL_CONSECUTIVE_ERRORS) {
+        if (consecutiveRxErrors.incrementAndGet() >= MAX_TOTAL_CONSECUTIVE_ERRORS) {
             log.debug("Too many consecutive errors: resetting all gates!");
-            consecutiveRxErrors = 0;
+            consecutiveRxErrors.set(0);
             Set<Cloud> clouds = cloudListeners.keySet();
             for (Cloud cloud : clouds) {
                 cloudListeners.put(cloud, NULL);
@@ -215,76 +378,181 @@ public class WWWGateway implements Gateway {
         }
     }
 
-    private void syncRx() throws IOException {
-        Set<Cloud> clouds = new HashSet<Cloud>(cloudListeners.keySet());
-        for (Cloud cloud : clouds) {
-            final UUID uuid = cloudListeners.get(cloud);
-            String url = urlMsgs + "?cloud=" + cloud.getIden().getUUID();
-            if (uuid != NULL && uuid != VOID)
-                url += "&message=" + uuid;
+    private void syncRx(Cloud cloud) throws IOException {
+        final UUID uuid = cloudListeners.get(cloud);
+        Processor processor = (uuid == NULL) ? synchro.init(cloud) : null;
 
-            Processor processor = (uuid == NULL) ? synchro.init(cloud) : null;
+        HttpGet request = new HttpGet(rxUrl(cloud, uuid));
+        HttpResponse res = client.execute(request);
+        int total = receive(cloud, uuid, res, processor);
 
-            int total = 0;
-            HttpGet request = new HttpGet(url);
-            HttpResponse res = client.execute(request);
+        log.debug("Processed a total of {} messages", total);
+        if (processor != null)
+            processor.commit();
+    }
+
+    /**
+     * Reads the messages of a response, one per line, moving the cursor of
+     * the cloud as they are dispatched. The messages received the very first
+     * time are handed to the processor instead, and the cursor is moved only
+     * once they are all read.
+     */
+    private int receive(Cloud cloud, UUID uuid, HttpResponse res, Processor processor) throws IOException {
+        int total = 0;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(res.getEntity().getContent(), "UTF-8"));
             try {
-                BufferedReader in = new BufferedReader(new InputStreamReader(res.getEntity().getContent(), "UTF-8"));
-                try {
-                    String line;
-                    Message last = null;
-                    while ((line = in.readLine()) != null) {
-                        Message msg = serializer.fromText(line, Message.class);
-                        if (msg != null) {
-                            ++total;
-                            if (processor != null)
-                                processor.accept(msg);
-                            else
-                                caster.dispatch(msg);
-                            last = msg;
+                String line;
+                Message last = null;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() == 0)
+                        continue;
+
+                    Message msg = serializer.fromText(line, Message.class);
+                    if (msg != null) {
+                        ++total;
+                        if (processor != null) {
+                            processor.accept(msg);
+                        } else {
+                            caster.dispatch(msg);
+                            cloudListeners.put(cloud, msg.getUuid());
                         }
+                        last = msg;
                     }
+                }
 
-                    log.debug("last message read: {}", last);
-                    if (last != null)
-                        cloudListeners.put(cloud, last.getUuid());
-                    else if (uuid == NULL)
-                        cloudListeners.put(cloud, VOID);
+                log.debug("last message read: {}", last);
+                if (last != null)
+                    cloudListeners.put(cloud, last.getUuid());
+                else if (uuid == NULL)
+                    cloudListeners.put(cloud, VOID);
 
+            } finally {
+                in.close();
+            }
+        } finally {
+            EntityUtils.consume(res.getEntity());
+        }
+
+        return total;
+    }
+
+    private String rxUrl(Cloud cloud, UUID uuid) {
+        String url = urlMsgs + "?cloud=" + cloud.getIden().getUUID();
+        if (uuid != NULL && uuid != VOID)
+            url += "&message=" + uuid;
+        return url;
+    }
+
+    private synchronized void startStream(final Cloud cloud) {
+        if (streamers == null)
+            streamers = ExecutorServices.newCachedDaemonThreadPool();
+
+        streamers.execute(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().setName("WWW-Stream");
+                try {
+                    stream(cloud);
                 } finally {
-                    in.close();
+                    streaming.remove(cloud);
+                    streamed.remove(cloud);
                 }
+            }
+        });
+    }
+
+    /**
+     * Keeps a stream open to the relay for the cloud, reconnecting when the
+     * relay ends it. While the stream is broken, the cloud is polled as usual
+     * and the stream is attempted again after a sync period. The stream owns
+     * the cloud as a poll does, so it waits for a poll already in progress.
+     */
+    private void stream(Cloud cloud) {
+        while (!closed && streamSupported) {
+            streaming.add(cloud);
+            if (!rxSyncing.add(cloud)) {
+                log.debug("Request to stream while receiving was in progress");
+                if (!pause(STREAM_RETRY_MILLIS))
+                    return;
+                continue;
+            }
+
+            boolean broken = false;
+            try {
+                if (cloudListeners.get(cloud) == NULL)
+                    syncRx(cloud);
+
+                if (!streamRx(cloud)) {
+                    log.info("The WWW relay cannot stream, polling every {} ms", period);
+                    streamSupported = false;
+                }
+            } catch (Exception ex) {
+                streaming.remove(cloud);
+                broken = !closed;
+                if (broken)
+                    log.debug("Unable to stream messages from the WWW relay, polling for now", ex);
             } finally {
-                EntityUtils.consume(res.getEntity());
+                rxSyncing.remove(cloud);
             }
 
-            log.debug("Processed a total of {} messages", total);
-            if (processor != null)
-                processor.commit();
+            if (broken && !pause(period))
+                return;
         }
     }
 
-    private boolean syncTx() throws IOException {
-        if (cloudMessages.size() == 0) {
-            log.debug("No messages to send so far");
+    private boolean pause(long millis) {
+        try {
+            SystemTime.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
+    }
 
-        boolean sent = false;
-        Set<Cloud> clouds = new HashSet<Cloud>(cloudMessages.keySet());
-        for (Cloud cloud : clouds) {
-            Queue<Message> messages = cloudMessages.get(cloud);
-            if (messages.size() == 0)
-                continue;
-
-            HttpPost request = new HttpPost(urlMsgs + "?cloud=" + cloud.getIden().getUUID());
-            request.setEntity(toInputStreamEntity(messages));
+    private boolean streamRx(Cloud cloud) throws IOException {
+        final UUID uuid = cloudListeners.get(cloud);
+        final HttpGet request = new HttpGet(rxUrl(cloud, uuid) + "&wait=" + streamWait);
+        request.setConfig(streamConfig());
+        streamRequests.put(cloud, request);
+        try {
             HttpResponse res = client.execute(request);
-            EntityUtils.consume(res.getEntity());
-            sent = true;
+            final StatusLine status = res.getStatusLine();
+            if (status.getStatusCode() != 200) {
+                EntityUtils.consume(res.getEntity());
+                throw new IOException("Unexpected response from the WWW relay: " + status);
+            }
+
+            final Header header = res.getFirstHeader(STREAM_HEADER);
+            int total = receive(cloud, uuid, res, null);
+            log.debug("Streamed a total of {} messages", total);
+            return header != null;
+        } finally {
+            streamRequests.remove(cloud);
+        }
+    }
+
+    // the relay may stay silent for the whole wait, so the socket must outlast it
+    private RequestConfig streamConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(HttpClientFactory.getHttpConnectTimeout())
+                .setSocketTimeout((int) streamWait + HttpClientFactory.getHttpSocketTimeout())
+                .build();
+    }
+
+    private boolean syncTxNow(Cloud cloud) throws IOException {
+        Queue<Message> messages = cloudMessages.get(cloud);
+        if (messages.size() == 0) {
+            log.debug("No messages to send so far");
+            return false;
         }
 
-        return sent;
+        HttpPost request = new HttpPost(urlMsgs + "?cloud=" + cloud.getIden().getUUID());
+        request.setEntity(toInputStreamEntity(messages));
+        HttpResponse res = client.execute(request);
+        EntityUtils.consume(res.getEntity());
+        return true;
     }
 
     private InputStreamEntity toInputStreamEntity(final Queue<Message> messages) {
@@ -0,0 +1,168 @@
+package com.workshare.msnos.core.protocols.ip.www;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.cloud.MessageValidators;
+import com.workshare.msnos.core.payloads.HealthcheckPayload;
+import com.workshare.msnos.soup.time.SystemTime;
+
+/**
+ * The messages of a cloud waiting to be posted to the WWW relay.
+ *
+ * Only the latest presence and healthcheck about each agent is kept, as it
+ * supersedes the previous ones, while enquiry answers are all kept as each
+ * publish only adds to the apis of a microservice. Messages that would be
+ * rejected as too old by the receivers are dropped, and so are the oldest
+ * ones when the outbox is full: everything evicted is counted.
+ */
+class WWWOutbox extends AbstractQueue<Message> {
+
+    public static final String SYSP_OUTBOX_SIZE = "com.ws.nsnos.www.tx.outbox.size";
+
+    private static final Set<Message.Type> COALESCED = EnumSet.of(Message.Type.PRS, Message.Type.HCK);
+
+    private final int maxSize;
+    private final long lifetime;
+    private final Map<Object, Message> messages = new LinkedHashMap<Object, Message>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    WWWOutbox() {
+        this(Integer.getInteger(SYSP_OUTBOX_SIZE, 1024), MessageValidators.getMessageLifetime());
+    }
+
+    WWWOutbox(int maxSize, long lifetime) {
+        this.maxSize = maxSize;
+        this.lifetime = lifetime;
+    }
+
+    @Override
+    public synchronized boolean offer(Message message) {
+        purgeExpired();
+
+        final Object key = keyOf(message);
+        if (messages.remove(key) != null)
+            coalesced.incrementAndGet();
+
+        if (messages.size() >= maxSize) {
+            final Iterator<Message> oldest = messages.values().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped.incrementAndGet();
+        }
+
+        messages.put(key, message);
+        return true;
+    }
+
+    @Override
+    public synchronized Message poll() {
+        final Iterator<Message> iterator = messages.values().iterator();
+        while (iterator.hasNext()) {
+            final Message message = iterator.next();
+            iterator.remove();
+            if (!isExpired(message, SystemTime.asMillis()))
+                return message;
+
+            expired.incrementAndGet();
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized Message peek() {
+        final Iterator<Message> iterator = messages.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    @Override
+    public synchronized Iterator<Message> iterator() {
+        return Collections.unmodifiableList(new ArrayList<Message>(messages.values())).iterator();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public long expired() {
+        return expired.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long evicted() {
+        return coalesced() + expired() + dropped();
+    }
+
+    private void purgeExpired() {
+        final long now = SystemTime.asMillis();
+        final Iterator<Message> iterator = messages.values().iterator();
+        while (iterator.hasNext() && isExpired(iterator.next(), now)) {
+            iterator.remove();
+            expired.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(Message message, long now) {
+        return now - message.getWhen() >= lifetime;
+    }
+
+    private static Object keyOf(Message message) {
+        final Message.Type type = message.getType();
+        if (!COALESCED.contains(type))
+            return message.getUuid();
+
+        return new Key(type, subjectOf(message));
+    }
+
+    private static Iden subjectOf(Message message) {
+        if (message.getType() == Message.Type.HCK && message.getData() instanceof HealthcheckPayload)
+            return ((HealthcheckPayload) message.getData()).getIden();
+        else
+            return message.getFrom();
+    }
+
+    private static class Key {
+        private final Message.Type type;
+        private final Iden subject;
+
+        Key(Message.Type type, Iden subject) {
+            this.type = type;
+            this.subject = subject;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + (subject == null ? 0 : subject.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+
+            final Key other = (Key) obj;
+            return type == other.type && (subject == null ? other.subject == null : subject.equals(other.subject));
+        }
+    }
+}
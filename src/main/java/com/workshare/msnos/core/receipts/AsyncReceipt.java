@@ -0,0 +1,105 @@
+package com.workshare.msnos.core.receipts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.core.Gateway;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Message.Status;
+import com.workshare.msnos.core.Receipt;
+
+/**
+ * A receipt that is pending until the transport knows the outcome of the
+ * delivery: it's settled by the first update, and the callbacks registered
+ * are then run, once, on the thread that settled it
+ */
+public class AsyncReceipt extends SingleReceipt {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncReceipt.class);
+
+    public interface Callback {
+        public void onSettled(Receipt receipt);
+    }
+
+    private final List<Callback> callbacks = new ArrayList<Callback>();
+    private boolean settled;
+
+    public AsyncReceipt(Gateway gateway, Message message) {
+        this(gateway.name(), message);
+    }
+
+    public AsyncReceipt(String gatewayName, Message message) {
+        super(gatewayName, Status.PENDING, message);
+    }
+
+    @Override
+    public void update(Receipt other) {
+        final List<Callback> pendings;
+        synchronized (this) {
+            super.update(other);
+            if (settled)
+                return;
+
+            settled = true;
+            pendings = new ArrayList<Callback>(callbacks);
+            callbacks.clear();
+        }
+
+        for (Callback callback : pendings) {
+            run(callback, this);
+        }
+    }
+
+    /**
+     * Settles this receipt as the other one, when that one is settled
+     */
+    public void follow(Receipt other) {
+        whenSettled(other, new Callback() {
+            @Override
+            public void onSettled(Receipt receipt) {
+                update(receipt);
+            }
+        });
+    }
+
+    public void whenSettled(Callback callback) {
+        synchronized (this) {
+            if (!settled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+
+        run(callback, this);
+    }
+
+    public synchronized boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Runs the callback when the receipt is settled, immediately if it's not
+     * an asynchronous one
+     */
+    public static void whenSettled(Receipt receipt, Callback callback) {
+        if (receipt instanceof AsyncReceipt)
+            ((AsyncReceipt) receipt).whenSettled(callback);
+        else
+            run(callback, receipt);
+    }
+
+    public static boolean isUnsettled(Receipt receipt) {
+        return receipt instanceof AsyncReceipt && !((AsyncReceipt) receipt).isSettled();
+    }
+
+    private static void run(Callback callback, Receipt receipt) {
+        try {
+            callback.onSettled(receipt);
+        } catch (Throwable ex) {
+            log.warn("Unexpected exception running callback of receipt " + receipt, ex);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 
 public class HTTPRouteDirect extends Route {
 
@@ -20,6 +21,10 @@ public class HTTPRouteDirect extends Route {
                 if (receipt.getStatus() == Status.DELIVERED) {
                     return receipt;
                 }
+
+                if (AsyncReceipt.isUnsettled(receipt)) {
+                    return router.onFailure(this, message, (AsyncReceipt) receipt, null);
+                }
             }
         }
 
@@ -1,12 +1,16 @@
 package com.workshare.msnos.core.routing;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.RemoteAgent;
 import com.workshare.msnos.core.Ring;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 
 public class HTTPRouteViaRing extends Route {
 
@@ -21,6 +25,7 @@ public class HTTPRouteViaRing extends Route {
             return null;
 
         Ring ring = remote.getRing();
+        List<RemoteAgent> candidates = new ArrayList<RemoteAgent>();
         Collection<RemoteAgent> agents = cloud.getRemoteAgents();
         for (RemoteAgent agent : agents) {
             if (agent.getIden().equals(message.getTo()))
@@ -32,10 +37,28 @@ public class HTTPRouteViaRing extends Route {
             if (!router.hasRouteFor(agent))
                 continue;
 
-            final Receipt receipt = router.sendViaHTTP(message, agent, 1, "HTTP-RINGD");
+            candidates.add(agent);
+        }
+
+        return send(message, candidates.iterator());
+    }
+
+    // an asynchronous failure moves on to the next agent of the ring
+    private Receipt send(final Message message, final Iterator<RemoteAgent> agents) {
+        while (agents.hasNext()) {
+            final Receipt receipt = router.sendViaHTTP(message, agents.next(), 1, "HTTP-RINGD");
             if (receipt.getStatus() == Status.DELIVERED) {
                 return receipt;
             }
+
+            if (AsyncReceipt.isUnsettled(receipt)) {
+                return router.onFailure(this, message, (AsyncReceipt) receipt, new Router.Fallback() {
+                    @Override
+                    public Receipt send() {
+                        return HTTPRouteViaRing.this.send(message, agents);
+                    }
+                });
+            }
         }
 
         return null;
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,8 +14,10 @@ import com.workshare.msnos.core.Gateway;
 import com.workshare.msnos.core.Identifiable;
 import com.workshare.msnos.core.LocalAgent;
 import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.Sender;
 import com.workshare.msnos.core.cloud.MessageValidators;
 import com.workshare.msnos.core.cloud.MessageValidators.Result;
 import com.workshare.msnos.core.payloads.TracePayload;
@@ -24,7 +27,9 @@ import com.workshare.msnos.core.protocols.ip.NullGateway;
 import com.workshare.msnos.core.protocols.ip.http.HttpGateway;
 import com.workshare.msnos.core.protocols.ip.udp.UDPGateway;
 import com.workshare.msnos.core.protocols.ip.www.WWWGateway;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 import com.workshare.msnos.core.receipts.SingleReceipt;
+import com.workshare.msnos.soup.threading.ExecutorServices;
 
 public class Router {
 
@@ -42,6 +47,7 @@ public class Router {
     private final Gateway wwwGate;
     private final Gateway httpGate;
     private final MessageValidators validators;
+    private final Executor executor;
     
     private final Route[] routes;
 
@@ -50,21 +56,27 @@ public class Router {
 
     
     public Router(Cloud cloud, Set<Gateway> gates) {
-        this(cloud, getGate(gates, UDPGateway.class), getGate(gates, HttpGateway.class), getGate(gates, WWWGateway.class));
+        this(cloud, getGate(gates, UDPGateway.class), getGate(gates, HttpGateway.class), getGate(gates, WWWGateway.class), Sender.defaultExecutor());
     }
 
     Router(Cloud cloud, UDPGateway udpGate, HttpGateway httpGate, WWWGateway wwwGate) {
+        this(cloud, udpGate, httpGate, wwwGate, ExecutorServices.newSynhcronousExecutor());
+    }
+
+    Router(Cloud cloud, UDPGateway udpGate, HttpGateway httpGate, WWWGateway wwwGate, Executor executor) {
         this.cloud = cloud;
         this.udpGate = (udpGate != null ? udpGate : NOOP_GATE);
         this.wwwGate = (wwwGate != null ? wwwGate : NOOP_GATE);
         this.httpGate = (httpGate != null ? httpGate : NOOP_GATE);
         this.validators = cloud.validators();
+        this.executor = executor;
         
         this.routes = new Route[] {
             new TerminalRouteOnZeroHops(this),
             new WWWRouteBroadcast(this),
             new CloudRouteBroadcast(this),
             new HTTPRouteDirect(this),
+            new UDPRouteUnicast(this),
             new UDPRouteSameRing(this),
             new HTTPRouteViaRing(this),
             new UDPRouteBroadcast(this),
@@ -77,6 +89,7 @@ public class Router {
         this.wwwGate = (wwwGate != null ? wwwGate : NOOP_GATE);
         this.httpGate = (httpGate != null ? httpGate : NOOP_GATE);
         this.validators = cloud.validators();
+        this.executor = ExecutorServices.newSynhcronousExecutor();
         this.routes = routes;
     }
 
@@ -108,9 +121,14 @@ public class Router {
     }
 
     Receipt route(Message message) {
+        return route(message, 0);
+    }
+
+    private Receipt route(Message message, int first) {
         logger.debug("Routing message {}", message);
  
-        for (Route route : routes) {
+        for (int i = first; i < routes.length; i++) {
+            final Route route = routes[i];
             Receipt receipt = route.send(message);
             if (receipt != null) {
                 if (logger.isDebugEnabled())
@@ -125,6 +143,64 @@ public class Router {
         return SingleReceipt.failure(message);
     }
 
+    interface Fallback {
+        /**
+         * @return null if there's nothing else to try or a valid receipt
+         */
+        public Receipt send();
+    }
+
+    /**
+     * Returns a receipt settled as the pending one, unless that is not
+     * delivered: in that case the fallback is tried, and then the routes
+     * after the given one, all on the executor of the router, so that the
+     * thread settling the pending receipt is never kept busy
+     */
+    Receipt onFailure(final Route route, final Message message, final AsyncReceipt pending, final Fallback fallback) {
+        final Mode current = mode.get();
+        final AsyncReceipt result = new AsyncReceipt(pending.getGate(), message);
+        pending.whenSettled(new AsyncReceipt.Callback() {
+            @Override
+            public void onSettled(Receipt receipt) {
+                if (receipt.getStatus() == Status.DELIVERED) {
+                    result.update(receipt);
+                    return;
+                }
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Mode previous = mode.get();
+                        mode.set(current);
+                        try {
+                            Receipt next = (fallback == null ? null : fallback.send());
+                            if (next == null)
+                                next = route(message, indexOf(route) + 1);
+
+                            result.follow(next);
+                        } finally {
+                            if (previous == null)
+                                mode.remove();
+                            else
+                                mode.set(previous);
+                        }
+                    }
+                });
+            }
+        });
+
+        return result;
+    }
+
+    private int indexOf(Route route) {
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] == route)
+                return i;
+        }
+
+        return routes.length;
+    }
+
     Cloud cloud() {
         return cloud;
     }
@@ -139,12 +215,16 @@ public class Router {
     }
     
     Receipt sendViaUDP(Message message, int hops, String how)  {
+        return sendViaUDP(message, null, hops, how);
+    }
+
+    Receipt sendViaUDP(Message message, Identifiable to, int hops, String how)  {
         if (udpGate.name().equals(message.getReceivingGate())) {
             routing.info("{} {} {} {} {} {}", mode.get(), how, udpGate.name(), "UDP-TO-UDP", message);
             return SingleReceipt.failure(message);
         }
         
-        return this.send(message, null, hops, udpGate, how);
+        return this.send(message, to, hops, udpGate, how);
     }
 
     Receipt sendViaHTTP(Message message, Identifiable to, int hops, String how)  {
@@ -0,0 +1,25 @@
+package com.workshare.msnos.core.routing;
+
+import com.workshare.msnos.core.Gateway;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Receipt;
+import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.protocols.ip.udp.UDPGateway;
+
+public class UDPRouteUnicast extends Route {
+
+    public UDPRouteUnicast(Router router) {
+        super(router);
+    }
+
+    @Override
+    public Receipt send(Message message)  {
+        RemoteAgent remote = cloud.getRemoteAgent(message.getTo());
+        Gateway udp = router.udpGateway();
+        if (remote != null && remote.getRing().equals(cloud.getRing()) && udp instanceof UDPGateway && ((UDPGateway) udp).findUnicastEndpoint(remote) != null) {
+            return router.sendViaUDP(message, remote, 0, "RING-UDP-UNICAST");
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,575 @@
+package com.workshare.msnos.core.serializers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Message.Payload;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.GenericPayload;
+import com.workshare.msnos.core.payloads.HealthcheckPayload;
+import com.workshare.msnos.core.payloads.NullPayload;
+import com.workshare.msnos.core.payloads.PongPayload;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.core.payloads.TracePayload;
+import com.workshare.msnos.core.payloads.TracePayload.Crumb;
+import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.protocols.ip.Network;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Compact binary encoding of messages, spoken by nodes at version 1.1 or later.
+ *
+ * Frames start with a magic byte that can never open a JSON document, so a
+ * receiver can accept both formats on the same channel. Anything that is not a
+ * message, and every text form, is delegated to the JSON serializer: signatures
+ * are always computed over the JSON text.
+ */
+public class WireBinarySerializer implements WireSerializer {
+
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final Version MIN_VERSION = Version.V1_1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_RELIABLE = 1;
+    private static final int FLAG_SIGNED = 2;
+    private static final int FLAG_RANDOM = 4;
+
+    private static final byte NULL_MARK = (byte) 0xFF;
+
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_PRESENCE = 1;
+    private static final byte TAG_QNE = 2;
+    private static final byte TAG_FLT = 3;
+    private static final byte TAG_HCK = 4;
+    private static final byte TAG_PONG = 5;
+    private static final byte TAG_TRACE = 6;
+    private static final byte TAG_GENERIC = 7;
+    private static final byte TAG_JSON = 8;
+    private static final byte TAG_PRESENCE_SIZED = 9;
+
+    private static final Iden.Type[] IDEN_TYPES = Iden.Type.values();
+    private static final Message.Type[] MESSAGE_TYPES = Message.Type.values();
+    private static final Endpoint.Type[] ENDPOINT_TYPES = Endpoint.Type.values();
+    private static final RestApi.Type[] API_TYPES = RestApi.Type.values();
+
+    private final WireSerializer text;
+
+    public WireBinarySerializer() {
+        this(new WireJsonSerializer());
+    }
+
+    public WireBinarySerializer(WireSerializer text) {
+        this.text = text;
+    }
+
+    public static boolean isBinary(byte[] array, int offset, int length) {
+        return length > 0 && array[offset] == MAGIC;
+    }
+
+    @Override
+    public <T> T fromText(String text, Class<T> clazz) {
+        return this.text.fromText(text, clazz);
+    }
+
+    @Override
+    public String toText(Object anyObject) {
+        return text.toText(anyObject);
+    }
+
+    @Override
+    public <T> T fromReader(Reader reader, Class<T> clazz) {
+        return text.fromReader(reader, clazz);
+    }
+
+    @Override
+    public <T> T fromBytes(byte[] array, Class<T> clazz) {
+        return fromBytes(array, 0, array.length, clazz);
+    }
+
+    @Override
+    public <T> T fromBytes(byte[] array, int offset, int length, Class<T> clazz) {
+        if (clazz == Message.class && isBinary(array, offset, length)) {
+            try {
+                return clazz.cast(readMessage(new Decoder(array, offset, length)));
+            } catch (RuntimeException ex) {
+                throw new JsonParseException("Invalid binary message", ex);
+            }
+        }
+
+        return text.fromBytes(array, offset, length, clazz);
+    }
+
+    @Override
+    public <T> T fromBuffer(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer.hasArray())
+            return fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), clazz);
+
+        final byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return fromBytes(array, clazz);
+    }
+
+    @Override
+    public byte[] toBytes(Object anyObject) {
+        if (anyObject instanceof Message)
+            return encoded((Message) anyObject).clone();
+
+        if (anyObject instanceof Payload) {
+            final Encoder out = Encoder.local();
+            writePayload(out, (Payload) anyObject);
+            return out.toByteArray();
+        }
+
+        return text.toBytes(anyObject);
+    }
+
+    @Override
+    public void toStream(Object anyObject, OutputStream stream) throws IOException {
+        if (anyObject instanceof Message) {
+            stream.write(encoded((Message) anyObject));
+        } else if (anyObject instanceof Payload) {
+            final Encoder out = Encoder.local();
+            writePayload(out, (Payload) anyObject);
+            stream.write(out.buf, 0, out.len);
+        } else {
+            text.toStream(anyObject, stream);
+        }
+    }
+
+    private static byte[] encoded(Message message) {
+        byte[] data = message.getEncoded(WireBinarySerializer.class);
+        if (data == null) {
+            final Encoder out = Encoder.local();
+            writeMessage(out, message);
+            data = out.toByteArray();
+            message.setEncoded(WireBinarySerializer.class, data);
+        }
+
+        return data;
+    }
+
+    private static void writeMessage(Encoder out, Message msg) {
+        final String sig = msg.getSig();
+        final String rnd = msg.getRnd();
+        int flags = 0;
+        if (msg.isReliable())
+            flags |= FLAG_RELIABLE;
+        if (sig != null)
+            flags |= FLAG_SIGNED;
+        if (rnd != null)
+            flags |= FLAG_RANDOM;
+
+        out.writeByte(MAGIC);
+        out.writeByte(msg.getVersion().getMajor());
+        out.writeByte(msg.getVersion().getMinor());
+        out.writeByte(msg.getType().ordinal());
+        out.writeByte(flags);
+        out.writeIden(msg.getFrom());
+        out.writeIden(msg.getTo());
+        out.writeSignedVarint(msg.getHops());
+        out.writeVarint(msg.getWhen());
+        out.writeUUID(msg.getUuid());
+        if (sig != null)
+            out.writeString(sig);
+        if (rnd != null)
+            out.writeString(rnd);
+
+        writePayload(out, msg.getData());
+    }
+
+    static WireHeader readHeader(byte[] array, int offset, int length) {
+        final Decoder in = new Decoder(array, offset, length);
+        in.readByte();
+        in.readByte();
+        in.readByte();
+        final Message.Type type = MESSAGE_TYPES[in.readByte()];
+        in.readByte();
+        final Iden from = in.readIden();
+        final Iden to = in.readIden();
+        in.readSignedVarint();
+        in.readVarint();
+        return new WireHeader(type, from, to, in.readUUID());
+    }
+
+    private static Message readMessage(Decoder in) {
+        in.readByte();
+        final Version version = new Version(in.readByte() & 0xff, in.readByte() & 0xff);
+        final Message.Type type = MESSAGE_TYPES[in.readByte()];
+        final int flags = in.readByte();
+        final Iden from = in.readIden();
+        final Iden to = in.readIden();
+        final int hops = (int) in.readSignedVarint();
+        final long when = in.readVarint();
+        final UUID uuid = in.readUUID();
+        final String sig = ((flags & FLAG_SIGNED) != 0 ? in.readString() : null);
+        final String rnd = ((flags & FLAG_RANDOM) != 0 ? in.readString() : null);
+        final Payload data = readPayload(in, type);
+
+        return new MessageBuilder(type, from, to)
+                .withVersion(version)
+                .withHops(hops)
+                .with(data)
+                .with(uuid)
+                .at(when)
+                .reliable((flags & FLAG_RELIABLE) != 0)
+                .signed(sig, rnd)
+                .make();
+    }
+
+    private static void writePayload(Encoder out, Payload data) {
+        if (data == null || data instanceof NullPayload) {
+            out.writeByte(TAG_NONE);
+        } else if (data instanceof Presence) {
+            final Presence presence = (Presence) data;
+            final Integer packetSize = presence.getPacketSize();
+            out.writeByte(packetSize == null ? TAG_PRESENCE : TAG_PRESENCE_SIZED);
+            out.writeBoolean(presence.isPresent());
+            writeEndpoints(out, presence.getEndpoints());
+            if (packetSize != null)
+                out.writeVarint(packetSize);
+        } else if (data instanceof QnePayload) {
+            final QnePayload qne = (QnePayload) data;
+            out.writeByte(TAG_QNE);
+            out.writeString(qne.getName());
+            writeApis(out, qne.getApis());
+        } else if (data instanceof FltPayload) {
+            out.writeByte(TAG_FLT);
+            out.writeIden(((FltPayload) data).getAbout());
+        } else if (data instanceof HealthcheckPayload) {
+            final HealthcheckPayload hck = (HealthcheckPayload) data;
+            out.writeByte(TAG_HCK);
+            out.writeIden(hck.getIden());
+            out.writeBoolean(hck.isWorking());
+        } else if (data instanceof PongPayload) {
+            out.writeByte(TAG_PONG);
+        } else if (data instanceof TracePayload) {
+            final TracePayload trace = (TracePayload) data;
+            out.writeByte(TAG_TRACE);
+            out.writeIden(trace.from());
+            out.writeVarint(trace.crumbs().size());
+            for (Crumb crumb : trace.crumbs()) {
+                out.writeUUID(crumb.source());
+                out.writeUUID(crumb.destination());
+                out.writeString(crumb.way());
+                out.writeSignedVarint(crumb.hops());
+            }
+        } else if (data instanceof GenericPayload) {
+            final JsonElement json = ((GenericPayload) data).getData();
+            out.writeByte(TAG_GENERIC);
+            out.writeString(json == null ? null : json.toString());
+        } else {
+            out.writeByte(TAG_JSON);
+            out.writeString(WireJsonSerializer.payloadToText(data));
+        }
+    }
+
+    private static Payload readPayload(Decoder in, Message.Type type) {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NONE:
+                return null;
+            case TAG_PRESENCE: {
+                final boolean present = in.readBoolean();
+                return new Presence(present, readEndpoints(in));
+            }
+            case TAG_PRESENCE_SIZED: {
+                final boolean present = in.readBoolean();
+                final Set<Endpoint> endpoints = readEndpoints(in);
+                return new Presence(present, endpoints, (int) in.readVarint());
+            }
+            case TAG_QNE: {
+                final String name = in.readString();
+                return new QnePayload(name, readApis(in));
+            }
+            case TAG_FLT:
+                return new FltPayload(in.readIden());
+            case TAG_HCK: {
+                final Iden agent = in.readIden();
+                return new HealthcheckPayload(agent, in.readBoolean());
+            }
+            case TAG_PONG:
+                return new PongPayload();
+            case TAG_TRACE: {
+                final Iden from = in.readIden();
+                final int size = (int) in.readVarint();
+                final List<Crumb> crumbs = new ArrayList<Crumb>(size);
+                for (int i = 0; i < size; i++) {
+                    final UUID src = in.readUUID();
+                    final UUID dst = in.readUUID();
+                    final String way = in.readString();
+                    crumbs.add(new Crumb(src, dst, way, (int) in.readSignedVarint()));
+                }
+                return new TracePayload(from, crumbs);
+            }
+            case TAG_GENERIC: {
+                final String json = in.readString();
+                return new GenericPayload(json == null ? null : new JsonParser().parse(json));
+            }
+            case TAG_JSON:
+                return WireJsonSerializer.payloadFromText(type, in.readString());
+            default:
+                throw new IllegalArgumentException("Unknown payload tag " + tag);
+        }
+    }
+
+    private static void writeEndpoints(Encoder out, Set<Endpoint> endpoints) {
+        if (endpoints == null) {
+            out.writeVarint(0);
+            return;
+        }
+
+        out.writeVarint(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            final Network network = endpoint.getNetwork();
+            out.writeByte(endpoint.getType().ordinal());
+            out.writeByte(network.getAddress().length);
+            out.writeBytes(network.getAddress());
+            out.writeVarint(network.getPrefix());
+            if (endpoint instanceof HttpEndpoint) {
+                out.writeByte(1);
+                out.writeString(((HttpEndpoint) endpoint).getUrl());
+            } else {
+                out.writeByte(0);
+                out.writeVarint(endpoint.getPort() & 0xffff);
+            }
+        }
+    }
+
+    private static Set<Endpoint> readEndpoints(Decoder in) {
+        final int size = (int) in.readVarint();
+        // the wire order is kept, as the signature is computed on the json form
+        final Set<Endpoint> endpoints = new LinkedHashSet<Endpoint>();
+        for (int i = 0; i < size; i++) {
+            final Endpoint.Type type = ENDPOINT_TYPES[in.readByte()];
+            final byte[] address = in.readBytes(in.readByte() & 0xff);
+            final Network network = new Network(address, (short) in.readVarint());
+            if (in.readByte() == 1)
+                endpoints.add(new HttpEndpoint(network, in.readString()));
+            else
+                endpoints.add(new BaseEndpoint(type, network, (short) in.readVarint()));
+        }
+
+        return endpoints;
+    }
+
+    private static void writeApis(Encoder out, Set<RestApi> apis) {
+        if (apis == null) {
+            out.writeVarint(0);
+            return;
+        }
+
+        out.writeVarint(apis.size());
+        for (RestApi api : apis) {
+            out.writeByte(api.getType() == null ? NULL_MARK : (byte) api.getType().ordinal());
+            out.writeString(api.getPath());
+            out.writeString(api.getHost());
+            out.writeVarint(api.getPort());
+            out.writeBoolean(api.hasAffinity());
+            out.writeSignedVarint(api.getPriority());
+        }
+    }
+
+    private static Set<RestApi> readApis(Decoder in) {
+        final int size = (int) in.readVarint();
+        final RestApi[] apis = new RestApi[size];
+        for (int i = 0; i < size; i++) {
+            final byte type = in.readByte();
+            final String path = in.readString();
+            final String host = in.readString();
+            final int port = (int) in.readVarint();
+            final boolean sticky = in.readBoolean();
+            final int priority = (int) in.readSignedVarint();
+            apis[i] = new RestApi(path, port, host, type == NULL_MARK ? null : API_TYPES[type], sticky, priority);
+        }
+
+        return new LinkedHashSet<RestApi>(Arrays.asList(apis));
+    }
+
+    private static final class Encoder {
+        private static final ThreadLocal<Encoder> LOCAL = new ThreadLocal<Encoder>() {
+            @Override
+            protected Encoder initialValue() {
+                return new Encoder(512);
+            }
+        };
+
+        private byte[] buf;
+        private int len;
+
+        Encoder(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        static Encoder local() {
+            final Encoder encoder = LOCAL.get();
+            encoder.len = 0;
+            if (encoder.buf.length > 64 * 1024)
+                encoder.buf = new byte[512];
+            return encoder;
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buf[len++] = (byte) value;
+        }
+
+        void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        void writeBytes(byte[] values) {
+            ensure(values.length);
+            System.arraycopy(values, 0, buf, len, values.length);
+            len += values.length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[len++] = (byte) value;
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buf[len++] = (byte) (value >>> shift);
+        }
+
+        void writeUUID(UUID uuid) {
+            writeLong(uuid.getMostSignificantBits());
+            writeLong(uuid.getLeastSignificantBits());
+        }
+
+        void writeIden(Iden iden) {
+            if (iden == null) {
+                writeByte(NULL_MARK);
+            } else {
+                writeByte(iden.getType().ordinal());
+                writeUUID(iden.getUUID());
+            }
+        }
+
+        // length is shifted by one so that zero can stand for null
+        void writeString(String text) {
+            if (text == null) {
+                writeVarint(0);
+            } else {
+                final byte[] bytes = text.getBytes(UTF8);
+                writeVarint(bytes.length + 1);
+                writeBytes(bytes);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+
+        private void ensure(int size) {
+            if (len + size > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + size));
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+        Decoder(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = offset + length;
+        }
+
+        byte readByte() {
+            if (pos >= limit)
+                throw new IllegalArgumentException("Truncated binary message");
+            return buf[pos++];
+        }
+
+        boolean readBoolean() {
+            return readByte() != 0;
+        }
+
+        byte[] readBytes(int size) {
+            if (size < 0 || pos + size > limit)
+                throw new IllegalArgumentException("Truncated binary message");
+            final byte[] res = Arrays.copyOfRange(buf, pos, pos + size);
+            pos += size;
+            return res;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readSignedVarint() {
+            final long raw = readVarint();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (readByte() & 0xff);
+            return value;
+        }
+
+        UUID readUUID() {
+            final long msb = readLong();
+            return new UUID(msb, readLong());
+        }
+
+        Iden readIden() {
+            final byte type = readByte();
+            if (type == NULL_MARK)
+                return null;
+            return new Iden(IDEN_TYPES[type], readUUID());
+        }
+
+        String readString() {
+            final int size = (int) readVarint() - 1;
+            if (size < 0)
+                return null;
+            if (pos + size > limit)
+                throw new IllegalArgumentException("Truncated binary message");
+            final String res = new String(buf, pos, size, UTF8);
+            pos += size;
+            return res;
+        }
+    }
+}
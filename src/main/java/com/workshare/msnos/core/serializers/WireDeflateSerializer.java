@@ -0,0 +1,190 @@
+package com.workshare.msnos.core.serializers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.JsonParseException;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Version;
+
+/**
+ * DEFLATE compression of messages, spoken by nodes at version 1.2 or later.
+ *
+ * The compressed frame is a flag byte followed by a raw deflate stream built
+ * against a preset dictionary of typical msnos traffic, so that even a single
+ * small message compresses well. A message is sent compressed only when that
+ * makes it smaller, and anything without the flag byte is handed untouched to
+ * the wrapped serializer, so compressed and plain frames can share a channel.
+ */
+public class WireDeflateSerializer implements WireSerializer {
+
+    public static final byte MAGIC = (byte) 0xDF;
+    public static final Version MIN_VERSION = Version.V1_2;
+
+    // never change this once released: both ends must use the very same bytes
+    // most frequent fragments go last, as deflate favours closer matches
+    private static final byte[] DICTIONARY = (
+        "\"working\":true\"crumbs\":[{\"src\":\"dst\":\"way\":\"hop\":1}]\"sig\":\"rnd\":\"ss\":\"rr\":\"rx\":1,"
+        + "APPDSCPINPONACKENQHCKTRCCRTFLT\"dt\":{\"about\":\"AGT:"
+        + "HTTP,80,10.0.0.1.8,http://10.0.0.1:80/HTTP,8080,192.168.0.1.24,http://"
+        + "\"dt\":{\"name\":\"apis\":[{\"ty\":\"PUB\",\"pa\":\"/\",\"ho\":\"\",\"po\":8080,\"st\":false,\"xp\":0},{\"ty\":\"HCK\",\"pa\":\"/health"
+        + "\"dt\":{\"present\":1,\"endpoints\":[\"UDP,3728,10.0.0.1.8\",\"UDP,3728,-84.16.0.1.16\",\"UDP,3728,-64.-88.0.1.24\"]}}"
+        + "{\"v\":\"1.2\",\"fr\":\"AGT:\",\"to\":\"CLD:\",\"rx\":0,\"hp\":3,\"ty\":\"PRS\",\"ts\":1,\"id\":\""
+    ).getBytes(Charset.forName("UTF-8"));
+
+    private static final int MAX_INFLATED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final WireSerializer inner;
+
+    public WireDeflateSerializer(WireSerializer inner) {
+        this.inner = inner;
+    }
+
+    public static boolean isCompressed(byte[] array, int offset, int length) {
+        return length > 0 && array[offset] == MAGIC;
+    }
+
+    /**
+     * Returns the frame the given compressed one was built from
+     */
+    public static byte[] decompress(byte[] array, int offset, int length) {
+        return inflate(array, offset + 1, length - 1);
+    }
+
+    @Override
+    public <T> T fromText(String text, Class<T> clazz) {
+        return inner.fromText(text, clazz);
+    }
+
+    @Override
+    public String toText(Object anyObject) {
+        return inner.toText(anyObject);
+    }
+
+    @Override
+    public <T> T fromReader(Reader reader, Class<T> clazz) {
+        return inner.fromReader(reader, clazz);
+    }
+
+    @Override
+    public <T> T fromBytes(byte[] array, Class<T> clazz) {
+        return fromBytes(array, 0, array.length, clazz);
+    }
+
+    @Override
+    public <T> T fromBytes(byte[] array, int offset, int length, Class<T> clazz) {
+        if (isCompressed(array, offset, length)) {
+            final byte[] plain = inflate(array, offset + 1, length - 1);
+            return inner.fromBytes(plain, 0, plain.length, clazz);
+        }
+
+        return inner.fromBytes(array, offset, length, clazz);
+    }
+
+    @Override
+    public <T> T fromBuffer(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer.hasArray())
+            return fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), clazz);
+
+        final byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return fromBytes(array, clazz);
+    }
+
+    @Override
+    public byte[] toBytes(Object anyObject) {
+        if (anyObject instanceof Message)
+            return encoded((Message) anyObject).clone();
+
+        return inner.toBytes(anyObject);
+    }
+
+    @Override
+    public void toStream(Object anyObject, OutputStream out) throws IOException {
+        if (anyObject instanceof Message)
+            out.write(encoded((Message) anyObject));
+        else
+            inner.toStream(anyObject, out);
+    }
+
+    private byte[] encoded(Message message) {
+        byte[] data = message.getEncoded(this);
+        if (data == null) {
+            final byte[] plain = inner.toBytes(message);
+            final byte[] packed = deflate(plain);
+            data = (packed.length < plain.length ? packed : plain);
+            message.setEncoded(this, data);
+        }
+
+        return data;
+    }
+
+    static byte[] deflate(byte[] plain) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(plain);
+        deflater.finish();
+
+        byte[] out = new byte[plain.length + 16];
+        out[0] = MAGIC;
+        int size = 1;
+        while (!deflater.finished()) {
+            if (size == out.length)
+                out = Arrays.copyOf(out, out.length * 2);
+            size += deflater.deflate(out, size, out.length - size);
+        }
+
+        return Arrays.copyOf(out, size);
+    }
+
+    static byte[] inflate(byte[] array, int offset, int length) {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(array, offset, length);
+
+        byte[] out = new byte[Math.max(64, length * 4)];
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    if (out.length >= MAX_INFLATED_SIZE)
+                        throw new JsonParseException("Compressed message too big");
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+
+                final int count = inflater.inflate(out, size, out.length - size);
+                if (count == 0 && inflater.needsInput())
+                    throw new JsonParseException("Truncated compressed message");
+
+                size += count;
+            }
+        } catch (DataFormatException ex) {
+            throw new JsonParseException("Invalid compressed message", ex);
+        }
+
+        return Arrays.copyOf(out, size);
+    }
+}
@@ -0,0 +1,66 @@
+package com.workshare.msnos.core.serializers;
+
+import java.util.UUID;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+
+/**
+ * The few fields of a message needed to decide whether it's worth decoding,
+ * scanned straight from its encoded form without building the message.
+ *
+ * Both the binary and the json forms are supported: compressed frames have to
+ * be inflated first.
+ */
+public class WireHeader {
+
+    private final Message.Type type;
+    private final Iden from;
+    private final Iden to;
+    private final UUID uuid;
+
+    WireHeader(Message.Type type, Iden from, Iden to, UUID uuid) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.uuid = uuid;
+    }
+
+    /**
+     * Scans the header of an encoded message, returning null when it cannot
+     * be found: such frames should be decoded anyway
+     */
+    public static WireHeader scan(byte[] array, int offset, int length) {
+        try {
+            if (WireBinarySerializer.isBinary(array, offset, length))
+                return WireBinarySerializer.readHeader(array, offset, length);
+            else if (length > 0 && array[offset] == '{')
+                return WireJsonSerializer.scanHeader(array, offset, length);
+            else
+                return null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public Iden getFrom() {
+        return from;
+    }
+
+    public Iden getTo() {
+        return to;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + from + " -> " + to + " " + uuid;
+    }
+}
@@ -1,8 +1,11 @@
 package com.workshare.msnos.core.serializers;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -10,15 +13,16 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.workshare.msnos.core.Iden;
 import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Payload;
@@ -36,14 +40,37 @@ import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
 import com.workshare.msnos.core.protocols.ip.Network;
+import com.workshare.msnos.soup.io.ByteBufferOutputStream;
+import com.workshare.msnos.soup.io.Utf8Reader;
+import com.workshare.msnos.soup.io.Utf8Writer;
 import com.workshare.msnos.soup.json.Json;
-import com.workshare.msnos.soup.json.ThreadSafeGson;
 import com.workshare.msnos.usvc.api.RestApi;
 
 public class WireJsonSerializer implements WireSerializer {
 
     private static Logger log = LoggerFactory.getLogger(WireSerializer.class);
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte['f' + 1];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++)
+            HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private static final Iden.Type[] IDEN_TYPES = Iden.Type.values();
+    private static final char[][] IDEN_NAMES = new char[IDEN_TYPES.length][];
+    static {
+        for (int i = 0; i < IDEN_TYPES.length; i++)
+            IDEN_NAMES[i] = IDEN_TYPES[i].name().toCharArray();
+    }
+
     @Override
     public <T> T fromText(String text, Class<T> clazz) {
         try {
@@ -56,129 +83,238 @@ public class WireJsonSerializer implements WireSerializer {
 
     @Override
     public String toText(Object anyObject) {
-        return gson.toJson(anyObject);
+        if (anyObject instanceof Message)
+            return new String(encoded((Message) anyObject), UTF8);
+        else
+            return gson.toJson(anyObject);
     }
 
     @Override
     public <T> T fromReader(Reader reader, Class<T> clazz) {
-        return gson.fromReader(reader, clazz);
+        return gson.fromJson(reader, clazz);
     }
 
     @Override
     public <T> T fromBytes(byte[] array, Class<T> clazz) {
-        return fromText(new String(array, Charset.forName("UTF-8")), clazz);
+        return fromBytes(array, 0, array.length, clazz);
     }
 
     @Override
     public <T> T fromBytes(byte[] array, int offset, int length, Class<T> clazz) {
-        return fromText(new String(array, offset, length, Charset.forName("UTF-8")), clazz);
+        try {
+            return gson.fromJson(new Utf8Reader(array, offset, length), clazz);
+        } catch (JsonSyntaxException ex) {
+            log.warn("Error parsing JSON content: {}", new String(array, offset, length, UTF8));
+            throw ex;
+        }
+    }
+
+    @Override
+    public <T> T fromBuffer(ByteBuffer buffer, Class<T> clazz) {
+        if (buffer.hasArray())
+            return fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), clazz);
+
+        final byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return fromBytes(array, clazz);
     }
 
     @Override
     public byte[] toBytes(Object anyObject) {
-        final String json = gson.toJson(anyObject);
-        return json.getBytes(Charset.forName("UTF-8"));
+        if (anyObject instanceof Message)
+            return encoded((Message) anyObject).clone();
+
+        final ByteBufferOutputStream out = new ByteBufferOutputStream(256);
+        writeTo(anyObject, out);
+        return out.toByteArray();
     }
 
-    private static final JsonSerializer<Boolean> ENC_BOOL = new JsonSerializer<Boolean>() {
+    @Override
+    public void toStream(Object anyObject, OutputStream out) throws IOException {
+        if (anyObject instanceof Message) {
+            out.write(encoded((Message) anyObject));
+            return;
+        }
+
+        try {
+            writeTo(anyObject, out);
+        } catch (JsonIOException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Returns the wire form of the message, memoized and shared by everyone
+     * sending it: the array must not be modified
+     */
+    public byte[] encode(Message message) {
+        return encoded(message);
+    }
+
+    private byte[] encoded(Message message) {
+        byte[] data = message.getEncoded(WireJsonSerializer.class);
+        if (data == null) {
+            final ByteBufferOutputStream out = new ByteBufferOutputStream(512);
+            writeTo(message, out);
+            data = out.toByteArray();
+            message.setEncoded(WireJsonSerializer.class, data);
+        }
+
+        return data;
+    }
+
+    private void writeTo(Object anyObject, OutputStream out) {
+        final Object target = (anyObject == null ? JsonNull.INSTANCE : anyObject);
+        gson.toJson(target, target.getClass(), new Utf8Writer(out));
+    }
+
+    private static final TypeAdapter<Boolean> BOOL = new TypeAdapter<Boolean>() {
         @Override
-        public JsonElement serialize(Boolean value, Type typeof, JsonSerializationContext context) {
-            return new JsonPrimitive(value ? 1 : 0);
+        public void write(JsonWriter out, Boolean value) throws IOException {
+            if (value == null)
+                out.nullValue();
+            else
+                out.value(value ? 1 : 0);
         }
-    };
 
-    private static final JsonDeserializer<Boolean> DEC_BOOL = new JsonDeserializer<Boolean>() {
         @Override
-        public Boolean deserialize(JsonElement json, Type typeof, JsonDeserializationContext context)
-                throws JsonParseException {
-            return json.getAsInt() == 0 ? Boolean.FALSE : Boolean.TRUE;
+        public Boolean read(JsonReader in) throws IOException {
+            switch (in.peek()) {
+                case NULL:
+                    in.nextNull();
+                    return null;
+                case BOOLEAN:
+                    return in.nextBoolean();
+                default:
+                    return in.nextInt() == 0 ? Boolean.FALSE : Boolean.TRUE;
+            }
         }
     };
 
-    private static final JsonSerializer<Byte> ENC_BYTE = new JsonSerializer<Byte>() {
+    private static final TypeAdapter<Byte> BYTE = new TypeAdapter<Byte>() {
         @Override
-        public JsonElement serialize(Byte value, Type typeof, JsonSerializationContext context) {
-            return new JsonPrimitive((int) (value & 0xff));
+        public void write(JsonWriter out, Byte value) throws IOException {
+            if (value == null)
+                out.nullValue();
+            else
+                out.value(value & 0xff);
         }
-    };
 
-    private static final JsonSerializer<UUID> ENC_UUID = new JsonSerializer<UUID>() {
         @Override
-        public JsonElement serialize(UUID uuid, Type typeof, JsonSerializationContext context) {
-            return new JsonPrimitive(serializeUUIDToShortString(uuid));
+        public Byte read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return (byte) in.nextInt();
         }
     };
 
-    private static final JsonDeserializer<UUID> DEC_UUID = new JsonDeserializer<UUID>() {
+    private static final TypeAdapter<UUID> UUIDS = new TypeAdapter<UUID>() {
         @Override
-        public UUID deserialize(JsonElement json, Type typeof, JsonDeserializationContext context)
-                throws JsonParseException {
-            return deserializeUUIDFromShortString(json.getAsString());
+        public void write(JsonWriter out, UUID uuid) throws IOException {
+            if (uuid == null)
+                out.nullValue();
+            else
+                out.value(serializeUUIDToShortString(uuid));
         }
-    };
 
-    private static final JsonSerializer<Iden> ENC_IDEN = new JsonSerializer<Iden>() {
         @Override
-        public JsonElement serialize(Iden iden, Type typeof, JsonSerializationContext context) {
-            return serializeIden(iden, true);
+        public UUID read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return deserializeUUIDFromShortString(in.nextString());
         }
     };
 
-    private static final JsonDeserializer<Iden> DEC_IDEN = new JsonDeserializer<Iden>() {
+    private static final TypeAdapter<Iden> IDEN = new TypeAdapter<Iden>() {
         @Override
-        public Iden deserialize(JsonElement json, Type typeof, JsonDeserializationContext context)
-                throws JsonParseException {
-            return deserializeIden(json);
+        public void write(JsonWriter out, Iden iden) throws IOException {
+            if (iden == null)
+                out.nullValue();
+            else
+                out.value(serializeIden(iden));
         }
-    };
 
-    private static final JsonSerializer<Version> ENC_VERSION = new JsonSerializer<Version>() {
         @Override
-        public JsonElement serialize(Version src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(src.getMajor() + "." + src.getMinor());
+        public Iden read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return deserializeIden(in.nextString());
         }
     };
 
-    private static final JsonDeserializer<Version> DEC_VERSION = new JsonDeserializer<Version>() {
+    private static final TypeAdapter<Version> VERSION = new TypeAdapter<Version>() {
         @Override
-        public Version deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException {
-            final String text = json.getAsString();
-            final int dotIndex = text.indexOf(".");
-
-            final int major = Integer.parseInt(text.substring(0, dotIndex));
-            final int minor = Integer.parseInt(text.substring(dotIndex + 1));
+        public void write(JsonWriter out, Version version) throws IOException {
+            if (version == null)
+                out.nullValue();
+            else
+                out.value(version.getMajor() + "." + version.getMinor());
+        }
 
-            return new Version(major, minor);
+        @Override
+        public Version read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return Version.valueOf(in.nextString());
         }
     };
 
-    private static final JsonSerializer<Endpoint> ENC_ENDPOINT = new JsonSerializer<Endpoint>() {
+    private static final TypeAdapter<Network> NETWORK = new TypeAdapter<Network>() {
         @Override
-        public JsonElement serialize(Endpoint src, Type typeOfSrc, JsonSerializationContext context) {
-            final String network = context.serialize(src.getNetwork()).getAsString();
-            final Endpoint.Type type = src.getType();
-            if (typeOfSrc == HttpEndpoint.class) {
-                String url = ((HttpEndpoint) src).getUrl();
-                return new JsonPrimitive(type + "," + src.getPort()+","+network+","+url);
-            }
-            else {
-                return new JsonPrimitive(type + "," + src.getPort()+","+network);
+        public void write(JsonWriter out, Network network) throws IOException {
+            if (network == null)
+                out.nullValue();
+            else
+                out.value(serializeNetwork(network));
+        }
+
+        @Override
+        public Network read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
             }
+            return deserializeNetwork(in.nextString());
         }
     };
 
-    private static final JsonDeserializer<Endpoint> DEC_ENDPOINT = new JsonDeserializer<Endpoint>() {
+    private static final TypeAdapter<Endpoint> ENDPOINT = new TypeAdapter<Endpoint>() {
+        @Override
+        public void write(JsonWriter out, Endpoint src) throws IOException {
+            if (src == null) {
+                out.nullValue();
+                return;
+            }
+
+            final StringBuilder sb = new StringBuilder(64);
+            sb.append(src.getType()).append(',').append(src.getPort()).append(',').append(serializeNetwork(src.getNetwork()));
+            if (src instanceof HttpEndpoint)
+                sb.append(',').append(((HttpEndpoint) src).getUrl());
+
+            out.value(sb.toString());
+        }
+
         @Override
-        public Endpoint deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException {
+        public Endpoint read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            final String text = in.nextString();
+            final String[] tokens = text.split(",", 4);
 
-            final String text = json.getAsString();
-            final String[] tokens = text.split(",");
-            
             final Endpoint.Type type = Endpoint.Type.valueOf(tokens[0]);
             final short port = Short.parseShort(tokens[1]);
-            final Network network = context.deserialize(new JsonPrimitive(tokens[2]), Network.class);
+            final Network network = deserializeNetwork(tokens[2]);
 
             if (Endpoint.Type.HTTP.equals(type)) {
                 return new HttpEndpoint(network, tokens[3]);
@@ -187,142 +323,164 @@ public class WireJsonSerializer implements WireSerializer {
         }
     };
 
-    private static final JsonSerializer<Network> ENC_NETWORK = new JsonSerializer<Network>() {
+    private static final TypeAdapter<RestApi> RESTAPI = new TypeAdapter<RestApi>() {
         @Override
-        public JsonElement serialize(Network src, Type typeOfSrc, JsonSerializationContext context) {
-            StringBuilder sb = new StringBuilder();
-            for (byte b : src.getAddress()) {
-                sb.append(b);
-                sb.append('.');
+        public void write(JsonWriter out, RestApi api) throws IOException {
+            if (api == null) {
+                out.nullValue();
+                return;
             }
-            sb.append(src.getPrefix());
-            return new JsonPrimitive(sb.toString());
+
+            out.beginObject();
+            out.name("ty");
+            gson.getAdapter(RestApi.Type.class).write(out, api.getType());
+            out.name("pa").value(api.getPath());
+            out.name("ho").value(api.getHost());
+            out.name("po").value(api.getPort());
+            out.name("st").value(api.hasAffinity());
+            out.name("xp").value(api.getPriority());
+            out.endObject();
         }
-    };
 
-    private static final JsonDeserializer<Network> DEC_NETWORK = new JsonDeserializer<Network>() {
         @Override
-        public Network deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException {
-
-            final String text = json.getAsString();
-            final String[] tokens = text.split("\\.");
-            int index = 0;
+        public RestApi read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
 
-            final byte[] address = new byte[tokens.length-1];
-            for (; index < address.length; index++) {
-                address[index] = Byte.valueOf(tokens[index]);
+            RestApi.Type type = null;
+            boolean sticky = false;
+            int priority = 0;
+            String path = null;
+            String host = null;
+            int port = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("ty".equals(name)) {
+                    type = gson.getAdapter(RestApi.Type.class).read(in);
+                } else if ("pa".equals(name)) {
+                    path = in.nextString();
+                } else if ("ho".equals(name)) {
+                    host = in.nextString();
+                } else if ("po".equals(name)) {
+                    port = in.nextInt();
+                } else if ("st".equals(name)) {
+                    sticky = readLenientBoolean(in);
+                } else if ("xp".equals(name)) {
+                    priority = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
             }
+            in.endObject();
 
-            final short prefix = Short.valueOf(tokens[index]);
-            
-            return new Network(address, prefix);
+            return new RestApi(path, port, host, type, sticky, priority);
         }
     };
 
-    private static final JsonSerializer<RestApi> ENC_RESTAPI = new JsonSerializer<RestApi>() {
+    private static final TypeAdapter<Message> MESSAGE = new TypeAdapter<Message>() {
         @Override
-        public JsonElement serialize(RestApi api, Type typeOfSrc, JsonSerializationContext context) {
-            final JsonObject res = new JsonObject();
-            res.add("ty", context.serialize(api.getType()));
-            res.addProperty("pa", api.getPath());
-            res.addProperty("ho", api.getHost());
-            res.addProperty("po", api.getPort());
-            res.addProperty("st", api.hasAffinity());
-            res.addProperty("xp", api.getPriority());
-            return res;
-        }
-    };
+        public void write(JsonWriter out, Message msg) throws IOException {
+            if (msg == null) {
+                out.nullValue();
+                return;
+            }
 
-    private static final JsonDeserializer<RestApi> DEC_RESTAPI = new JsonDeserializer<RestApi>() {
-        @Override
-        public RestApi deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            final JsonObject obj = json.getAsJsonObject();
-            
-            RestApi.Type type = context.deserialize(obj.get("ty"), RestApi.Type.class);
-            boolean sticky = obj.get("st").getAsBoolean();
-            int priority = obj.get("xp").getAsInt();
-            String path = getString(obj,"pa");
-            String host = getString(obj,"ho");
-            int port = obj.get("po").getAsInt();
-            
-            return new RestApi(path, port, host, type, sticky, priority);
+            out.beginObject();
+            out.name("v");
+            VERSION.write(out, msg.getVersion());
+            out.name("fr");
+            IDEN.write(out, msg.getFrom());
+            out.name("to");
+            IDEN.write(out, msg.getTo());
+            out.name("rx").value(msg.isReliable() ? 1 : 0);
+            out.name("hp").value(msg.getHops());
+            out.name("ty").value(msg.getType().toString());
+            out.name("ss").value(msg.getSig());
+            out.name("rr").value(msg.getRnd());
+            out.name("ts").value(msg.getWhen());
+            out.name("id");
+            UUIDS.write(out, msg.getUuid());
+
+            final Payload data = msg.getData();
+            if (data != null && !(data instanceof NullPayload)) {
+                out.name("dt");
+                writePayload(out, data);
+            }
+
+            out.endObject();
         }
-    };
 
-    private static final JsonSerializer<Message> ENC_MESSAGE = new JsonSerializer<Message>() {
-        @Override
-        public JsonElement serialize(Message msg, Type typeof, JsonSerializationContext context) {
-            final JsonObject res = new JsonObject();
-            res.add("v", context.serialize(msg.getVersion()));
-            res.add("fr", context.serialize(msg.getFrom()));
-            res.add("to", serializeIden(msg.getTo(), false));
-            res.add("rx", context.serialize(msg.isReliable()));
-            res.addProperty("hp", msg.getHops());
-            res.addProperty("ty", msg.getType().toString());
-            res.addProperty("ss", msg.getSig());
-            res.addProperty("rr", msg.getRnd());
-            res.addProperty("ts", msg.getWhen());
-            res.add("id", context.serialize(msg.getUuid()));
-            if (!(msg.getData() instanceof NullPayload))
-                res.add("dt", context.serialize(msg.getData()));
-
-            return res;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private void writePayload(JsonWriter out, final Payload data) throws IOException {
+            final TypeAdapter adapter = gson.getAdapter(data.getClass());
+            adapter.write(out, data);
         }
-    };
 
-    private static final JsonDeserializer<Message> DEC_MESSAGE = new JsonDeserializer<Message>() {
         @Override
-        public Message deserialize(JsonElement json, Type typeof, JsonDeserializationContext context)
-                throws JsonParseException {
-            final JsonObject obj = json.getAsJsonObject();
-
-            final UUID uuid;
-            if (obj.get("id") != null) uuid = context.deserialize(obj.get("id").getAsJsonPrimitive(), UUID.class);
-            else uuid = null;
-
-            final Message.Type type = Message.Type.valueOf(obj.get("ty").getAsString());
-            final Iden from = context.deserialize(obj.get("fr").getAsJsonPrimitive(), Iden.class);
-            final Iden to = context.deserialize(obj.get("to").getAsJsonPrimitive(), Iden.class);
-            final int hops = obj.get("hp").getAsInt();
-            final Boolean reliable = context.deserialize(obj.get("rx"), Boolean.class);
-            final String sig = getString(obj, "ss");
-            final String rnd = getString(obj, "rr");
-            final long when = obj.get("ts").getAsLong();
-
+        public Message read(JsonReader in) throws IOException {
+            Version version = Version.V1_0;
+            UUID uuid = null;
+            Message.Type type = null;
+            Iden from = null;
+            Iden to = null;
+            int hops = 0;
+            boolean reliable = false;
+            String sig = null;
+            String rnd = null;
+            long when = 0;
             Payload data = null;
-            JsonElement dataJson = obj.get("dt");
-            if (dataJson != null) {
-                switch (type) {
-                    case ACK:
-                        try {data = (Payload) gson.fromJsonTree(dataJson, TracePayload.class);}
-                        catch (Exception ignore) {}
-                        break;
-                    case PRS:
-                        data = (Payload) gson.fromJsonTree(dataJson, Presence.class);
-                        break;
-                    case QNE:
-                        data = (Payload) gson.fromJsonTree(dataJson, QnePayload.class);
-                        break;
-                    case FLT:
-                        data = (Payload) gson.fromJsonTree(dataJson, FltPayload.class);
-                        break;
-                    case HCK:
-                        data = (Payload) gson.fromJsonTree(dataJson, HealthcheckPayload.class);
-                        break;
-                    case PON:
-                        data = (Payload) gson.fromJsonTree(dataJson, PongPayload.class);
-                        break;
-                    case TRC:
-                        data = (Payload) gson.fromJsonTree(dataJson, TracePayload.class);
-                        break;
-                    default:
-                        data = (dataJson == null ? NullPayload.INSTANCE : new GenericPayload(dataJson));
-                        break;
+            JsonElement pending = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("v".equals(name)) {
+                    version = VERSION.read(in);
+                } else if ("ty".equals(name)) {
+                    type = Message.Type.valueOf(in.nextString());
+                } else if ("fr".equals(name)) {
+                    from = IDEN.read(in);
+                } else if ("to".equals(name)) {
+                    to = IDEN.read(in);
+                } else if ("id".equals(name)) {
+                    uuid = UUIDS.read(in);
+                } else if ("hp".equals(name)) {
+                    hops = in.nextInt();
+                } else if ("rx".equals(name)) {
+                    reliable = BOOL.read(in);
+                } else if ("ss".equals(name)) {
+                    sig = in.nextString();
+                } else if ("rr".equals(name)) {
+                    rnd = in.nextString();
+                } else if ("ts".equals(name)) {
+                    when = in.nextLong();
+                } else if ("dt".equals(name)) {
+                    if (type == null)
+                        pending = JSON_ELEMENT.read(in);
+                    else
+                        data = streamPayload(type, in);
+                } else {
+                    in.skipValue();
                 }
             }
+            in.endObject();
+
+            if (type == null)
+                throw new JsonParseException("Message type is missing");
+
+            if (pending != null)
+                data = readPayload(type, pending);
 
             return new MessageBuilder(type, from, to)
+                    .withVersion(version)
                     .withHops(hops)
                     .with(data)
                     .with(uuid)
@@ -331,91 +489,263 @@ public class WireJsonSerializer implements WireSerializer {
                     .signed(sig, rnd)
                     .make();
         }
-    };
 
-    private static final ThreadSafeGson gson = new ThreadSafeGson() {
-        protected Gson newGson() {
-            GsonBuilder builder = new GsonBuilder();
+        private Payload streamPayload(Message.Type type, JsonReader in) throws IOException {
+            final Class<? extends Payload> clazz = payloadClass(type);
+            if (clazz == null || type == Message.Type.ACK)
+                return readPayload(type, JSON_ELEMENT.read(in));
+            else
+                return gson.getAdapter(clazz).read(in);
+        }
+    };
 
-            builder.registerTypeAdapter(Boolean.class, ENC_BOOL);
-            builder.registerTypeAdapter(boolean.class, ENC_BOOL);
-            builder.registerTypeAdapter(Boolean.class, DEC_BOOL);
-            builder.registerTypeAdapter(boolean.class, DEC_BOOL);
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT = new Gson().getAdapter(JsonElement.class);
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(Boolean.class, BOOL)
+            .registerTypeAdapter(boolean.class, BOOL)
+            .registerTypeAdapter(Byte.class, BYTE)
+            .registerTypeAdapter(byte.class, BYTE)
+            .registerTypeAdapter(Iden.class, IDEN)
+            .registerTypeAdapter(UUID.class, UUIDS)
+            .registerTypeAdapter(Network.class, NETWORK)
+            .registerTypeAdapter(Version.class, VERSION)
+            .registerTypeAdapter(Message.class, MESSAGE)
+            .registerTypeAdapter(RestApi.class, RESTAPI)
+            .registerTypeAdapter(Endpoint.class, ENDPOINT)
+            .registerTypeAdapter(BaseEndpoint.class, ENDPOINT)
+            .registerTypeAdapter(HttpEndpoint.class, ENDPOINT)
+            .create();
+
+    private static Payload readPayload(Message.Type type, JsonElement json) {
+        final Class<? extends Payload> clazz = payloadClass(type);
+        if (type == Message.Type.ACK) {
+            try {
+                return gson.getAdapter(clazz).fromJsonTree(json);
+            } catch (Exception ignore) {
+                return null;
+            }
+        }
 
-            builder.registerTypeAdapter(Byte.class, ENC_BYTE);
-            builder.registerTypeAdapter(byte.class, ENC_BYTE);
+        if (clazz == null)
+            return new GenericPayload(json);
+        else
+            return gson.getAdapter(clazz).fromJsonTree(json);
+    }
 
-            builder.registerTypeAdapter(Iden.class, ENC_IDEN);
-            builder.registerTypeAdapter(Iden.class, DEC_IDEN);
+    private static Class<? extends Payload> payloadClass(Message.Type type) {
+        switch (type) {
+            case ACK:
+                return TracePayload.class;
+            case PRS:
+                return Presence.class;
+            case QNE:
+                return QnePayload.class;
+            case FLT:
+                return FltPayload.class;
+            case HCK:
+                return HealthcheckPayload.class;
+            case PON:
+                return PongPayload.class;
+            case TRC:
+                return TracePayload.class;
+            default:
+                return null;
+        }
+    }
 
-            builder.registerTypeAdapter(UUID.class, ENC_UUID);
-            builder.registerTypeAdapter(UUID.class, DEC_UUID);
+    static String payloadToText(Payload payload) {
+        return gson.toJson(payload);
+    }
 
-            builder.registerTypeAdapter(Network.class, ENC_NETWORK);
-            builder.registerTypeAdapter(Network.class, DEC_NETWORK);
+    static Payload payloadFromText(Message.Type type, String text) {
+        return readPayload(type, new JsonParser().parse(text));
+    }
 
-            builder.registerTypeAdapter(Version.class, ENC_VERSION);
-            builder.registerTypeAdapter(Version.class, DEC_VERSION);
+    // walks the top level of the json message, decoding only the header fields needed
+    static WireHeader scanHeader(byte[] array, int offset, int length) {
+        final int end = offset + length;
+        Message.Type type = null;
+        Iden from = null;
+        Iden to = null;
+        UUID uuid = null;
+
+        int depth = 0;
+        int i = offset;
+        while (i < end) {
+            final byte b = array[i];
+            if (b == '"') {
+                final int close = skipString(array, i + 1, end);
+                final int colon = skipSpaces(array, close + 1, end);
+                if (depth == 1 && colon < end && array[colon] == ':' && close - i == 3) {
+                    final int value = skipSpaces(array, colon + 1, end);
+                    if (value < end && array[value] == '"') {
+                        final int valueEnd = skipString(array, value + 1, end);
+                        final String text = new String(array, value + 1, valueEnd - value - 1, UTF8);
+                        final byte k0 = array[i + 1], k1 = array[i + 2];
+                        if (k0 == 't' && k1 == 'y')
+                            type = Message.Type.valueOf(text);
+                        else if (k0 == 'f' && k1 == 'r')
+                            from = deserializeIden(text);
+                        else if (k0 == 't' && k1 == 'o')
+                            to = deserializeIden(text);
+                        else if (k0 == 'i' && k1 == 'd')
+                            uuid = deserializeUUIDFromShortString(text);
+
+                        if (type != null && from != null && to != null && uuid != null)
+                            return new WireHeader(type, from, to, uuid);
+
+                        i = valueEnd + 1;
+                        continue;
+                    }
+                }
 
-            builder.registerTypeAdapter(Message.class, ENC_MESSAGE);
-            builder.registerTypeAdapter(Message.class, DEC_MESSAGE);
+                i = close + 1;
+                continue;
+            }
 
-            builder.registerTypeAdapter(RestApi.class, ENC_RESTAPI);
-            builder.registerTypeAdapter(RestApi.class, DEC_RESTAPI);
+            if (b == '{' || b == '[')
+                depth++;
+            else if (b == '}' || b == ']')
+                depth--;
+            i++;
+        }
 
-            builder.registerTypeAdapter(Endpoint.class, DEC_ENDPOINT);
-            builder.registerTypeAdapter(Endpoint.class, ENC_ENDPOINT);
-            builder.registerTypeAdapter(BaseEndpoint.class, ENC_ENDPOINT);
-            builder.registerTypeAdapter(HttpEndpoint.class, ENC_ENDPOINT);
+        return null;
+    }
 
-            return builder.create();
+    // returns the index of the closing quote of the string starting at the given index
+    private static int skipString(byte[] array, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (array[i] == '\\')
+                i++;
+            else if (array[i] == '"')
+                return i;
         }
-    };
 
-    private static final JsonPrimitive serializeIden(Iden iden, boolean includeSuid) {
-        String text = iden.getType() + ":" + serializeUUIDToShortString(iden.getUUID());
-        return new JsonPrimitive(text);
+        throw new JsonParseException("Unterminated string");
     }
 
-    private static final Iden deserializeIden(JsonElement json) {
-        String text = json.getAsString();
+    private static int skipSpaces(byte[] array, int from, int end) {
+        int i = from;
+        while (i < end && (array[i] == ' ' || array[i] == '\t' || array[i] == '\n' || array[i] == '\r'))
+            i++;
+        return i;
+    }
 
+    private static final String serializeIden(Iden iden) {
+        final char[] name = IDEN_NAMES[iden.getType().ordinal()];
+        final char[] chars = new char[name.length + 1 + 32];
+        System.arraycopy(name, 0, chars, 0, name.length);
+        chars[name.length] = ':';
+        writeHex(iden.getUUID(), chars, name.length + 1);
+        return new String(chars);
+    }
+
+    private static final Iden deserializeIden(String text) {
         int idx1 = text.indexOf(':');
         int idx2 = text.indexOf(':', idx1 + 1);
         idx2 = (idx2 > 0 ? idx2 : text.length());
 
-        Iden.Type type = Iden.Type.valueOf(text.substring(0, idx1));
-        UUID uuid = deserializeUUIDFromShortString(text.substring(idx1 + 1, idx2));
+        Iden.Type type = parseIdenType(text, idx1);
+        UUID uuid = parseHex(text, idx1 + 1, idx2);
 
         return new Iden(type, uuid);
     }
 
-    private static String serializeUUIDToShortString(UUID uuid) {
-        return uuid.toString().replaceAll("-", "");
+    private static Iden.Type parseIdenType(String text, int end) {
+        for (int i = 0; i < IDEN_TYPES.length; i++) {
+            final char[] name = IDEN_NAMES[i];
+            if (name.length == end && matches(text, name))
+                return IDEN_TYPES[i];
+        }
+
+        throw new JsonParseException("Invalid iden type: " + text);
     }
 
-    private static UUID deserializeUUIDFromShortString(String text) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            sb.append(text.substring(0, 8));
-            sb.append('-');
-            sb.append(text.substring(8, 12));
-            sb.append('-');
-            sb.append(text.substring(12, 16));
-            sb.append('-');
-            sb.append(text.substring(16, 20));
-            sb.append('-');
-            sb.append(text.substring(20));
-
-            return UUID.fromString(sb.toString());
-        } catch (Exception any) {
-            throw new JsonParseException(any);
-        }
-    }
-
-    private static final String getString(final JsonObject obj, final String memberName) {
-        final JsonElement jsonElement = obj.get(memberName);
-        return (jsonElement == null) ? null : jsonElement.getAsString();
+    private static boolean matches(String text, char[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (text.charAt(i) != name[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String serializeNetwork(Network network) {
+        final StringBuilder sb = new StringBuilder(24);
+        for (byte b : network.getAddress()) {
+            sb.append(b);
+            sb.append('.');
+        }
+        sb.append(network.getPrefix());
+        return sb.toString();
+    }
+
+    private static Network deserializeNetwork(final String text) {
+        final String[] tokens = text.split("\\.");
+        int index = 0;
+
+        final byte[] address = new byte[tokens.length - 1];
+        for (; index < address.length; index++) {
+            address[index] = Byte.valueOf(tokens[index]);
+        }
+
+        final short prefix = Short.valueOf(tokens[index]);
+
+        return new Network(address, prefix);
+    }
+
+    private static boolean readLenientBoolean(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NUMBER:
+                return in.nextInt() != 0;
+            default:
+                return Boolean.parseBoolean(in.nextString());
+        }
+    }
+
+    static String serializeUUIDToShortString(UUID uuid) {
+        final char[] chars = new char[32];
+        writeHex(uuid, chars, 0);
+        return new String(chars);
+    }
+
+    static UUID deserializeUUIDFromShortString(String text) {
+        return parseHex(text, 0, text.length());
+    }
+
+    private static void writeHex(UUID uuid, char[] chars, int offset) {
+        writeHex(uuid.getMostSignificantBits(), chars, offset);
+        writeHex(uuid.getLeastSignificantBits(), chars, offset + 16);
+    }
+
+    private static void writeHex(long value, char[] chars, int offset) {
+        for (int i = offset + 15; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private static UUID parseHex(String text, int from, int to) {
+        if (to - from != 32)
+            throw new JsonParseException("Invalid uuid: " + text);
+
+        return new UUID(parseHex(text, from), parseHex(text, from + 16));
+    }
+
+    private static long parseHex(String text, int from) {
+        long value = 0;
+        for (int i = from; i < from + 16; i++) {
+            final char c = text.charAt(i);
+            final int digit = (c < HEX_VALUES.length ? HEX_VALUES[c] : -1);
+            if (digit < 0)
+                throw new JsonParseException("Invalid uuid: " + text);
+
+            value = (value << 4) | digit;
+        }
+        return value;
     }
 
     static class Sample {
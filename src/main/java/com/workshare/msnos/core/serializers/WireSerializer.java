@@ -1,6 +1,9 @@
 package com.workshare.msnos.core.serializers;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 
 public interface WireSerializer {
 
@@ -15,4 +18,15 @@ public interface WireSerializer {
     public byte[] toBytes(Object anyObject);
 
     public <T> T fromReader(Reader reader, Class<T> clazz);
+
+    /**
+     * Decodes the remaining bytes of the buffer, without copying them when the
+     * buffer is backed by an array. The buffer position is not changed.
+     */
+    public <T> T fromBuffer(ByteBuffer buffer, Class<T> clazz);
+
+    /**
+     * Encodes straight into the stream, with no intermediate string or array.
+     */
+    public void toStream(Object anyObject, OutputStream out) throws IOException;
 }
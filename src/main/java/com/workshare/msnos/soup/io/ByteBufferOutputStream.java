@@ -0,0 +1,83 @@
+package com.workshare.msnos.soup.io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable, unsynchronized byte sink whose backing array can be handed out
+ * without copying. One instance per thread is pooled through {@link #local()}.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBufferOutputStream> LOCAL = new ThreadLocal<ByteBufferOutputStream>() {
+        @Override
+        protected ByteBufferOutputStream initialValue() {
+            return new ByteBufferOutputStream(INITIAL_SIZE);
+        }
+    };
+
+    private byte[] buf;
+    private int count;
+
+    public ByteBufferOutputStream() {
+        this(INITIAL_SIZE);
+    }
+
+    public ByteBufferOutputStream(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    /**
+     * Returns the empty buffer owned by the current thread: its content is only
+     * valid until the next call on the same thread.
+     */
+    public static ByteBufferOutputStream local() {
+        ByteBufferOutputStream out = LOCAL.get();
+        out.reset();
+        return out;
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    public void reset() {
+        count = 0;
+        if (buf.length > MAX_RETAINED_SIZE)
+            buf = new byte[INITIAL_SIZE];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    private void ensure(int size) {
+        if (count + size > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + size));
+    }
+}
@@ -0,0 +1,25 @@
+package com.workshare.msnos.soup.io;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written, only counting the bytes.
+ */
+public class SizeOutputStream extends OutputStream {
+
+    private int size;
+
+    @Override
+    public void write(int b) {
+        size++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        size += length;
+    }
+
+    public int size() {
+        return size;
+    }
+}
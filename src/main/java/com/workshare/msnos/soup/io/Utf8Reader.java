@@ -0,0 +1,99 @@
+package com.workshare.msnos.soup.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Decodes UTF-8 straight out of a byte range, without the intermediate byte and
+ * char buffers of an InputStreamReader. Malformed input becomes U+FFFD.
+ */
+public class Utf8Reader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] data;
+    private final int limit;
+    private int pos;
+    private int pendingLowSurrogate = -1;
+
+    public Utf8Reader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        int n = 0;
+        if (pendingLowSurrogate >= 0) {
+            cbuf[off + n++] = (char) pendingLowSurrogate;
+            pendingLowSurrogate = -1;
+        }
+
+        while (n < len && pos < limit) {
+            final int b = data[pos];
+            if (b >= 0) {
+                cbuf[off + n++] = (char) b;
+                pos++;
+                continue;
+            }
+
+            final int cp = decodeMultiByte();
+            if (cp < 0x10000) {
+                cbuf[off + n++] = (char) cp;
+            } else {
+                cbuf[off + n++] = (char) (((cp - 0x10000) >>> 10) + 0xD800);
+                final char low = (char) ((cp & 0x3FF) + 0xDC00);
+                if (n < len)
+                    cbuf[off + n++] = low;
+                else
+                    pendingLowSurrogate = low;
+            }
+        }
+
+        return (n == 0 ? -1 : n);
+    }
+
+    private int decodeMultiByte() {
+        final int b0 = data[pos] & 0xff;
+        final int size;
+        int cp;
+        if ((b0 & 0xE0) == 0xC0) {
+            size = 2;
+            cp = b0 & 0x1F;
+        } else if ((b0 & 0xF0) == 0xE0) {
+            size = 3;
+            cp = b0 & 0x0F;
+        } else if ((b0 & 0xF8) == 0xF0) {
+            size = 4;
+            cp = b0 & 0x07;
+        } else {
+            pos++;
+            return REPLACEMENT;
+        }
+
+        if (pos + size > limit) {
+            pos = limit;
+            return REPLACEMENT;
+        }
+
+        for (int i = 1; i < size; i++) {
+            final int b = data[pos + i] & 0xff;
+            if ((b & 0xC0) != 0x80) {
+                pos += i;
+                return REPLACEMENT;
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+
+        pos += size;
+        return cp;
+    }
+
+    @Override
+    public void close() {
+    }
+}
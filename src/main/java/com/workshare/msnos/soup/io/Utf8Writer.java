@@ -0,0 +1,81 @@
+package com.workshare.msnos.soup.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 straight into an output stream, without the
+ * intermediate buffers of an OutputStreamWriter. Nothing is held back, so
+ * flushing is never required.
+ */
+public class Utf8Writer extends Writer {
+
+    private final OutputStream out;
+    private int pendingHighSurrogate = -1;
+
+    public Utf8Writer(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (pendingHighSurrogate >= 0) {
+            final int high = pendingHighSurrogate;
+            pendingHighSurrogate = -1;
+            if (Character.isLowSurrogate((char) c)) {
+                writeCodePoint(Character.toCodePoint((char) high, (char) c));
+                return;
+            }
+            out.write('?');
+        }
+
+        if (c < 0x80) {
+            out.write(c);
+        } else if (Character.isHighSurrogate((char) c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate((char) c)) {
+            out.write('?');
+        } else {
+            writeCodePoint(c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++)
+            write(cbuf[i]);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++)
+            write(str.charAt(i));
+    }
+
+    private void writeCodePoint(int cp) throws IOException {
+        if (cp < 0x800) {
+            out.write(0xC0 | (cp >> 6));
+            out.write(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            out.write(0xE0 | (cp >> 12));
+            out.write(0x80 | ((cp >> 6) & 0x3F));
+            out.write(0x80 | (cp & 0x3F));
+        } else {
+            out.write(0xF0 | (cp >> 18));
+            out.write(0x80 | ((cp >> 12) & 0x3F));
+            out.write(0x80 | ((cp >> 6) & 0x3F));
+            out.write(0x80 | (cp & 0x3F));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,5 +1,6 @@
 package com.workshare.msnos.soup.threading;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,6 +43,18 @@ public class ExecutorServices {
                 new ThreadPoolExecutor.CallerRunsPolicy());
 	}
 
+    /**
+     * A fixed pool with a bounded queue, that rejects the tasks it cannot
+     * accept instead of running them on the caller thread
+     */
+    public static ThreadPoolExecutor newBoundedDaemonThreadPool(final int size, final int queueSize) {
+        return new ThreadPoolExecutor(size, size,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                DAEMON_THREAD_FACTORY, 
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
     public static ScheduledExecutorService newSingleThreadScheduledExecutor() {
         return Executors.newSingleThreadScheduledExecutor(DAEMON_THREAD_FACTORY);
     }
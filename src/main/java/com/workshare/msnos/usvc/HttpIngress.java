@@ -0,0 +1,191 @@
+package com.workshare.msnos.usvc;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MsnosException;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.protocols.ip.http.MessagesReader;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.core.serializers.WireSerializer;
+import com.workshare.msnos.soup.threading.ExecutorServices;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * An embedded endpoint accepting MSNOS messages over HTTP, either one per
+ * request or in batches one per line.
+ *
+ * The messages are decoded while the body is read and handed to the cloud by
+ * a bounded pool of workers: when the pool is saturated the request is
+ * answered with 429, and with 503 once the endpoint is stopped, so that the
+ * sender can back off and retry. A body that cannot be decoded is answered
+ * with 400.
+ *
+ * The messages of a batch read before a refusal are delivered anyway: the
+ * {@value #ACCEPTED_HEADER} header of the answer tells how many they are, so
+ * that the sender retries only the ones after them.
+ *
+ * <pre>
+ *   HttpIngress ingress = new HttpIngress(microcloud, 9999, "/msnos");
+ *   ingress.start();
+ *   ingress.publish(microservice);
+ * </pre>
+ */
+public class HttpIngress {
+
+    public static final String SYSP_WORKERS = "com.ws.msnos.http.ingress.workers";
+    public static final String SYSP_QUEUE_SIZE = "com.ws.msnos.http.ingress.queue.size";
+
+    static final String ACCEPTED_HEADER = "X-Msnos-Accepted";
+
+    static final int SC_OK = 200;
+    static final int SC_BAD_REQUEST = 400;
+    static final int SC_METHOD_NOT_ALLOWED = 405;
+    static final int SC_TOO_MANY_REQUESTS = 429;
+    static final int SC_UNAVAILABLE = 503;
+
+    private static final Logger log = LoggerFactory.getLogger(HttpIngress.class);
+
+    private final Microcloud cloud;
+    private final String path;
+    private final WireSerializer serializer;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService readers;
+    private final HttpServer server;
+
+    public HttpIngress(Microcloud cloud, int port, String path) throws IOException {
+        this(cloud, port, path, Integer.getInteger(SYSP_WORKERS, 4), Integer.getInteger(SYSP_QUEUE_SIZE, 1024));
+    }
+
+    public HttpIngress(Microcloud cloud, int port, String path, int workers, int queueSize) throws IOException {
+        this.cloud = cloud;
+        this.path = path;
+        this.serializer = new WireJsonSerializer();
+        this.workers = ExecutorServices.newBoundedDaemonThreadPool(workers, queueSize);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext(path, new Handler());
+
+        // requests are read concurrently, so that a slow sender does not hold the others
+        this.readers = ExecutorServices.newFixedDaemonThreadPool(workers);
+        this.server.setExecutor(readers);
+    }
+
+    public void start() {
+        log.info("Accepting msnos messages on port {} at {}", getPort(), path);
+        server.start();
+    }
+
+    public void stop() {
+        workers.shutdown();
+        server.stop(0);
+        readers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The api to publish so that the other agents send their messages here
+     */
+    public RestApi api() {
+        return new RestApi(path, getPort()).asMsnosEndpoint();
+    }
+
+    public void publish(Microservice microservice) throws MsnosException {
+        microservice.publish(api());
+    }
+
+    int queued() {
+        return workers.getQueue().size();
+    }
+
+    private class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod()))
+                    respond(exchange, SC_METHOD_NOT_ALLOWED);
+                else if (workers.isShutdown())
+                    respond(exchange, SC_UNAVAILABLE);
+                else if (workers.getQueue().remainingCapacity() == 0)
+                    respond(exchange, SC_TOO_MANY_REQUESTS);
+                else
+                    respond(exchange, receive(exchange));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private int receive(HttpExchange exchange) throws IOException {
+            final MessagesReader messages = new MessagesReader(serializer, new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+            int accepted = 0;
+            try {
+                Message message;
+                while ((message = messages.next()) != null) {
+                    try {
+                        workers.execute(new Delivery(message));
+                        accepted++;
+                    } catch (RejectedExecutionException ex) {
+                        log.debug("Unable to accept message {}, workers saturated", message);
+                        return refused(exchange, accepted, workers.isShutdown() ? SC_UNAVAILABLE : SC_TOO_MANY_REQUESTS);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                // a malformed line may fail anywhere in decoding, i.e. on an unknown type
+                log.debug("Unable to decode message, the body is malformed", ex);
+                return refused(exchange, accepted, SC_BAD_REQUEST);
+            } finally {
+                messages.close();
+            }
+
+            return SC_OK;
+        }
+
+        private int refused(HttpExchange exchange, int accepted, int status) {
+            exchange.getResponseHeaders().add(ACCEPTED_HEADER, Integer.toString(accepted));
+            return status;
+        }
+
+        private void respond(HttpExchange exchange, int status) throws IOException {
+            if (status == SC_TOO_MANY_REQUESTS || status == SC_UNAVAILABLE)
+                exchange.getResponseHeaders().add("Retry-After", "1");
+
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+
+    private class Delivery implements Runnable {
+        private final Message message;
+
+        Delivery(Message message) {
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            try {
+                cloud.process(message, Endpoint.Type.HTTP);
+            } catch (Throwable ex) {
+                log.warn("Unexpected exception processing message " + message, ex);
+            }
+        }
+    }
+}
@@ -296,7 +296,7 @@ public class Microcloud {
             cloud.registerLocalMsnosEndpoint(new HttpEndpoint(microservice, api));
         }
 
-        cloud.send(new MessageBuilder(PRS, agent, cloud).with(new Presence(true, agent)).make());
+        cloud.send(new MessageBuilder(PRS, agent, cloud).with(new Presence(true, agent.getEndpoints(), cloud.getPacketSize())).make());
     }
 
     void onJoin(PassiveService passive) throws MsnosException {
@@ -186,7 +186,7 @@ public class RestApi {
         if (sticky != restApi.sticky) return false;
         if (!path.equals(restApi.path)) return false;
         if (type != restApi.type) return false;
-        if (!host.equals(restApi.host)) return false;
+        if (host == null ? restApi.host != null : !host.equals(restApi.host)) return false;
 
         return true;
     }
@@ -17,6 +17,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -50,6 +51,7 @@ import org.mockito.ArgumentCaptor;
 import com.workshare.msnos.core.Cloud.Internal;
 import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.Message.Type;
+import com.workshare.msnos.core.cloud.MessageValidators.Result;
 import com.workshare.msnos.core.cloud.Multicaster;
 import com.workshare.msnos.core.payloads.FltPayload;
 import com.workshare.msnos.core.payloads.Presence;
@@ -58,6 +60,7 @@ import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoints;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
 import com.workshare.msnos.core.protocols.ip.http.HttpGateway;
+import com.workshare.msnos.core.protocols.ip.udp.UDPGateway;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 import com.workshare.msnos.core.security.KeysStore;
 import com.workshare.msnos.core.security.Signer;
@@ -139,6 +142,23 @@ public class CloudTest {
         home.delete();
     }
 
+    @Test
+    public void shouldAdvertiseThePacketSizeOfItsUDPGateway() throws Exception {
+        UDPGateway udp = mock(UDPGateway.class);
+        when(udp.packetSize()).thenReturn(1472);
+        when(udp.endpoints()).thenReturn(BaseEndpoint.create());
+        Set<Gateway> gates = new LinkedHashSet<Gateway>(Arrays.<Gateway>asList(httpGate, udp));
+        Cloud cloud = new Cloud(UUID.randomUUID(), KEY_ID, signer, sender, receiver, gates, caster, scheduler);
+
+        Integer expected = (Version.CURRENT.isAtLeast(Presence.MIN_SIZED_VERSION) ? Integer.valueOf(1472) : null);
+        assertEquals(expected, cloud.getPacketSize());
+    }
+
+    @Test
+    public void shouldAdvertiseNoPacketSizeWithoutAUDPGateway() throws Exception {
+        assertNull(thisCloud.getPacketSize());
+    }
+
     @Test
     public void shouldCreateDefaultGateways() throws Exception {
         Set<Gateway> expected = Gateways.all();
@@ -227,6 +247,37 @@ public class CloudTest {
         karl.leave();
     }
 
+    @Test
+    public void shouldRejectHeadersOfMessagesToAnotherCloud() throws Exception {
+        Result result = thisCloud.validators().isReceivable(SOMEONE, otherCloud.getIden(), UUID.randomUUID());
+
+        assertFalse(result.success());
+        assertEquals("TO_OTHER", result.reason());
+    }
+
+    @Test
+    public void shouldRejectHeadersOfMessagesFromLocalAgents() throws Exception {
+        LocalAgent smith = new LocalAgent(UUID.randomUUID());
+        smith.join(thisCloud);
+
+        Result result = thisCloud.validators().isReceivable(smith.getIden(), thisCloud.getIden(), UUID.randomUUID());
+
+        assertFalse(result.success());
+        assertEquals("FROM_LOCAL", result.reason());
+    }
+
+    @Test
+    public void shouldRejectHeadersOfMessagesAlreadyReceived() throws Exception {
+        Message message = newMessage(Message.Type.APP, SOMEONE, thisCloud.getIden());
+        assertTrue(thisCloud.validators().isReceivable(SOMEONE, thisCloud.getIden(), message.getUuid()).success());
+
+        simulateMessageFromNetwork(message);
+
+        Result result = thisCloud.validators().isReceivable(SOMEONE, thisCloud.getIden(), message.getUuid());
+        assertFalse(result.success());
+        assertEquals("DUPLICATE", result.reason());
+    }
+
     @Test
     public void shouldNOTUpdateAgentsListWhenAgentJoinsThroughGatewayToAnotherCloud() throws Exception {
         RemoteAgent frank = newRemoteAgent(otherCloud);
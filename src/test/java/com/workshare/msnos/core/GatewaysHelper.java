@@ -3,6 +3,7 @@ package com.workshare.msnos.core;
 import static com.workshare.msnos.core.CoreHelper.synchronousGatewayMulticaster;
 import static org.mockito.Mockito.*;
 
+import java.net.DatagramSocket;
 import java.net.MulticastSocket;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -46,6 +47,7 @@ public class GatewaysHelper {
         MulticastSocketFactory sockets = mock(MulticastSocketFactory.class);
         MulticastSocket msock = mock(MulticastSocket.class);
         when(sockets.create()).thenReturn(msock);
+        when(sockets.createUnicast()).thenReturn(mock(DatagramSocket.class));
 
         return new UDPGateway(sockets, mock(UDPServer.class), caster);
     }
@@ -1,12 +1,17 @@
 package com.workshare.msnos.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.UUID;
 
 import org.junit.Test;
 
+import com.workshare.msnos.core.payloads.FltPayload;
 import com.workshare.msnos.core.payloads.PongPayload;
 import com.workshare.msnos.core.payloads.TracePayload;
 
@@ -52,4 +57,104 @@ public class MessageTest {
         assertNotNull(msg.getData());
         assertEquals(TracePayload.class, msg.getData().getClass());
     }
+
+    @Test
+    public void shouldKeepEncodingOnlyOnTheSameInstance() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).make();
+        byte[] data = new byte[]{1, 2, 3};
+        msg.setEncoded("fmt", data);
+
+        assertSame(data, msg.getEncoded("fmt"));
+        assertSame(data, msg.withHops(msg.getHops()).getEncoded("fmt"));
+        assertNull(msg.hopped().getEncoded("fmt"));
+        assertNull(msg.signed("key", "sig").getEncoded("fmt"));
+        assertNull(msg.getEncoded("other"));
+    }
+
+    @Test
+    public void shouldKeepEncodingsOfTwoFormats() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).make();
+        byte[] one = new byte[]{1};
+        byte[] two = new byte[]{2};
+        msg.setEncoded("one", one);
+        msg.setEncoded("two", two);
+
+        assertSame(one, msg.getEncoded("one"));
+        assertSame(two, msg.getEncoded("two"));
+    }
+
+    @Test
+    public void shouldKeepEncodingsOfEveryWireFormat() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).make();
+        byte[] json = new byte[]{1};
+        byte[] binary = new byte[]{2};
+        byte[] deflated = new byte[]{3};
+        msg.setEncoded("json", json);
+        msg.setEncoded("binary", binary);
+        msg.setEncoded("deflated", deflated);
+
+        assertSame(json, msg.getEncoded("json"));
+        assertSame(binary, msg.getEncoded("binary"));
+        assertSame(deflated, msg.getEncoded("deflated"));
+    }
+
+    @Test
+    public void shouldDropTheOldestEncodingBeyondTheWireFormats() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).make();
+        byte[] fresh = new byte[]{1};
+        msg.setEncoded("one", new byte[]{1});
+        msg.setEncoded("two", new byte[]{2});
+        msg.setEncoded("one", fresh);
+        msg.setEncoded("tre", new byte[]{3});
+        msg.setEncoded("for", new byte[]{4});
+
+        assertNull(msg.getEncoded("two"));
+        assertSame(fresh, msg.getEncoded("one"));
+        assertNotNull(msg.getEncoded("tre"));
+        assertNotNull(msg.getEncoded("for"));
+    }
+
+    @Test
+    public void shouldNotConsiderEncodingInEquality() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).at(1234L).make();
+        Message other = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).at(1234L).make();
+        msg.setEncoded("fmt", new byte[]{1});
+
+        assertEquals(other, msg);
+    }
+
+    @Test
+    public void shouldBeEqualWhenAllFieldsMatch() {
+        Message msg = new MessageBuilder(Message.Type.FLT, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).with(new FltPayload(AGENT_IDEN)).at(1234L).make();
+        Message other = new MessageBuilder(Message.Type.FLT, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).with(new FltPayload(AGENT_IDEN)).at(1234L).make();
+
+        assertEquals(other, msg);
+        assertEquals(other.hashCode(), msg.hashCode());
+    }
+
+    @Test
+    public void shouldNotBeEqualWhenPayloadDiffers() {
+        Message msg = new MessageBuilder(Message.Type.FLT, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).with(new FltPayload(AGENT_IDEN)).at(1234L).make();
+        Message other = new MessageBuilder(Message.Type.FLT, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).with(new FltPayload(CLOUD_IDEN)).at(1234L).make();
+
+        assertFalse(msg.equals(other));
+    }
+
+    @Test
+    public void shouldNotBeEqualWhenHopsDiffer() {
+        Message msg = new MessageBuilder(Message.Type.APP, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).at(1234L).make();
+
+        assertFalse(msg.equals(msg.hopped()));
+    }
+
+    @Test
+    public void shouldDescribeItselfWithoutJson() {
+        Message msg = new MessageBuilder(Message.Type.FLT, AGENT_IDEN, CLOUD_IDEN).with(MSG_UUID).with(new FltPayload(AGENT_IDEN)).make();
+
+        final String text = msg.toString();
+
+        assertTrue(text.contains("FLT:" + MSG_UUID));
+        assertTrue(text.contains(AGENT_IDEN.toString()));
+        assertFalse(text.contains("{"));
+    }
 }
@@ -54,6 +54,18 @@ public class PresencePayloadTest {
         }
     }    
 
+    @Test
+    public void shouldKeepPacketSizeOnSplit() {
+        Endpoint alfa = Mockito.mock(Endpoint.class);
+        Endpoint beta = Mockito.mock(Endpoint.class);
+        Presence payload = new Presence(true, asSet(alfa, beta), 1472);
+
+        Payload[] loads = payload.split();
+        for (Payload load : loads) {
+            assertEquals(Integer.valueOf(1472), ((Presence) load).getPacketSize());
+        }
+    }
+
     @Test
     public void shouldLoadMyGatewaysWhenPresenceTrue() throws MsnosException {
         PowerMockito.mockStatic(Gateways.class);
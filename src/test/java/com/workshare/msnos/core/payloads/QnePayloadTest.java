@@ -9,6 +9,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class QnePayloadTest {
 
@@ -37,6 +38,16 @@ public class QnePayloadTest {
         }
     }
 
+    @Test
+    public void shouldBeEqualWhenNameAndApisMatch() {
+        QnePayload payload = new QnePayload("foo", newApi("alfa"), newApi("beta"));
+        QnePayload other = new QnePayload("foo", newApi("beta"), newApi("alfa"));
+
+        assertEquals(payload, other);
+        assertEquals(payload.hashCode(), other.hashCode());
+        assertFalse(payload.equals(new QnePayload("bar", newApi("alfa"), newApi("beta"))));
+    }
+
     private RestApi newApi(final String path) {
         return new RestApi(path, (int) Math.random() * 1000);
     }
@@ -80,6 +80,14 @@ public class NetworkTest {
         assertArrayEquals(new byte[]{FF, FF, FF, 0}, net.getNetmask());
     }
 
+    @Test
+    public void shouldContainAddressesWithinItsPrefix() {
+        Network net = new Network(new byte[]{10, 0, 0, 1}, (short) 22);
+        assertTrue(net.contains(new Network(new byte[]{10, 0, 3, 7}, (short) 24)));
+        assertFalse(net.contains(new Network(new byte[]{10, 0, 4, 7}, (short) 24)));
+        assertFalse(net.contains(new Network(new byte[16], (short) 64)));
+    }
+
     @Test
     public void shouldComputeGetHostString() {
         Network net = new Network(new byte[]{10, 0, 0, 1}, (byte) 24);
@@ -234,6 +242,30 @@ public class NetworkTest {
         assertEquals(IPV4_ADDRESS1, res.iterator().next().getAddress());
     }
     
+    @Test
+    public void shouldFindTheMinimumMTUOfActiveNics() throws Exception {
+        System.clearProperty(Network.SYSP_NET_BINDINGS);
+
+        final NetworkInterface eth0 = mockNicWithMTU(1500, true);
+        final NetworkInterface wlan0 = mockNicWithMTU(1400, true);
+        final NetworkInterface down = mockNicWithMTU(576, false);
+        final NetworkInterface loopback = mockNicWithMTU(65536, true);
+        when(loopback.isLoopback()).thenReturn(true);
+
+        assertEquals(1400, Network.findMinimumMTU(asEnumeration(eth0, down, wlan0, loopback), false));
+    }
+
+    @Test
+    public void shouldReturnZeroMTUWhenNoNicIsAvailable() throws Exception {
+        System.clearProperty(Network.SYSP_NET_BINDINGS);
+
+        final NetworkInterface virtual = mockNicWithMTU(1200, true);
+        when(virtual.isVirtual()).thenReturn(true);
+
+        assertEquals(0, Network.findMinimumMTU(asEnumeration(virtual), false));
+        assertEquals(1200, Network.findMinimumMTU(asEnumeration(virtual), true));
+    }
+
     @Test
     public void shouldReturnTrueOnValidIPV4DottedAddress() {
         assertTrue(Network.isValidDottedIpv4Address("25.25.25.25"));
@@ -261,6 +293,13 @@ public class NetworkTest {
         };
     }
 
+    private NetworkInterface mockNicWithMTU(int mtu, boolean up) throws Exception {
+        final NetworkInterface nic = mock(NetworkInterface.class);
+        when(nic.getMTU()).thenReturn(mtu);
+        when(nic.isUp()).thenReturn(up);
+        return nic;
+    }
+
     private InterfaceAddress mockInterfaceAddress(final byte[] netAddress) {
         final InterfaceAddress intface = mockInterfaceAddress(netAddress, NET_PREFIX);
         if (netAddress.equals(IPV4_LOCALHOST)) {
@@ -0,0 +1,105 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.core.CoreHelper;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.protocols.ip.NullGateway;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
+
+public class HttpBatchesTest {
+
+    private static final HttpEndpoint ALFA = new HttpEndpoint(CoreHelper.asPublicNetwork("25.25.25.25"), "http://alfa", newAgentIden());
+    private static final HttpEndpoint BETA = new HttpEndpoint(CoreHelper.asPublicNetwork("25.25.25.26"), "http://beta", newAgentIden());
+
+    private List<List<Message>> posted;
+    private HttpBatches batches;
+
+    @Before
+    public void setup() {
+        posted = new CopyOnWriteArrayList<List<Message>>();
+    }
+
+    @After
+    public void after() {
+        if (batches != null)
+            batches.close();
+    }
+
+    @Test
+    public void shouldBeDisabledByDefault() {
+        assertFalse(new HttpBatches(sink()).isEnabled());
+        assertTrue(new HttpBatches(5, 32, sink()).isEnabled());
+    }
+
+    @Test
+    public void shouldPostWhenTheBatchIsFull() {
+        batches = new HttpBatches(10000, 3, sink());
+
+        for (int i = 0; i < 3; i++)
+            batches.add(new NullGateway(), ALFA, newMessage());
+
+        assertEquals(1, posted.size());
+        assertEquals(3, posted.get(0).size());
+        assertEquals(0, batches.pending());
+    }
+
+    @Test
+    public void shouldBatchPerDestination() {
+        batches = new HttpBatches(10000, 32, sink());
+
+        batches.add(new NullGateway(), ALFA, newMessage());
+        batches.add(new NullGateway(), BETA, newMessage());
+        batches.add(new NullGateway(), ALFA, newMessage());
+        batches.flush();
+
+        assertEquals(2, posted.size());
+        assertEquals(3, posted.get(0).size() + posted.get(1).size());
+    }
+
+    @Test
+    public void shouldPostAfterTheLingerTime() throws Exception {
+        batches = new HttpBatches(5, 32, sink());
+
+        AsyncReceipt receipt = batches.add(new NullGateway(), ALFA, newMessage());
+        assertEquals(Message.Status.PENDING, receipt.getStatus());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (posted.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(1, posted.size());
+        assertEquals(0, batches.pending());
+    }
+
+    private HttpBatches.Sink sink() {
+        return new HttpBatches.Sink() {
+            @Override
+            public void post(HttpEndpoint endpoint, List<Message> messages, List<AsyncReceipt> receipts) {
+                posted.add(new ArrayList<Message>(messages));
+            }
+        };
+    }
+
+    private Message newMessage() {
+        return new MessageBuilder(Message.Type.APP, newAgentIden(), ALFA.getTarget()).make();
+    }
+
+    private static Iden newAgentIden() {
+        return new Iden(Iden.Type.AGT, UUID.randomUUID());
+    }
+}
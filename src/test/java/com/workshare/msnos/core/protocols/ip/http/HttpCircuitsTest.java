@@ -0,0 +1,118 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import static com.workshare.msnos.core.CoreHelper.fakeElapseTime;
+import static com.workshare.msnos.core.CoreHelper.fakeSystemTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.core.CoreHelper;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.protocols.ip.http.HttpCircuits.State;
+import com.workshare.msnos.soup.time.SystemTime;
+
+public class HttpCircuitsTest {
+
+    private static final HttpEndpoint ENDPOINT = new HttpEndpoint(CoreHelper.asPublicNetwork("25.25.25.25"), "http://alfa", new Iden(Iden.Type.AGT, UUID.randomUUID()));
+
+    private HttpCircuits circuits;
+
+    @Before
+    public void setup() {
+        fakeSystemTime(12345L);
+        circuits = new HttpCircuits(3, 1000L, 500L);
+    }
+
+    @After
+    public void after() {
+        SystemTime.reset();
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        fail(3);
+
+        assertEquals(State.OPEN, circuits.state(ENDPOINT));
+        assertFalse(circuits.allow(ENDPOINT));
+        assertEquals(1, circuits.opened());
+        assertEquals(1, circuits.rejected());
+        assertEquals(1, circuits.openCount());
+    }
+
+    @Test
+    public void shouldNotOpenWhenFailuresAreNotConsecutive() {
+        fail(2);
+        circuits.success(ENDPOINT, 10);
+        fail(2);
+
+        assertEquals(State.CLOSED, circuits.state(ENDPOINT));
+        assertTrue(circuits.allow(ENDPOINT));
+    }
+
+    @Test
+    public void shouldCountSlowRequestsAsFailures() {
+        for (int i = 0; i < 3; i++)
+            circuits.success(ENDPOINT, 500);
+
+        assertEquals(State.OPEN, circuits.state(ENDPOINT));
+    }
+
+    @Test
+    public void shouldLetASingleRequestThroughWhenHalfOpen() {
+        fail(3);
+        fakeElapseTime(1000L);
+
+        assertTrue(circuits.allow(ENDPOINT));
+        assertEquals(State.HALF_OPEN, circuits.state(ENDPOINT));
+        assertFalse(circuits.allow(ENDPOINT));
+    }
+
+    @Test
+    public void shouldCloseWhenTheProbeSucceeds() {
+        fail(3);
+        fakeElapseTime(1000L);
+        circuits.allow(ENDPOINT);
+
+        circuits.success(ENDPOINT, 10);
+
+        assertEquals(State.CLOSED, circuits.state(ENDPOINT));
+        assertEquals(1, circuits.closed());
+        assertEquals(0, circuits.openCount());
+    }
+
+    @Test
+    public void shouldOpenAgainWhenTheProbeFails() {
+        fail(3);
+        fakeElapseTime(1000L);
+        circuits.allow(ENDPOINT);
+
+        circuits.failure(ENDPOINT);
+
+        assertEquals(State.OPEN, circuits.state(ENDPOINT));
+        assertFalse(circuits.allow(ENDPOINT));
+        assertEquals(2, circuits.opened());
+    }
+
+    @Test
+    public void shouldAlwaysAllowWhenDisabled() {
+        circuits = new HttpCircuits(0, 1000L, 500L);
+
+        fail(10);
+
+        assertTrue(circuits.allow(ENDPOINT));
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(circuits.allow(ENDPOINT));
+            circuits.failure(ENDPOINT);
+        }
+    }
+}
@@ -6,19 +6,29 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.UUID;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
+import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.apache.http.util.EntityUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
 import com.workshare.msnos.core.Cloud;
 import com.workshare.msnos.core.CoreHelper;
@@ -36,12 +46,15 @@ import com.workshare.msnos.core.protocols.ip.Endpoints;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
 import com.workshare.msnos.core.protocols.ip.www.HttpClientHelper;
 import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.soup.time.SystemTime;
 
 public class HttpGatewayTest {
 
     private static final Iden AGENT_SMITH = newIden(AGT);
     private static final String AGENT_SMITH_URL = "http://agents.smith:123/foo";
 
+    private static final long CIRCUIT_OPEN_MILLIS = 30000l;
+
     private static final String SAMPLE_HOST = "21.21.21.21";
     private static final HttpEndpoint SAMPLE_ENDPOINT = new HttpEndpoint(CoreHelper.asPublicNetwork(SAMPLE_HOST), "http://123.com", newIden(AGT));
 
@@ -49,6 +62,7 @@ public class HttpGatewayTest {
     private Cloud cloud;
     private HttpClientHelper http;
     private WireJsonSerializer sz;
+    private ArgumentCaptor<FutureCallback<HttpResponse>> asyncCallback;
     
     @Before
     public void setup() throws Exception {
@@ -65,6 +79,11 @@ public class HttpGatewayTest {
         installEndpoint("25.25.25.25", AGENT_SMITH, AGENT_SMITH_URL);
     }
 
+    @After
+    public void after() throws Exception {
+        SystemTime.reset();
+    }
+
     @Test
     public void shouldReturnInstallableEndpoints() throws Exception {
 
@@ -157,6 +176,146 @@ public class HttpGatewayTest {
     }
 
 
+    @Test
+    public void shouldReturnPendingReceiptWhenSendingAsynchronously() throws Exception {
+        HttpAsyncClient async = mock(HttpAsyncClient.class);
+        gate = new HttpGateway(http.client(), async);
+        installEndpoint("25.25.25.25", AGENT_SMITH, AGENT_SMITH_URL);
+
+        Message message = newSampleMessage(newIden(AGT), AGENT_SMITH);
+        Receipt receipt = gate.send(cloud, message, null);
+
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(async).execute(request.capture(), Mockito.<FutureCallback<HttpResponse>>any());
+        assertEquals(AGENT_SMITH_URL, request.getValue().getURI().toString());
+        assertEquals(toText(message), toText(((HttpPost) request.getValue()).getEntity()));
+        assertEquals(Message.Status.PENDING, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldSettleAsynchronousReceiptOnResponse() throws Exception {
+        Receipt receipt = sendAsync();
+
+        asyncCallback.getValue().completed(http.response());
+
+        assertEquals(Message.Status.DELIVERED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldSettleAsynchronousReceiptOnFailure() throws Exception {
+        Receipt receipt = sendAsync();
+
+        asyncCallback.getValue().failed(new IOException("boom!"));
+
+        assertEquals(Message.Status.FAILED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldFailImmediatelyWhenTheCircuitIsOpen() throws Exception {
+        when(http.client().execute(any(HttpUriRequest.class))).thenThrow(new IOException("boom!"));
+        for (int i = 0; i < 3; i++)
+            gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        Receipt receipt = gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        assertEquals(Message.Status.FAILED, receipt.getStatus());
+        verify(http.client(), times(3)).execute(any(HttpUriRequest.class));
+        assertEquals(1, gate.openCircuits());
+        assertEquals(1, gate.circuitRejections());
+    }
+
+    @Test
+    public void shouldProbeAgainWhenTheHalfOpenProbeThrows() throws Exception {
+        when(http.client().execute(any(HttpUriRequest.class))).thenThrow(new IOException("boom!"));
+        for (int i = 0; i < 3; i++)
+            gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        doThrow(new IllegalStateException("boom!")).when(http.client()).execute(any(HttpUriRequest.class));
+        CoreHelper.fakeElapseTime(CIRCUIT_OPEN_MILLIS + 1);
+        Receipt probe = gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+        assertEquals(Message.Status.FAILED, probe.getStatus());
+
+        CoreHelper.fakeElapseTime(CIRCUIT_OPEN_MILLIS + 1);
+        gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        verify(http.client(), times(5)).execute(any(HttpUriRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void shouldProbeAgainWhenTheHalfOpenProbeIsCancelled() throws Exception {
+        HttpAsyncClient async = mock(HttpAsyncClient.class);
+        gate = new HttpGateway(http.client(), async);
+        installEndpoint("25.25.25.25", AGENT_SMITH, AGENT_SMITH_URL);
+        asyncCallback = (ArgumentCaptor) ArgumentCaptor.forClass(FutureCallback.class);
+        for (int i = 0; i < 3; i++)
+            gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+        verify(async, times(3)).execute(any(HttpUriRequest.class), asyncCallback.capture());
+        for (FutureCallback<HttpResponse> callback : asyncCallback.getAllValues())
+            callback.failed(new IOException("boom!"));
+
+        CoreHelper.fakeElapseTime(CIRCUIT_OPEN_MILLIS + 1);
+        Receipt probe = gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+        verify(async, times(4)).execute(any(HttpUriRequest.class), asyncCallback.capture());
+        asyncCallback.getValue().cancelled();
+        assertEquals(Message.Status.FAILED, probe.getStatus());
+
+        CoreHelper.fakeElapseTime(CIRCUIT_OPEN_MILLIS + 1);
+        gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        verify(async, times(5)).execute(any(HttpUriRequest.class), any(FutureCallback.class));
+    }
+
+    @Test
+    public void shouldFailWhenTheEndpointIsOverloaded() throws Exception {
+        StatusLine status = mock(StatusLine.class);
+        when(status.getStatusCode()).thenReturn(429);
+        when(http.response().getStatusLine()).thenReturn(status);
+
+        Receipt receipt = gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        assertEquals(Message.Status.FAILED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldPostBatchedMessagesOnePerLine() throws Exception {
+        System.setProperty(HttpBatches.SYSP_BATCH_LINGER, "10000");
+        System.setProperty(HttpBatches.SYSP_BATCH_MAX_MESSAGES, "2");
+        try {
+            gate = new HttpGateway(http.client());
+            installEndpoint("25.25.25.25", AGENT_SMITH, AGENT_SMITH_URL);
+
+            Message one = newSampleMessage(newIden(AGT), AGENT_SMITH);
+            Message two = newSampleMessage(newIden(AGT), AGENT_SMITH);
+            Receipt first = gate.send(cloud, one, null);
+            assertEquals(Message.Status.PENDING, first.getStatus());
+            Receipt second = gate.send(cloud, two, null);
+
+            HttpPost request = http.getLastPostToWWW();
+            assertEquals(AGENT_SMITH_URL, request.getURI().toString());
+            assertEquals(toText(one) + "\n" + toText(two) + "\n", toText(request.getEntity()));
+            assertEquals(Message.Status.DELIVERED, first.getStatus());
+            assertEquals(Message.Status.DELIVERED, second.getStatus());
+        } finally {
+            System.clearProperty(HttpBatches.SYSP_BATCH_LINGER);
+            System.clearProperty(HttpBatches.SYSP_BATCH_MAX_MESSAGES);
+            gate.close();
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Receipt sendAsync() throws Exception {
+        HttpAsyncClient async = mock(HttpAsyncClient.class);
+        gate = new HttpGateway(http.client(), async);
+        installEndpoint("25.25.25.25", AGENT_SMITH, AGENT_SMITH_URL);
+
+        Receipt receipt = gate.send(cloud, newSampleMessage(newIden(AGT), AGENT_SMITH), null);
+
+        asyncCallback = (ArgumentCaptor) ArgumentCaptor.forClass(FutureCallback.class);
+        verify(async).execute(any(HttpUriRequest.class), asyncCallback.capture());
+        return receipt;
+    }
+
     private String toText(Message message) {
         return sz.toText(message);
     }
@@ -0,0 +1,113 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+
+public class MessagesEntityTest {
+
+    private static final ContentType CONTENT_TYPE = ContentType.create("text/plain", Consts.UTF_8);
+
+    private WireJsonSerializer sz = new WireJsonSerializer();
+
+    @Test
+    public void shouldWriteASingleMessage() throws Exception {
+        Message message = newMessage();
+
+        MessagesEntity entity = new MessagesEntity(sz, Collections.singletonList(message), CONTENT_TYPE);
+
+        assertEquals(sz.toText(message), written(entity));
+        assertEquals(sz.encode(message).length, entity.getContentLength());
+        assertEquals(CONTENT_TYPE.toString(), entity.getContentType().getValue());
+    }
+
+    @Test
+    public void shouldWriteABatchOfMessagesOnePerLine() throws Exception {
+        Message one = newMessage();
+        Message two = newMessage();
+
+        MessagesEntity entity = new MessagesEntity(sz, Arrays.asList(one, two), CONTENT_TYPE);
+
+        final String expected = sz.toText(one) + "\n" + sz.toText(two) + "\n";
+        assertEquals(expected, written(entity));
+        assertEquals(expected, EntityUtils.toString(entity));
+        assertEquals(expected.getBytes("UTF-8").length, entity.getContentLength());
+    }
+
+    @Test
+    public void shouldShareTheEncodedFormOfTheMessage() throws Exception {
+        Message message = newMessage();
+
+        assertSame(sz.encode(message), sz.encode(message));
+    }
+
+    @Test
+    public void shouldProduceContentAcrossPartialWrites() throws Exception {
+        Message one = newMessage();
+        Message two = newMessage();
+        MessagesEntity entity = new MessagesEntity(sz, Arrays.asList(one, two), CONTENT_TYPE);
+
+        SlowEncoder encoder = new SlowEncoder(7);
+        while (!encoder.isCompleted())
+            entity.produceContent(encoder, null);
+
+        assertEquals(sz.toText(one) + "\n" + sz.toText(two) + "\n", new String(encoder.out.toByteArray(), "UTF-8"));
+        assertTrue(entity.isRepeatable());
+    }
+
+    private String written(MessagesEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private Message newMessage() {
+        return new MessageBuilder(Message.Type.APP, new Iden(Iden.Type.AGT, UUID.randomUUID()), new Iden(Iden.Type.AGT, UUID.randomUUID())).make();
+    }
+
+    private static class SlowEncoder implements ContentEncoder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int chunk;
+        private boolean completed;
+
+        SlowEncoder(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final int size = Math.min(chunk, src.remaining());
+            for (int i = 0; i < size; i++)
+                out.write(src.get());
+            return size;
+        }
+
+        @Override
+        public void complete() throws IOException {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
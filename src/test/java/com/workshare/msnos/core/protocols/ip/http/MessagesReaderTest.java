@@ -0,0 +1,56 @@
+package com.workshare.msnos.core.protocols.ip.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+
+public class MessagesReaderTest {
+
+    private WireJsonSerializer sz = new WireJsonSerializer();
+
+    @Test
+    public void shouldReadASingleMessage() throws Exception {
+        Message message = newSampleMessage();
+
+        MessagesReader reader = new MessagesReader(sz, new StringReader(sz.toText(message)));
+
+        assertEquals(message.getUuid(), reader.next().getUuid());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void shouldReadASingleMessageSpanningManyLines() throws Exception {
+        Message message = newSampleMessage();
+        String pretty = sz.toText(message).replace("{", "{\n  ").replace(",", ",\n  ").replace("}", "\n}");
+
+        MessagesReader reader = new MessagesReader(sz, new StringReader(pretty));
+
+        assertEquals(message.getUuid(), reader.next().getUuid());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void shouldReadABatchOfMessagesOnePerLine() throws Exception {
+        Message one = newSampleMessage();
+        Message two = newSampleMessage();
+
+        MessagesReader reader = new MessagesReader(sz, new StringReader(sz.toText(one) + "\n" + sz.toText(two) + "\n\n"));
+
+        assertEquals(one.getUuid(), reader.next().getUuid());
+        assertEquals(two.getUuid(), reader.next().getUuid());
+        assertNull(reader.next());
+    }
+
+    private Message newSampleMessage() {
+        return new MessageBuilder(Message.Type.APP, new Iden(Iden.Type.AGT, UUID.randomUUID()), new Iden(Iden.Type.AGT, UUID.randomUUID())).with(UUID.randomUUID()).make();
+    }
+}
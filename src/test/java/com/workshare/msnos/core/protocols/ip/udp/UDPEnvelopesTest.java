@@ -0,0 +1,144 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UDPEnvelopesTest {
+
+    private InetAddress group;
+    private List<byte[]> sent;
+    private UDPEnvelopes envelopes;
+
+    @Before
+    public void setup() throws Exception {
+        group = InetAddress.getByName("230.31.32.33");
+        sent = new CopyOnWriteArrayList<byte[]>();
+    }
+
+    @After
+    public void after() {
+        if (envelopes != null)
+            envelopes.close();
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutLinger() {
+        assertFalse(new UDPEnvelopes(0, 32, sink()).isEnabled());
+        assertFalse(new UDPEnvelopes(2, 1, sink()).isEnabled());
+        assertTrue(new UDPEnvelopes(2, 32, sink()).isEnabled());
+    }
+
+    @Test
+    public void shouldHoldMessagesUntilFlushed() throws Exception {
+        envelopes = new UDPEnvelopes(10000, 32, sink());
+
+        envelopes.add(group, bytes(10, 1), 10, 512);
+        envelopes.add(group, bytes(20, 2), 20, 512);
+        assertEquals(0, sent.size());
+
+        envelopes.flush();
+
+        assertEquals(1, sent.size());
+        assertTrue(UDPEnvelopes.isEnvelope(sent.get(0), 0, sent.get(0).length));
+        List<byte[]> parts = UDPEnvelopes.open(sent.get(0), 0, sent.get(0).length);
+        assertEquals(2, parts.size());
+        assertArrayEquals(bytes(10, 1), parts.get(0));
+        assertArrayEquals(bytes(20, 2), parts.get(1));
+    }
+
+    @Test
+    public void shouldSendASingleMessageWithoutEnvelope() throws Exception {
+        envelopes = new UDPEnvelopes(10000, 32, sink());
+
+        envelopes.add(group, bytes(10, 1), 10, 512);
+        envelopes.flush();
+
+        assertEquals(1, sent.size());
+        assertArrayEquals(bytes(10, 1), sent.get(0));
+    }
+
+    @Test
+    public void shouldSendWhenTheMaximumNumberOfMessagesIsReached() throws Exception {
+        envelopes = new UDPEnvelopes(10000, 3, sink());
+
+        for (int i = 0; i < 3; i++)
+            envelopes.add(group, bytes(10, i), 10, 512);
+
+        assertEquals(1, sent.size());
+        assertEquals(3, UDPEnvelopes.open(sent.get(0), 0, sent.get(0).length).size());
+        assertEquals(0, envelopes.pending());
+    }
+
+    @Test
+    public void shouldNeverExceedThePacketSize() throws Exception {
+        envelopes = new UDPEnvelopes(10000, 32, sink());
+
+        for (int i = 0; i < 10; i++)
+            envelopes.add(group, bytes(100, i), 100, 333);
+        envelopes.flush();
+
+        int total = 0;
+        for (byte[] frame : sent) {
+            assertTrue(frame.length <= 333);
+            if (UDPEnvelopes.isEnvelope(frame, 0, frame.length)) {
+                total += UDPEnvelopes.open(frame, 0, frame.length).size();
+            } else {
+                assertEquals(100, frame.length);
+                total++;
+            }
+        }
+        assertEquals(10, total);
+    }
+
+    @Test
+    public void shouldSendAfterTheLingerTime() throws Exception {
+        envelopes = new UDPEnvelopes(5, 32, sink());
+
+        envelopes.add(group, bytes(10, 1), 10, 512);
+        envelopes.add(group, bytes(10, 2), 10, 512);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (sent.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+
+        assertEquals(1, sent.size());
+        assertEquals(0, envelopes.pending());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTruncatedEnvelopes() throws Exception {
+        envelopes = new UDPEnvelopes(10000, 32, sink());
+        envelopes.add(group, bytes(10, 1), 10, 512);
+        envelopes.add(group, bytes(10, 2), 10, 512);
+        envelopes.flush();
+
+        UDPEnvelopes.open(sent.get(0), 0, sent.get(0).length - 1);
+    }
+
+    private byte[] bytes(int size, int value) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private UDPEnvelopes.Sink sink() {
+        return new UDPEnvelopes.Sink() {
+            @Override
+            public void send(InetAddress address, byte[] data, int size) throws IOException {
+                sent.add(Arrays.copyOf(data, size));
+            }
+        };
+    }
+}
@@ -0,0 +1,132 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.soup.time.SystemTime;
+
+public class UDPFragmentsTest {
+
+    private static final int PACKET_SIZE = 100;
+
+    private AtomicLong now;
+    private UDPFragments fragments;
+
+    @Before
+    public void setup() {
+        now = new AtomicLong(1000L);
+        SystemTime.setTimeSource(new SystemTime.TimeSource() {
+            @Override
+            public long millis() {
+                return now.get();
+            }
+
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                now.addAndGet(millis);
+            }
+        });
+
+        fragments = new UDPFragments(5000L, 1000L);
+    }
+
+    @After
+    public void after() {
+        SystemTime.reset();
+    }
+
+    @Test
+    public void shouldReassembleFragmentsInAnyOrder() {
+        byte[] data = randomBytes(200);
+        byte[][] frames = fragment(UUID.randomUUID(), data);
+
+        assertEquals(3, frames.length);
+        assertNull(add(frames[2]));
+        assertNull(add(frames[0]));
+        assertArrayEquals(data, add(frames[1]));
+        assertEquals(0, fragments.pending());
+    }
+
+    @Test
+    public void shouldIgnoreDuplicatedFragments() {
+        byte[] data = randomBytes(150);
+        byte[][] frames = fragment(UUID.randomUUID(), data);
+
+        assertNull(add(frames[0]));
+        assertNull(add(frames[0]));
+        assertArrayEquals(data, add(frames[1]));
+    }
+
+    @Test
+    public void shouldIgnoreLateFragmentsOfCompletedMessages() {
+        byte[] data = randomBytes(150);
+        byte[][] frames = fragment(UUID.randomUUID(), data);
+        add(frames[0]);
+        assertArrayEquals(data, add(frames[1]));
+
+        assertNull(add(frames[0]));
+        assertEquals(0, fragments.pending());
+
+        now.addAndGet(5001L);
+        assertNull(add(frames[0]));
+        assertEquals(1, fragments.pending());
+    }
+
+    @Test
+    public void shouldDropIncompleteMessagesPastTheDeadline() {
+        byte[][] frames = fragment(UUID.randomUUID(), randomBytes(150));
+        add(frames[0]);
+
+        now.addAndGet(5001L);
+        add(fragment(UUID.randomUUID(), randomBytes(150))[0]);
+
+        assertEquals(1, fragments.expired());
+        assertEquals(1, fragments.pending());
+    }
+
+    @Test
+    public void shouldDropOldestMessagesWhenOutOfMemory() {
+        for (int i = 0; i < 20; i++)
+            add(fragment(UUID.randomUUID(), randomBytes(150))[0]);
+
+        assertTrue(fragments.pending() * (PACKET_SIZE - UDPFragments.HEADER_SIZE) <= 1000);
+        assertTrue(fragments.expired() > 0);
+    }
+
+    @Test
+    public void shouldRecogniseFragments() {
+        byte[] frame = fragment(UUID.randomUUID(), randomBytes(150))[0];
+
+        assertTrue(UDPFragments.isFragment(frame, 0, frame.length));
+    }
+
+    private byte[] add(byte[] frame) {
+        return fragments.add(frame, 0, frame.length);
+    }
+
+    private byte[][] fragment(UUID id, byte[] data) {
+        final int count = UDPFragments.count(data.length, PACKET_SIZE);
+        final byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = UDPFragments.fragment(id, i, count, data, data.length, PACKET_SIZE);
+            assertTrue(frames[i].length <= PACKET_SIZE);
+        }
+        return frames;
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
@@ -1,10 +1,15 @@
 package com.workshare.msnos.core.protocols.ip.udp;
 
+import static com.workshare.msnos.core.CoreHelper.asNetwork;
+import static com.workshare.msnos.core.CoreHelper.asPublicNetwork;
 import static com.workshare.msnos.core.CoreHelper.fakeSystemTime;
 import static com.workshare.msnos.core.CoreHelper.synchronousGatewayMulticaster;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -12,21 +17,29 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -39,6 +52,11 @@ import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.Message.Status;
 import com.workshare.msnos.core.MessageBuilder;
 import com.workshare.msnos.core.Receipt;
+import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.protocols.ip.Network;
 import com.workshare.msnos.core.protocols.ip.MulticastSocketFactory;
 import com.workshare.msnos.core.serializers.WireJsonSerializer;
 
@@ -50,6 +68,7 @@ public class UDPGatewayTest {
     private UDPGateway gate;
     private UDPServer server;
     private MulticastSocket socket;
+    private DatagramSocket unicast;
     private MulticastSocketFactory sockets;
     private List<Message> messages;
     private Cloud cloud;
@@ -64,11 +83,22 @@ public class UDPGatewayTest {
         socket = mock(MulticastSocket.class);
         sockets = mock(MulticastSocketFactory.class);
         when(sockets.create()).thenReturn(socket);
+        unicast = mock(DatagramSocket.class);
+        when(unicast.getLocalPort()).thenReturn(40000);
+        when(sockets.createUnicast()).thenReturn(unicast);
 
         cloud = mock(Cloud.class);
         when(cloud.getIden()).thenReturn(new Iden(Iden.Type.CLD, UUID.randomUUID()));
     }
 
+    @After
+    public void after() throws Exception {
+        System.clearProperty(UDPGateway.SYSP_UDP_GROUP_PER_CLOUD);
+        System.clearProperty(UDPPacer.SYSP_PACING_PPS);
+        if (gate != null)
+            gate.close();
+    }
+
     @Test
     public void shouldOpenTheSocket() throws Exception {
         System.setProperty(UDPGateway.SYSP_PORT_NUM, "2727");
@@ -79,6 +109,64 @@ public class UDPGatewayTest {
         verify(socket).bind(new InetSocketAddress(2727));
     }
 
+    @Test
+    public void shouldAdvertiseThePortOfAnExclusiveUnicastSocket() throws Exception {
+        gate();
+
+        verify(unicast).setReuseAddress(false);
+        verify(unicast).bind(new InetSocketAddress(0));
+        verify(server).listen(unicast);
+        for (Endpoint endpoint : gate().endpoints().all()) {
+            assertEquals(40000, endpoint.getPort() & 0xffff);
+        }
+    }
+
+    @Test
+    public void shouldAdvertiseNoPortWhenUnicastSocketIsUnavailable() throws Exception {
+        doThrow(new SocketException("boom!")).when(unicast).bind(any(InetSocketAddress.class));
+
+        gate();
+
+        verify(server, never()).listen(any(DatagramSocket.class));
+        for (Endpoint endpoint : gate().endpoints().all()) {
+            assertEquals(Endpoint.Type.UDP.defaultPort(), endpoint.getPort());
+        }
+    }
+
+    @Test
+    public void shouldReachOnlyTheAddressedGatewayWhenTwoShareTheSamePort() throws Exception {
+        System.setProperty(UDPGateway.SYSP_PORT_NUM, "47728");
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "1");
+        final List<Message> ones = new CopyOnWriteArrayList<Message>();
+        final List<Message> twos = new CopyOnWriteArrayList<Message>();
+        UDPGateway one = null;
+        UDPGateway two = null;
+        try {
+            one = newRealGateway(ones);
+            two = newRealGateway(twos);
+            final int port = unicastPortOf(two);
+            assertNotEquals(47728, port);
+            assertNotEquals(unicastPortOf(one), port);
+
+            final Message message = newSampleMessage();
+            final Network local = one.endpoints().all().iterator().next().getNetwork();
+            one.send(cloud, message, newRemoteAgent(new BaseEndpoint(Endpoint.Type.UDP, local, (short) port)));
+
+            for (int i = 0; i < 100 && twos.isEmpty(); i++)
+                Thread.sleep(20);
+            assertEquals(1, twos.size());
+            assertEquals(message.getUuid(), twos.get(0).getUuid());
+            assertTrue(ones.isEmpty());
+        } finally {
+            System.clearProperty(UDPGateway.SYSP_PORT_NUM);
+            System.clearProperty(UDPGateway.SYSP_PORT_WIDTH);
+            if (one != null)
+                one.close();
+            if (two != null)
+                two.close();
+        }
+    }
+
     @Test
     public void shouldJoinTheUDPGroup() throws Exception {
         System.setProperty(UDPGateway.SYSP_UDP_GROUP, "230.31.32.33");
@@ -173,10 +261,134 @@ public class UDPGatewayTest {
         }
     }
 
+    @Test
+    public void shouldJoinOneGroupPerCloudWhenRequested() throws Exception {
+        System.setProperty(UDPGateway.SYSP_UDP_GROUP, "230.31.32.33");
+        System.setProperty(UDPGateway.SYSP_UDP_GROUP_PER_CLOUD, "true");
+
+        gate().addListener(cloud, mock(Listener.class));
+
+        InetAddress expected = gate().groupOf(cloud.getIden().getUUID());
+        verify(socket).joinGroup(expected);
+        verify(socket, never()).joinGroup(InetAddress.getByName("230.31.32.33"));
+    }
+
+    @Test
+    public void shouldSendToTheCloudGroupWhenRequested() throws Exception {
+        System.setProperty(UDPGateway.SYSP_UDP_GROUP_PER_CLOUD, "true");
+        gate().addListener(cloud, mock(Listener.class));
+
+        gate().send(cloud, newSampleMessage(), null);
+
+        InetAddress expected = gate().groupOf(cloud.getIden().getUUID());
+        for (DatagramPacket packet : getSentPackets())
+            assertEquals(expected, packet.getAddress());
+    }
+
+    @Test
+    public void shouldDeriveDistinctMulticastGroupsFromCloudUUIDs() throws Exception {
+        System.setProperty(UDPGateway.SYSP_UDP_GROUP, "230.31.32.33");
+
+        InetAddress one = gate().groupOf(new UUID(1, 2));
+        InetAddress two = gate().groupOf(new UUID(3, 4));
+
+        assertTrue(one.isMulticastAddress());
+        assertEquals(230, one.getAddress()[0] & 0xff);
+        assertEquals(one, gate().groupOf(new UUID(1, 2)));
+        assertFalse(one.equals(two));
+    }
+
+    @Test
+    public void shouldSendUnicastToAgentsAdvertisingAPort() throws Exception {
+        System.setProperty(UDPGateway.SYSP_PORT_NUM, "2727");
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "3");
+        Network local = gate().endpoints().all().iterator().next().getNetwork();
+        RemoteAgent remote = newRemoteAgent(new BaseEndpoint(Endpoint.Type.UDP, local, (short) 2729));
+
+        gate().send(cloud, newSampleMessage(), remote);
+
+        List<DatagramPacket> packets = getSentPackets();
+        assertEquals(1, packets.size());
+        assertEquals(InetAddress.getByAddress(local.getAddress()), packets.get(0).getAddress());
+        assertEquals(2729, packets.get(0).getPort());
+    }
+
+    @Test
+    public void shouldSendToTheGroupWhenAgentAdvertisesNoPort() throws Exception {
+        System.setProperty(UDPGateway.SYSP_UDP_GROUP, "230.31.32.33");
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "3");
+        RemoteAgent remote = newRemoteAgent(new BaseEndpoint(Endpoint.Type.UDP, asPublicNetwork("25.25.25.25")));
+
+        gate().send(cloud, newSampleMessage(), remote);
+
+        List<DatagramPacket> packets = getSentPackets();
+        assertEquals(3, packets.size());
+        assertEquals(InetAddress.getByName("230.31.32.33"), packets.get(0).getAddress());
+    }
+
+    @Test
+    public void shouldPreferIPv4UnicastEndpoints() throws Exception {
+        Endpoint ipv6 = new BaseEndpoint(Endpoint.Type.UDP, new Network(new byte[16], (short) 64), (short) 2727);
+        Endpoint ipv4 = new BaseEndpoint(Endpoint.Type.UDP, asPublicNetwork("25.25.25.25"), (short) 2727);
+
+        Set<Endpoint> locals = endpoints(new Network(new byte[16], (short) 64), asNetwork("25.25.25.1", (short) 24));
+
+        assertEquals(ipv4, UDPGateway.findUnicastEndpoint(newRemoteAgent(ipv6, ipv4), locals));
+    }
+
+    @Test
+    public void shouldPickTheUnicastEndpointOnOneOfOurNetworks() throws Exception {
+        Endpoint elsewhere = new BaseEndpoint(Endpoint.Type.UDP, asNetwork("25.25.25.25", (short) 24), (short) 2727);
+        Endpoint nearby = new BaseEndpoint(Endpoint.Type.UDP, asNetwork("10.0.0.7", (short) 24), (short) 2727);
+        Set<Endpoint> locals = endpoints(asNetwork("10.0.0.1", (short) 24));
+
+        assertEquals(nearby, UDPGateway.findUnicastEndpoint(newRemoteAgent(elsewhere, nearby), locals));
+    }
+
+    @Test
+    public void shouldFindNoUnicastEndpointOutsideOurNetworks() throws Exception {
+        Endpoint one = new BaseEndpoint(Endpoint.Type.UDP, asNetwork("25.25.25.25", (short) 24), (short) 2727);
+        Endpoint two = new BaseEndpoint(Endpoint.Type.UDP, asNetwork("10.0.1.7", (short) 24), (short) 2727);
+        Set<Endpoint> locals = endpoints(asNetwork("10.0.0.1", (short) 24));
+
+        assertNull(UDPGateway.findUnicastEndpoint(newRemoteAgent(one, two), locals));
+    }
+
+    @Test
+    public void shouldSendThroughThePacerWhenPacingIsEnabled() throws Exception {
+        System.setProperty(UDPPacer.SYSP_PACING_PPS, "1000");
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "1");
+        Message message = newSampleMessage();
+
+        gate().send(cloud, message, null);
+
+        ArgumentCaptor<DatagramPacket> packetCaptor = ArgumentCaptor.forClass(DatagramPacket.class);
+        verify(socket, timeout(1000)).send(packetCaptor.capture());
+        assertPacketValid(message, packetCaptor.getValue());
+        assertEquals(0, gate().pacingDropped());
+    }
+
     @Test
     public void shouldStartServer() throws Exception {
         gate();
-        verify(server).start(eq(socket), anyInt());
+        verify(server).start(eq(socket), anyInt(), any(UDPPorts.class));
+    }
+
+    @Test
+    public void shouldSendOnlyToLivePortsAfterProbing() throws Exception {
+        System.setProperty(UDPGateway.SYSP_PORT_NUM, "2727");
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "3");
+        gate();
+        ArgumentCaptor<UDPPorts> livePorts = ArgumentCaptor.forClass(UDPPorts.class);
+        verify(server).start(eq(socket), anyInt(), livePorts.capture());
+
+        gate().send(cloud, newSampleMessage(), null);
+        livePorts.getValue().seen(2728);
+        gate().send(cloud, newSampleMessage(), null);
+
+        List<DatagramPacket> packets = getSentPackets();
+        assertEquals(4, packets.size());
+        assertEquals(2728, packets.get(3).getPort());
     }
 
     @Test
@@ -210,6 +422,31 @@ public class UDPGatewayTest {
         gate().send(cloud, message, null);
     }
 
+    @Test
+    public void shouldSendUnsplittablePayloadsInASingleDatagramWhenEveryPeerAcceptsIt() throws IOException {
+        System.setProperty(UDPGateway.SYSP_PORT_WIDTH, "1");
+        System.setProperty(UDPGateway.SYSP_UDP_PACKET_SIZE, Integer.toString(333));
+        gate();
+        simulateMessageFromNetwork(new MessageBuilder(Message.Type.PRS, SOMEONE, cloud.getIden()).with(new Presence(true, new HashSet<Endpoint>(), 8192)).make());
+        Message message = getMessageWithPayload(new BigPayload(1000).unsplittable());
+
+        gate().send(cloud, message, null);
+
+        List<DatagramPacket> packets = getSentPackets();
+        assertEquals(1, packets.size());
+        assertPacketValid(message, packets.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenUnableToFitPayloadInADatagram() throws IOException {
+        System.setProperty(UDPGateway.SYSP_UDP_PACKET_SIZE, Integer.toString(333));
+        gate();
+        simulateMessageFromNetwork(new MessageBuilder(Message.Type.PRS, SOMEONE, cloud.getIden()).with(new Presence(true, new HashSet<Endpoint>(), 8192)).make());
+        Message message = getMessageWithPayload(new BigPayload(70000).unsplittable());
+
+        gate().send(cloud, message, null);
+    }
+
     @Test
     public void shouldStopServerAndCloseSocketOnClose() throws Exception {
         gate().close();
@@ -218,6 +455,19 @@ public class UDPGatewayTest {
     }
 
 
+    private Set<Endpoint> endpoints(Network... nets) {
+        Set<Endpoint> points = new HashSet<Endpoint>();
+        for (Network net : nets)
+            points.add(new BaseEndpoint(Endpoint.Type.UDP, net));
+        return points;
+    }
+
+    private RemoteAgent newRemoteAgent(Endpoint... points) {
+        RemoteAgent remote = mock(RemoteAgent.class);
+        when(remote.getEndpoints()).thenReturn(new HashSet<Endpoint>(Arrays.asList(points)));
+        return remote;
+    }
+
     private Message getMessageWithPayload(final BigPayload payload) {
         return new MessageBuilder(Message.Type.PRS, SOMEONE, ME).with(payload).make();
     }
@@ -229,7 +479,7 @@ public class UDPGatewayTest {
     }
 
     private void assertPacketValid(Message message, final DatagramPacket packet) {
-        byte[] actuals = packet.getData();
+        byte[] actuals = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
         byte[] expecteds = gate.serializer().toBytes(message);
         assertArrayEquals(expecteds, actuals);
     }
@@ -260,6 +510,24 @@ public class UDPGatewayTest {
         return gate;
     }
 
+    private UDPGateway newRealGateway(final List<Message> received) throws IOException {
+        final UDPGateway gateway = new UDPGateway(new MulticastSocketFactory(), new UDPServer(), synchronousGatewayMulticaster());
+        gateway.addListener(null, new Listener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message);
+            }
+        });
+
+        return gateway;
+    }
+
+    private int unicastPortOf(UDPGateway gateway) {
+        final Set<? extends Endpoint> all = gateway.endpoints().all();
+        assertFalse(all.isEmpty());
+        return all.iterator().next().getPort() & 0xffff;
+    }
+
     private void addListenerToGateway() throws IOException {
         gate().addListener(null, new Listener() {
             @Override
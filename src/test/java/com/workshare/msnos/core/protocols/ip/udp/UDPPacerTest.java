@@ -0,0 +1,114 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.soup.threading.ThreadFactories;
+import com.workshare.msnos.soup.time.SystemTime;
+
+public class UDPPacerTest {
+
+    private AtomicLong now;
+    private UDPPacer pacer;
+
+    @Before
+    public void setup() {
+        now = new AtomicLong(1000L);
+        SystemTime.setTimeSource(new SystemTime.TimeSource() {
+            @Override
+            public long millis() {
+                return now.get();
+            }
+
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                now.addAndGet(millis);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        if (pacer != null)
+            pacer.stop();
+        SystemTime.reset();
+    }
+
+    @Test
+    public void shouldBeDisabledWhenNoRateIsConfigured() {
+        assertFalse(new UDPPacer(0, 0, 100, 10).isEnabled());
+        assertTrue(new UDPPacer(10, 0, 100, 10).isEnabled());
+        assertTrue(new UDPPacer(0, 1000, 100, 10).isEnabled());
+    }
+
+    @Test
+    public void shouldSendABurstThenWaitForPacketTokens() {
+        pacer = new UDPPacer(100, 0, 100, 10);
+
+        for (int i = 0; i < 10; i++)
+            assertEquals(0, pacer.reserve(500, now.get()));
+
+        assertEquals(10, pacer.reserve(500, now.get()));
+        assertEquals(0, pacer.reserve(500, now.get() + 10));
+    }
+
+    @Test
+    public void shouldWaitForByteTokens() {
+        pacer = new UDPPacer(0, 10000, 100, 10);
+
+        assertEquals(0, pacer.reserve(1500, now.get()));
+        assertTrue(pacer.reserve(1500, now.get()) > 0);
+        assertEquals(0, pacer.reserve(1500, now.get() + 51));
+    }
+
+    @Test
+    public void shouldDropDatagramsWhenTheQueueIsFull() throws Exception {
+        pacer = new UDPPacer(10, 0, 100, 2);
+
+        assertTrue(pacer.offer(newPacket(100)));
+        assertTrue(pacer.offer(newPacket(100)));
+        assertFalse(pacer.offer(newPacket(100)));
+
+        assertEquals(2, pacer.queued());
+        assertEquals(1, pacer.dropped());
+    }
+
+    @Test
+    public void shouldSendQueuedDatagramsAtTheConfiguredRate() throws Exception {
+        final List<Long> times = new CopyOnWriteArrayList<Long>();
+        final CountDownLatch latch = new CountDownLatch(4);
+        pacer = new UDPPacer(10, 0, 100, 10);
+        for (int i = 0; i < 4; i++)
+            pacer.offer(newPacket(100));
+
+        pacer.start(ThreadFactories.DEFAULT, new UDPPacer.Sink() {
+            @Override
+            public void send(DatagramPacket packet) throws IOException {
+                times.add(now.get());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(300L, times.get(3) - times.get(0));
+        assertEquals(0, pacer.queued());
+    }
+
+    private DatagramPacket newPacket(int size) throws IOException {
+        return new DatagramPacket(new byte[size], size, InetAddress.getByName("230.31.32.33"), 3728);
+    }
+}
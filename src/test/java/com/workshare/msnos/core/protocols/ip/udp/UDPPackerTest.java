@@ -0,0 +1,95 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.protocols.ip.Network;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.core.serializers.WireSerializer;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class UDPPackerTest {
+
+    private static final Iden AGENT = new Iden(Iden.Type.AGT, UUID.randomUUID());
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private WireSerializer wire = new WireJsonSerializer();
+    private UDPPacker packer = new UDPPacker(512, 512);
+
+    @BeforeClass
+    public static void useLocalTimeSource() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+    }
+
+    @Test
+    public void shouldPackAllEndpointsInPartsSmallerThanThePacketSize() throws Exception {
+        Set<Endpoint> endpoints = newEndpoints(40);
+        Message message = new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints)).make();
+
+        List<Message> parts = packer.pack(wire, message);
+
+        Set<Endpoint> received = new HashSet<Endpoint>();
+        for (Message part : parts) {
+            assertTrue(UDPPacker.sizeOf(wire, part) <= 512);
+            received.addAll(((Presence) part.getData()).getEndpoints());
+        }
+        assertEquals(endpoints, received);
+    }
+
+    @Test
+    public void shouldUseAsFewPartsAsPossible() throws Exception {
+        List<RestApi> apis = new ArrayList<RestApi>();
+        for (int i = 0; i < 32; i++)
+            apis.add(new RestApi("/service/api/resource" + i, 8080));
+        Message message = new MessageBuilder(Message.Type.QNE, AGENT, CLOUD).with(new QnePayload("content", apis.toArray(new RestApi[0]))).make();
+
+        List<Message> parts = packer.pack(wire, message);
+
+        final int total = UDPPacker.sizeOf(wire, message);
+        assertTrue(parts.size() <= 1 + (2 * total) / 512);
+    }
+
+    @Test
+    public void shouldSendAnOversizedElementAlone() throws Exception {
+        Set<Endpoint> endpoints = newEndpoints(3);
+        UDPPacker tiny = new UDPPacker(64, 512);
+        Message message = new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints)).make();
+
+        List<Message> parts = tiny.pack(wire, message);
+
+        assertEquals(3, parts.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenAnElementExceedsWhatReceiversAccept() throws Exception {
+        Set<Endpoint> endpoints = newEndpoints(3);
+        UDPPacker tiny = new UDPPacker(64, 64);
+        Message message = new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints)).make();
+
+        tiny.pack(wire, message);
+    }
+
+    private Set<Endpoint> newEndpoints(int count) {
+        Set<Endpoint> endpoints = new HashSet<Endpoint>();
+        for (int i = 0; i < count; i++)
+            endpoints.add(new BaseEndpoint(Endpoint.Type.UDP, new Network(new byte[]{10, 0, (byte) (i / 200), (byte) i}, (short) 24), (short) 3728));
+        return endpoints;
+    }
+}
@@ -0,0 +1,83 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+
+public class UDPPeersTest {
+
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private UDPPeers peers = new UDPPeers();
+
+    @BeforeClass
+    public static void useLocalTimeSource() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+    }
+
+    @Test
+    public void shouldNotSpeakAnythingNewWhenNobodyWasHeard() {
+        assertFalse(peers.allAtLeast(Version.V1_0));
+    }
+
+    @Test
+    public void shouldSpeakTheOldestVersionHeard() {
+        peers.seen(new MessageBuilder(Message.Type.PIN, newAgentIden(), CLOUD).withVersion(Version.V1_3).make());
+        peers.seen(new MessageBuilder(Message.Type.PIN, newAgentIden(), CLOUD).withVersion(Version.V1_1).make());
+
+        assertTrue(peers.allAtLeast(Version.V1_1));
+        assertFalse(peers.allAtLeast(Version.V1_2));
+    }
+
+    @Test
+    public void shouldUseLegacyPacketSizeWhenNobodyWasHeard() {
+        assertEquals(UDPGateway.LEGACY_PACKET_SIZE, peers.packetSize(1472));
+    }
+
+    @Test
+    public void shouldUseTheSmallestPacketSizeAdvertised() {
+        peers.seen(newPresence(newAgentIden(), 1472));
+        peers.seen(newPresence(newAgentIden(), 1232));
+
+        assertEquals(1232, peers.packetSize(1472));
+        assertEquals(1000, peers.packetSize(1000));
+    }
+
+    @Test
+    public void shouldUseLegacyPacketSizeWhenSomebodyDidNotAdvertise() {
+        peers.seen(newPresence(newAgentIden(), 1472));
+        peers.seen(newPresence(newAgentIden(), null));
+
+        assertEquals(UDPGateway.LEGACY_PACKET_SIZE, peers.packetSize(1472));
+    }
+
+    @Test
+    public void shouldRememberPacketSizeAcrossOtherMessages() {
+        final Iden agent = newAgentIden();
+        peers.seen(newPresence(agent, 1472));
+        peers.seen(new MessageBuilder(Message.Type.PIN, agent, CLOUD).make());
+
+        assertEquals(1472, peers.packetSize(1472));
+    }
+
+    private Message newPresence(Iden from, Integer packetSize) {
+        return new MessageBuilder(Message.Type.PRS, from, CLOUD).with(new Presence(true, new HashSet<Endpoint>(), packetSize)).make();
+    }
+
+    private Iden newAgentIden() {
+        return new Iden(Iden.Type.AGT, UUID.randomUUID());
+    }
+}
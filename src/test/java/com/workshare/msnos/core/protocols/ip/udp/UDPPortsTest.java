@@ -0,0 +1,90 @@
+package com.workshare.msnos.core.protocols.ip.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.soup.time.SystemTime;
+
+public class UDPPortsTest {
+
+    private static final int[] ALL_PORTS = new int[]{3728, 3729, 3730};
+
+    private AtomicLong now;
+    private UDPPorts ports;
+
+    @Before
+    public void setup() {
+        now = new AtomicLong(1000L);
+        SystemTime.setTimeSource(new SystemTime.TimeSource() {
+            @Override
+            public long millis() {
+                return now.get();
+            }
+
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                now.addAndGet(millis);
+            }
+        });
+
+        ports = new UDPPorts(30000L, 10000L);
+    }
+
+    @After
+    public void after() {
+        SystemTime.reset();
+    }
+
+    @Test
+    public void shouldProbeAllPortsOnFirstSend() {
+        ports.seen(3729);
+
+        assertArrayEquals(ALL_PORTS, ports.targets(ALL_PORTS));
+    }
+
+    @Test
+    public void shouldSendToAllPortsWhenNoneIsKnownLive() {
+        ports.targets(ALL_PORTS);
+
+        assertArrayEquals(ALL_PORTS, ports.targets(ALL_PORTS));
+    }
+
+    @Test
+    public void shouldSendOnlyToLivePortsBetweenProbes() {
+        ports.targets(ALL_PORTS);
+        ports.seen(3730);
+        ports.seen(3728);
+
+        assertArrayEquals(new int[]{3728, 3730}, ports.targets(ALL_PORTS));
+    }
+
+    @Test
+    public void shouldProbeAllPortsPeriodically() {
+        ports.targets(ALL_PORTS);
+        ports.seen(3728);
+
+        now.addAndGet(10000L);
+
+        assertArrayEquals(ALL_PORTS, ports.targets(ALL_PORTS));
+        assertArrayEquals(new int[]{3728}, ports.targets(ALL_PORTS));
+    }
+
+    @Test
+    public void shouldForgetPortsNotSeenForAWhile() {
+        ports.targets(ALL_PORTS);
+        ports.seen(3728);
+        now.addAndGet(5000L);
+        ports.targets(ALL_PORTS);
+        ports.seen(3729);
+
+        now.addAndGet(26000L);
+        ports.targets(ALL_PORTS);
+
+        assertArrayEquals(new int[]{3729}, ports.targets(ALL_PORTS));
+    }
+}
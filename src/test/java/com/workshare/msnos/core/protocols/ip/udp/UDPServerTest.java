@@ -4,27 +4,40 @@ import com.workshare.msnos.core.Gateway.Listener;
 import com.workshare.msnos.core.Iden;
 import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.serializers.WireHeader;
 import com.workshare.msnos.soup.json.Json;
 import com.workshare.msnos.soup.threading.Multicaster;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.Stubber;
 
 import java.net.DatagramPacket;
+import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ThreadFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.*;
 
 @SuppressWarnings("unchecked")
 public class UDPServerTest {
 
+    private static final int SOURCE_PORT = 3729;
+
     private UDPServer server;
     private Thread thread;
     private MulticastSocket socket;
@@ -49,6 +62,13 @@ public class UDPServerTest {
         server = new UDPServer(threads, caster);
     }
 
+    @After
+    public void after() {
+        System.clearProperty(UDPServer.SYSP_UDP_WORKERS);
+        System.clearProperty(UDPServer.SYSP_UDP_QUEUE_SIZE);
+        System.clearProperty(UDPServer.SYSP_UDP_RCVBUF);
+    }
+
     @Test
     public void shouldStartTheadOnStart() {
         server.start(socket, 512);
@@ -102,6 +122,238 @@ public class UDPServerTest {
         assertEquals(toJson(message), toJson(getLastMessage()));
     }
 
+    @Test
+    public void shouldCountDroppedPackets() throws Exception {
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                DatagramPacket packet = (DatagramPacket) invocation.getArguments()[0];
+                packet.setData("garbage".getBytes());
+                return null;
+            }
+        }).doThrow(new IllegalArgumentException()).when(socket).receive(any(DatagramPacket.class));
+
+        server.start(socket, 512);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertEquals(1, server.received());
+        assertEquals(1, server.dropped());
+    }
+
+    @Test
+    public void shouldSetReceiveBufferSizeWhenConfigured() throws Exception {
+        System.setProperty(UDPServer.SYSP_UDP_RCVBUF, "262144");
+
+        server.start(socket, 512);
+
+        verify(socket).setReceiveBufferSize(262144);
+    }
+
+    @Test
+    public void shouldCountOverflowsWhenWorkersAreBusy() throws Exception {
+        System.setProperty(UDPServer.SYSP_UDP_WORKERS, "1");
+        System.setProperty(UDPServer.SYSP_UDP_QUEUE_SIZE, "1");
+        final Message message = newSampleMessage();
+        mockReceive(message, 2);
+
+        server.start(socket, 512);
+        try {
+            loopRunnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertEquals(2, server.received());
+        assertEquals(1, server.overflowed());
+        verify(caster, never()).dispatch(any(Message.class));
+    }
+
+    @Test
+    public void shouldDispatchFromWorkers() throws Exception {
+        System.setProperty(UDPServer.SYSP_UDP_WORKERS, "1");
+        final Message message = newSampleMessage();
+        mockReceive(message, 1);
+
+        server.start(socket, 512);
+        try {
+            loopRunnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        Thread worker = new Thread(runnableCaptor.getAllValues().get(0));
+        worker.start();
+        try {
+            verify(caster, timeout(1000)).dispatch(any(Message.class));
+            assertEquals(toJson(message), toJson(getLastMessage()));
+        } finally {
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void shouldDispatchOneMessageFromFragments() throws Exception {
+        final Message message = newSampleMessage();
+        final byte[] data = server.serializer().toBytes(message);
+        final int count = UDPFragments.count(data.length, 64);
+        Stubber stubber = null;
+        for (int i = 0; i < count; i++) {
+            final byte[] frame = UDPFragments.fragment(new UUID(1, 2), i, count, data, data.length, 64);
+            final Answer<Object> answer = new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    ((DatagramPacket) invocation.getArguments()[0]).setData(frame);
+                    return null;
+                }
+            };
+            stubber = (stubber == null ? doAnswer(answer) : stubber.doAnswer(answer));
+        }
+        stubber.doThrow(new IllegalArgumentException()).when(socket).receive(any(DatagramPacket.class));
+
+        server.start(socket, 512);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertTrue(count > 1);
+        verify(caster, times(1)).dispatch(any(Message.class));
+        assertEquals(toJson(message), toJson(getLastMessage()));
+    }
+
+    @Test
+    public void shouldRecordTheSourcePortOfPresences() throws Exception {
+        final UDPPorts ports = mock(UDPPorts.class);
+        final Iden iden = new Iden(Iden.Type.AGT, UUID.randomUUID());
+        mockReceive(new MessageBuilder(Message.Type.PRS, iden, iden).with(new Presence(true, new HashSet<Endpoint>())).make(), 1);
+
+        server.start(socket, 512, ports);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        verify(ports).seen(SOURCE_PORT);
+    }
+
+    @Test
+    public void shouldNotRecordTheSourcePortOfOtherMessages() throws Exception {
+        final UDPPorts ports = mock(UDPPorts.class);
+        mockReceive(newSampleMessage(), 1);
+
+        server.start(socket, 512, ports);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        verify(ports, never()).seen(anyInt());
+    }
+
+    @Test
+    public void shouldSkipFramesRejectedByTheFilter() throws Exception {
+        mockReceive(newSampleMessage(), 1);
+        server.setFilter(new UDPServer.Filter() {
+            @Override
+            public boolean accept(WireHeader header) {
+                return false;
+            }
+        });
+
+        server.start(socket, 512);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertEquals(1, server.filtered());
+        verify(caster, never()).dispatch(any(Message.class));
+    }
+
+    @Test
+    public void shouldDispatchFramesAcceptedByTheFilter() throws Exception {
+        final Message message = newSampleMessage();
+        mockReceive(message, 1);
+        server.setFilter(new UDPServer.Filter() {
+            @Override
+            public boolean accept(WireHeader header) {
+                return header.getUuid().equals(message.getUuid());
+            }
+        });
+
+        server.start(socket, 512);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertEquals(0, server.filtered());
+        verify(caster).dispatch(any(Message.class));
+    }
+
+    @Test
+    public void shouldDispatchEachMessageOfAnEnvelope() throws Exception {
+        final Message one = newSampleMessage();
+        final Message two = new MessageBuilder(Message.Type.PIN, one.getFrom(), one.getTo()).make();
+        final byte[][] frame = new byte[1][];
+        final UDPEnvelopes envelopes = new UDPEnvelopes(10000, 32, new UDPEnvelopes.Sink() {
+            @Override
+            public void send(InetAddress group, byte[] data, int size) {
+                frame[0] = Arrays.copyOf(data, size);
+            }
+        });
+        final byte[] oneBytes = server.serializer().toBytes(one);
+        final byte[] twoBytes = server.serializer().toBytes(two);
+        envelopes.add(InetAddress.getByName("230.31.32.33"), oneBytes, oneBytes.length, 1024);
+        envelopes.add(InetAddress.getByName("230.31.32.33"), twoBytes, twoBytes.length, 1024);
+        envelopes.flush();
+        envelopes.close();
+
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((DatagramPacket) invocation.getArguments()[0]).setData(frame[0]);
+                return null;
+            }
+        }).doThrow(new IllegalArgumentException()).when(socket).receive(any(DatagramPacket.class));
+
+        server.start(socket, 1024);
+        try {
+            runnable().run();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        assertEquals(1, server.received());
+        List<Message> messages = messageCaptor.getAllValues();
+        assertEquals(2, messages.size());
+        assertEquals(toJson(one), toJson(messages.get(0)));
+        assertEquals(toJson(two), toJson(messages.get(1)));
+    }
+
+    private void mockReceive(final Message message, int times) throws Exception {
+        Answer<Object> answer = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                DatagramPacket packet = (DatagramPacket) invocation.getArguments()[0];
+                packet.setData(server.serializer().toBytes(message));
+                packet.setPort(SOURCE_PORT);
+                return null;
+            }
+        };
+
+        Stubber stubber = doAnswer(answer);
+        for (int i = 1; i < times; i++)
+            stubber = stubber.doAnswer(answer);
+
+        stubber.doThrow(new IllegalArgumentException()).when(socket).receive(any(DatagramPacket.class));
+    }
+
+    private Runnable loopRunnable() {
+        List<Runnable> runnables = runnableCaptor.getAllValues();
+        return runnables.get(runnables.size() - 1);
+    }
+
     private String toJson(Message message) {
         return Json.toJsonString(message);
     }
@@ -0,0 +1,180 @@
+package com.workshare.msnos.core.protocols.ip.www;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+
+/**
+ * A stand-in for the WWW relay, keeping the messages of each cloud in
+ * memory. When streaming, a request with a wait parameter is held open and
+ * the messages are pushed as they arrive, until the wait time is over.
+ */
+public class LocalRelay {
+
+    private final WireJsonSerializer serializer = new WireJsonSerializer();
+    private final Map<String, List<Message>> clouds = new HashMap<String, List<Message>>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+
+    private volatile boolean streaming = true;
+    private volatile int gets;
+
+    public LocalRelay() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ping", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/api/1.0/messages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if ("POST".equals(exchange.getRequestMethod()))
+                        post(exchange);
+                    else
+                        get(exchange);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String root() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int gets() {
+        return gets;
+    }
+
+    public synchronized void add(UUID cloud, Message message) {
+        messages(cloud.toString()).add(message);
+        notifyAll();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void post(HttpExchange exchange) throws IOException {
+        final UUID cloud = UUID.fromString(query(exchange).get("cloud"));
+        final BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.length() > 0)
+                add(cloud, serializer.fromText(line, Message.class));
+        }
+
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void get(HttpExchange exchange) throws IOException, InterruptedException {
+        gets++;
+        final Map<String, String> query = query(exchange);
+        final String cloud = query.get("cloud");
+        final String wait = query.get("wait");
+
+        int next = after(cloud, query.get("message"));
+        if (!streaming || wait == null) {
+            exchange.sendResponseHeaders(200, 0);
+            write(exchange.getResponseBody(), from(cloud, next));
+            return;
+        }
+
+        exchange.getResponseHeaders().add(WWWGateway.STREAM_HEADER, "true");
+        exchange.sendResponseHeaders(200, 0);
+
+        final long deadline = System.currentTimeMillis() + Long.parseLong(wait);
+        while (true) {
+            final List<Message> messages;
+            synchronized (this) {
+                long remaining;
+                while (messages(cloud).size() <= next && (remaining = deadline - System.currentTimeMillis()) > 0)
+                    wait(remaining);
+
+                messages = from(cloud, next);
+            }
+
+            if (messages.isEmpty())
+                return;
+
+            write(exchange.getResponseBody(), messages);
+            next += messages.size();
+        }
+    }
+
+    private void write(OutputStream out, List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            out.write(serializer.toBytes(message));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private synchronized int after(String cloud, String uuid) {
+        final List<Message> messages = messages(cloud);
+        if (uuid != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getUuid().toString().equals(uuid))
+                    return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private synchronized List<Message> from(String cloud, int index) {
+        final List<Message> messages = messages(cloud);
+        return new ArrayList<Message>(messages.subList(Math.min(index, messages.size()), messages.size()));
+    }
+
+    private List<Message> messages(String cloud) {
+        List<Message> messages = clouds.get(cloud);
+        if (messages == null) {
+            messages = new ArrayList<Message>();
+            clouds.put(cloud, messages);
+        }
+        return messages;
+    }
+
+    private Map<String, String> query(HttpExchange exchange) {
+        final Map<String, String> params = new HashMap<String, String>();
+        final String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                final int i = param.indexOf('=');
+                if (i > 0)
+                    params.put(param.substring(0, i), param.substring(i + 1));
+            }
+        }
+        return params;
+    }
+}
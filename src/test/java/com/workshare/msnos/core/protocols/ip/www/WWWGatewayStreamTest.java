@@ -0,0 +1,165 @@
+package com.workshare.msnos.core.protocols.ip.www;
+
+import static com.workshare.msnos.core.CoreHelper.synchronousGatewayMulticaster;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Gateway;
+import com.workshare.msnos.core.Gateway.Listener;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.soup.threading.ExecutorServices;
+
+public class WWWGatewayStreamTest {
+
+    private static final UUID CLOUD_UUID = UUID.randomUUID();
+
+    private LocalRelay relay;
+    private CloseableHttpClient client;
+    private ScheduledExecutorService scheduler;
+    private WWWSynchronizer synchro;
+    private Cloud cloud;
+    private List<Message> rxMessages;
+    private WWWGateway gate;
+
+    @Before
+    public void setup() throws Exception {
+        relay = new LocalRelay();
+        client = HttpClients.createDefault();
+        scheduler = mock(ScheduledExecutorService.class);
+        synchro = mock(WWWSynchronizer.class);
+        when(synchro.init(any(Cloud.class))).thenReturn(mock(WWWSynchronizer.Processor.class));
+        cloud = new Cloud(CLOUD_UUID, " ", Collections.<Gateway>emptySet());
+        rxMessages = new CopyOnWriteArrayList<Message>();
+
+        System.setProperty(WWWGateway.SYSP_ADDRESS, relay.root());
+        System.setProperty(WWWGateway.SYSP_RX_STREAM, "true");
+        System.setProperty(WWWGateway.SYSP_RX_STREAM_WAIT, "500");
+    }
+
+    @After
+    public void after() throws Exception {
+        System.clearProperty(WWWGateway.SYSP_ADDRESS);
+        System.clearProperty(WWWGateway.SYSP_RX_STREAM);
+        System.clearProperty(WWWGateway.SYSP_RX_STREAM_WAIT);
+        if (gate != null)
+            gate.close();
+        client.close();
+        relay.stop();
+    }
+
+    @Test
+    public void shouldReceiveMessagesAsTheyArrive() throws Exception {
+        start();
+        waitUntilStreaming();
+
+        Message message = newMessage();
+        relay.add(CLOUD_UUID, message);
+
+        waitForMessages(1);
+        assertEquals(message.getUuid(), rxMessages.get(0).getUuid());
+    }
+
+    @Test
+    public void shouldResumeFromTheLastMessageAfterReconnecting() throws Exception {
+        start();
+        waitUntilStreaming();
+
+        relay.add(CLOUD_UUID, newMessage());
+        waitForMessages(1);
+        Thread.sleep(600);
+        relay.add(CLOUD_UUID, newMessage());
+        waitForMessages(2);
+
+        Thread.sleep(600);
+        assertEquals(2, rxMessages.size());
+    }
+
+    @Test
+    public void shouldKeepStreamingWhileTheRelayIsSilentLongerThanTheSocketTimeout() throws Exception {
+        client.close();
+        client = HttpClients.custom().setDefaultRequestConfig(RequestConfig.custom().setSocketTimeout(100).build()).build();
+        start();
+        waitUntilStreaming();
+
+        Thread.sleep(300);
+        relay.add(CLOUD_UUID, newMessage());
+
+        waitForMessages(1);
+        assertTrue(gate.isStreaming(cloud));
+    }
+
+    @Test
+    public void shouldFallBackToPollingWhenTheRelayCannotStream() throws Exception {
+        relay.setStreaming(false);
+        start();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (relay.gets() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Thread.sleep(50);
+        assertFalse(gate.isStreaming(cloud));
+
+        relay.add(CLOUD_UUID, newMessage());
+        pollTask().run();
+
+        assertEquals(1, rxMessages.size());
+    }
+
+    private void start() throws Exception {
+        gate = new WWWGateway(client, synchro, scheduler, ExecutorServices.newSynhcronousExecutor(), new WireJsonSerializer(), synchronousGatewayMulticaster());
+        gate.addListener(cloud, new Listener() {
+            @Override
+            public void onMessage(Message message) {
+                rxMessages.add(message);
+            }
+        });
+    }
+
+    private void waitUntilStreaming() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (relay.gets() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(gate.isStreaming(cloud));
+    }
+
+    private void waitForMessages(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (rxMessages.size() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, rxMessages.size());
+    }
+
+    private Runnable pollTask() {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleAtFixedRate(captor.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+        return captor.getValue();
+    }
+
+    private Message newMessage() {
+        return new MessageBuilder(Message.Type.PIN, cloud, cloud).make();
+    }
+}
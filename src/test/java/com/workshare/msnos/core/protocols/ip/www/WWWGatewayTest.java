@@ -4,11 +4,13 @@ import static com.workshare.msnos.core.CoreHelper.synchronousGatewayMulticaster;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -19,6 +21,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -50,6 +54,7 @@ import com.workshare.msnos.core.MessageBuilder;
 import com.workshare.msnos.core.Receipt;
 import com.workshare.msnos.core.serializers.WireJsonSerializer;
 import com.workshare.msnos.core.serializers.WireSerializer;
+import com.workshare.msnos.soup.threading.ExecutorServices;
 
 public class WWWGatewayTest {
 
@@ -89,7 +94,7 @@ public class WWWGatewayTest {
         processor = mock(WWWSynchronizer.Processor.class);
         when(synchro.init(any(Cloud.class))).thenReturn(processor);
         
-        gate = new WWWGateway(client(), synchro , scheduler, serializer, synchronousGatewayMulticaster());
+        gate = new WWWGateway(client(), synchro , scheduler, ExecutorServices.newSynhcronousExecutor(), serializer, synchronousGatewayMulticaster());
         gate.addListener(cloud, new Listener() {
             @Override
             public void onMessage(Message message) {
@@ -162,6 +167,115 @@ public class WWWGatewayTest {
 
     }
 
+    @Test
+    public void shouldSendMessagesAfterTheLingerTime() throws Exception {
+        gate.send(cloud, message(uuid1), null);
+        gate.send(cloud, message(uuid2), null);
+
+        lingerTask().run();
+
+        HttpPost request = http.getLastPostToWWW();
+        assertEquals(messagesRequestUrl(cloud), request.getURI().toString());
+        assertEquals(toText(uuid1) + toText(uuid2), toText(request.getEntity()));
+    }
+
+    @Test
+    public void shouldShutDownTheExecutorAndSendNothingOnceClosed() throws Exception {
+        ExecutorService executor = ExecutorServices.newFixedDaemonThreadPool(1);
+        scheduler = mock(ScheduledExecutorService.class);
+        gate = new WWWGateway(client(), synchro, scheduler, executor, serializer, synchronousGatewayMulticaster());
+
+        gate.close();
+        gate.send(cloud, message(uuid1), null);
+        scheduledTask().run();
+
+        assertTrue(executor.isShutdown());
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        assertNull(http.getLastPostToWWW());
+    }
+
+    @Test
+    public void shouldSendMessagesStraightAwayWhenEnoughAreQueued() throws Exception {
+        System.setProperty(WWWGateway.SYSP_TX_QUEUE_SIZE, "2");
+        try {
+            gate = new WWWGateway(client(), synchro, scheduler, ExecutorServices.newSynhcronousExecutor(), serializer, synchronousGatewayMulticaster());
+        } finally {
+            System.clearProperty(WWWGateway.SYSP_TX_QUEUE_SIZE);
+        }
+
+        gate.send(cloud, message(uuid1), null);
+        assertNull(http.getLastPostToWWW());
+        gate.send(cloud, message(uuid2), null);
+
+        assertEquals(toText(uuid1) + toText(uuid2), toText(http.getLastPostToWWW().getEntity()));
+    }
+
+    @Test
+    public void shouldSendAgainOnceTheSendInProgressIsOver() throws Exception {
+        final CountDownLatch release = blockFirstPost();
+        gate.send(cloud, message(uuid1), null);
+        Thread sending = asyncRun(lingerTask());
+        sleep(100l);
+
+        gate.send(cloud, message(uuid2), null);
+        scheduledTask().run();
+        assertEquals(1, http.getAllRequestToWWW(HttpPost.class).size());
+
+        release.countDown();
+        waitFor(sending);
+        assertEquals(2, http.getAllRequestToWWW(HttpPost.class).size());
+    }
+
+    @Test
+    public void shouldWaitForTheSendInProgressBeforeSendingOnClose() throws Exception {
+        final CountDownLatch release = blockFirstPost();
+        gate.send(cloud, message(uuid1), null);
+        Thread sending = asyncRun(lingerTask());
+        sleep(100l);
+
+        gate.send(cloud, message(uuid2), null);
+        Thread closing = asyncRun(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.close();
+                } catch (IOException ignore) {
+                }
+            }
+        });
+        sleep(100l);
+        assertTrue(closing.isAlive());
+
+        release.countDown();
+        waitFor(sending, closing);
+        assertEquals(2, http.getAllRequestToWWW(HttpPost.class).size());
+    }
+
+    @Test
+    public void shouldReceiveWhileSendingIsInProgress() throws Exception {
+        scheduler = mock(ScheduledExecutorService.class);
+        gate = new WWWGateway(client(), synchro, scheduler, ExecutorServices.newFixedDaemonThreadPool(4), serializer, synchronousGatewayMulticaster());
+        gate.addListener(cloud, mock(Listener.class));
+        gate.send(cloud, message(uuid1), null);
+
+        final AtomicInteger gets = new AtomicInteger(0);
+        when(client().execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[0] instanceof HttpPost)
+                    sleep(1000l);
+                else
+                    gets.incrementAndGet();
+                return response();
+            }
+        });
+
+        scheduledTask().run();
+        sleep(250l);
+
+        assertEquals(1, gets.get());
+    }
+
     @Test
     public void shouldInvokeGetMessagesOnSync() throws Exception {
         scheduledTask().run();
@@ -267,6 +381,20 @@ public class WWWGatewayTest {
     }
 
 
+    private CountDownLatch blockFirstPost() throws IOException, ClientProtocolException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger posts = new AtomicInteger(0);
+        when(client().execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[0] instanceof HttpPost && posts.incrementAndGet() == 1)
+                    release.await(5, TimeUnit.SECONDS);
+                return response();
+            }
+        });
+        return release;
+    }
+
     private void mockExceptionResponse() throws IOException, ClientProtocolException {
         when(client().execute(any(HttpUriRequest.class))).thenThrow(new IOException("boom!"));
     }
@@ -307,9 +435,17 @@ public class WWWGatewayTest {
         return captor.getValue();
     }
 
+    private Runnable lingerTask() {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(captor.capture(), anyLong(), any(TimeUnit.class));
+        return captor.getValue();
+    }
+
     private Message message(UUID uuid) {
         final Message msg = mock(Message.class);
         when(msg.getUuid()).thenReturn(uuid);
+        when(msg.getType()).thenReturn(Message.Type.APP);
+        when(msg.getWhen()).thenReturn(System.currentTimeMillis());
         return msg;
     }
 
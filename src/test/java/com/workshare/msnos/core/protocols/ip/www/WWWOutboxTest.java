@@ -0,0 +1,139 @@
+package com.workshare.msnos.core.protocols.ip.www;
+
+import static com.workshare.msnos.core.CoreHelper.fakeSystemTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.HealthcheckPayload;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.soup.time.SystemTime;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class WWWOutboxTest {
+
+    private static final long NOW = 1000000L;
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private WWWOutbox outbox;
+
+    @Before
+    public void setup() {
+        fakeSystemTime(NOW);
+        outbox = new WWWOutbox(4, 60000L);
+    }
+
+    @After
+    public void after() {
+        SystemTime.reset();
+    }
+
+    @Test
+    public void shouldKeepOnlyTheLatestPresenceOfAnAgent() {
+        Iden agent = newAgent();
+        outbox.offer(message(Message.Type.PRS, agent, NOW - 10));
+        Message latest = message(Message.Type.PRS, agent, NOW);
+
+        outbox.offer(latest);
+
+        assertEquals(1, outbox.size());
+        assertSame(latest, outbox.poll());
+        assertEquals(1, outbox.coalesced());
+    }
+
+    @Test
+    public void shouldKeepOnlyTheLatestHealthcheckAboutAnAgent() {
+        Iden about = newAgent();
+        outbox.offer(healthcheck(newAgent(), about, false));
+        Message latest = healthcheck(newAgent(), about, true);
+
+        outbox.offer(latest);
+
+        assertEquals(1, outbox.size());
+        assertSame(latest, outbox.poll());
+    }
+
+    @Test
+    public void shouldNeverCoalesceOtherMessages() {
+        Iden agent = newAgent();
+        outbox.offer(message(Message.Type.PIN, agent, NOW));
+        outbox.offer(message(Message.Type.PIN, agent, NOW));
+        outbox.offer(message(Message.Type.PRS, newAgent(), NOW));
+
+        assertEquals(3, outbox.size());
+        assertEquals(0, outbox.evicted());
+    }
+
+    @Test
+    public void shouldKeepEveryPublishOfAMicroservice() {
+        Iden agent = newAgent();
+        Message first = new MessageBuilder(Message.Type.QNE, agent, CLOUD).with(new QnePayload("svc", new RestApi("/one", 8881))).at(NOW).make();
+        Message second = new MessageBuilder(Message.Type.QNE, agent, CLOUD).with(new QnePayload("svc", new RestApi("/two", 8882))).at(NOW).make();
+
+        outbox.offer(first);
+        outbox.offer(second);
+
+        assertEquals(2, outbox.size());
+        assertSame(first, outbox.poll());
+        assertSame(second, outbox.poll());
+        assertEquals(0, outbox.coalesced());
+    }
+
+    @Test
+    public void shouldDropMessagesTooOldToBeAccepted() {
+        outbox.offer(message(Message.Type.APP, newAgent(), NOW - 60000L));
+        Message fresh = message(Message.Type.APP, newAgent(), NOW);
+        outbox.offer(fresh);
+
+        assertSame(fresh, outbox.poll());
+        assertNull(outbox.poll());
+        assertEquals(1, outbox.expired());
+    }
+
+    @Test
+    public void shouldDropTheOldestMessagesWhenFull() {
+        Message first = message(Message.Type.APP, newAgent(), NOW);
+        outbox.offer(first);
+        for (int i = 0; i < 4; i++)
+            outbox.offer(message(Message.Type.APP, newAgent(), NOW));
+
+        assertEquals(4, outbox.size());
+        assertEquals(1, outbox.dropped());
+        for (Message message : outbox)
+            assertNotSame(first, message);
+    }
+
+    @Test
+    public void shouldCountEverythingEvicted() {
+        Iden agent = newAgent();
+        outbox.offer(message(Message.Type.PRS, agent, NOW));
+        outbox.offer(message(Message.Type.PRS, agent, NOW));
+        outbox.offer(message(Message.Type.APP, newAgent(), NOW - 60000L));
+        outbox.poll();
+        outbox.poll();
+
+        assertEquals(2, outbox.evicted());
+    }
+
+    private Message message(Message.Type type, Iden from, long when) {
+        return new MessageBuilder(type, from, CLOUD).at(when).make();
+    }
+
+    private Message healthcheck(Iden from, Iden about, boolean working) {
+        return new MessageBuilder(Message.Type.HCK, from, CLOUD).with(new HealthcheckPayload(about, working)).at(NOW).make();
+    }
+
+    private Iden newAgent() {
+        return new Iden(Iden.Type.AGT, UUID.randomUUID());
+    }
+}
@@ -0,0 +1,108 @@
+package com.workshare.msnos.core.receipts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Gateway;
+import com.workshare.msnos.core.LocalAgent;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Message.Status;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.Receipt;
+import com.workshare.msnos.core.protocols.ip.NullGateway;
+
+public class AsyncReceiptTest {
+
+    private static final Message MESSAGE = new MessageBuilder(Message.Type.PIN, new LocalAgent(UUID.randomUUID()), new LocalAgent(UUID.randomUUID())).make();
+
+    private Gateway gate;
+    private List<Receipt> settled;
+
+    @Before
+    public void prepare() {
+        gate = new NullGateway();
+        settled = new ArrayList<Receipt>();
+    }
+
+    @Test
+    public void shouldBePendingUntilUpdated() throws Exception {
+        AsyncReceipt receipt = new AsyncReceipt(gate, MESSAGE);
+
+        assertEquals(Status.PENDING, receipt.getStatus());
+        assertFalse(receipt.isSettled());
+        assertTrue(AsyncReceipt.isUnsettled(receipt));
+    }
+
+    @Test
+    public void shouldRunCallbacksOnceWhenSettled() throws Exception {
+        AsyncReceipt receipt = new AsyncReceipt(gate, MESSAGE);
+        receipt.whenSettled(recorder());
+
+        receipt.update(new SingleReceipt(gate, Status.DELIVERED, MESSAGE));
+        assertEquals(Status.DELIVERED, settled.get(0).getStatus());
+
+        receipt.update(new SingleReceipt(gate, Status.FAILED, MESSAGE));
+        assertEquals(1, settled.size());
+    }
+
+    @Test
+    public void shouldRunCallbacksImmediatelyWhenAlreadySettled() throws Exception {
+        AsyncReceipt receipt = new AsyncReceipt(gate, MESSAGE);
+        receipt.update(new SingleReceipt(gate, Status.FAILED, MESSAGE));
+
+        receipt.whenSettled(recorder());
+
+        assertEquals(1, settled.size());
+        assertFalse(AsyncReceipt.isUnsettled(receipt));
+    }
+
+    @Test
+    public void shouldRunCallbacksImmediatelyOnSynchronousReceipts() throws Exception {
+        AsyncReceipt.whenSettled(new SingleReceipt(gate, Status.DELIVERED, MESSAGE), recorder());
+
+        assertEquals(1, settled.size());
+    }
+
+    @Test
+    public void shouldFollowAnotherReceipt() throws Exception {
+        AsyncReceipt receipt = new AsyncReceipt(gate, MESSAGE);
+        AsyncReceipt other = new AsyncReceipt("HTTP", MESSAGE);
+
+        receipt.follow(other);
+        assertFalse(receipt.isSettled());
+
+        other.update(new SingleReceipt(gate, Status.DELIVERED, MESSAGE));
+        assertEquals(Status.DELIVERED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldWakeUpWaitersWhenSettled() throws Exception {
+        final AsyncReceipt receipt = new AsyncReceipt(gate, MESSAGE);
+        new Thread() {
+            @Override
+            public void run() {
+                receipt.update(new SingleReceipt(gate, Status.DELIVERED, MESSAGE));
+            }
+        }.start();
+
+        assertTrue(receipt.waitForDelivery(5, TimeUnit.SECONDS));
+    }
+
+    private AsyncReceipt.Callback recorder() {
+        return new AsyncReceipt.Callback() {
+            @Override
+            public void onSettled(Receipt receipt) {
+                settled.add(receipt);
+            }
+        };
+    }
+}
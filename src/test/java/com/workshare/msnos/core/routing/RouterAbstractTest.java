@@ -15,6 +15,7 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -39,12 +41,14 @@ import com.workshare.msnos.core.Ring;
 import com.workshare.msnos.core.cloud.MessageValidators;
 import com.workshare.msnos.core.payloads.TracePayload;
 import com.workshare.msnos.core.payloads.TracePayload.Crumb;
+import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
 import com.workshare.msnos.core.protocols.ip.Endpoint;
 import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
 import com.workshare.msnos.core.protocols.ip.Network;
 import com.workshare.msnos.core.protocols.ip.http.HttpGateway;
 import com.workshare.msnos.core.protocols.ip.udp.UDPGateway;
 import com.workshare.msnos.core.protocols.ip.www.WWWGateway;
+import com.workshare.msnos.core.receipts.AsyncReceipt;
 import com.workshare.msnos.core.receipts.SingleReceipt;
 
 public abstract class RouterAbstractTest {
@@ -153,6 +157,23 @@ public abstract class RouterAbstractTest {
         assertSentOnlyViaUDP(message, 0);
     }
 
+    @Test
+    public void shouldGoViaUDPUnicastWithZeroHopsIfTargetInMyRingAdvertisesAPort() throws Exception {
+        Set<Endpoint> points = new HashSet<Endpoint>();
+        Endpoint unicast = new BaseEndpoint(Endpoint.Type.UDP, PUBLIC_HOST, (short) 3729);
+        points.add(unicast);
+        when(europeTwo.getEndpoints()).thenReturn(points);
+        when(udp.findUnicastEndpoint(europeTwo)).thenReturn(unicast);
+        Message message = newAPPMesage(asiaOne, europeTwo).withHops(10).make();
+
+        process(message);
+
+        verifyZeroInteractions(http);
+        Message sent = findMessageOrFail(messagesOn(udp, europeTwo), message);
+        assertEquals(0, sent.getHops());
+        assertEquals(1, anyMessagesOn(udp).size());
+    }
+
     @Test
     public void shouldGoViaHTTPWithZeroHopsIfTargetIsConnectedToMe() throws Exception {
         connecMyselfViaHTTPTo(usaTwo);
@@ -282,6 +303,81 @@ public abstract class RouterAbstractTest {
         assertSentViaUDP(message, MAXIMUM_HOPS_DIRECT);
     }
 
+    @Test
+    public void shouldFallbackToUDPOnlyWhenAsynchronousHttpSendFails() throws Exception {
+        connecMyselfViaHTTPTo(usaTwo);
+        Message message = newAPPMesage(asiaOne, usaTwo).withHops(10).make();
+        AsyncReceipt pending = new AsyncReceipt("HTTP", message);
+        when(http.send(any(Cloud.class), any(Message.class), any(Identifiable.class))).thenReturn(pending);
+
+        Receipt receipt = router().forward(message);
+        assertEquals(Message.Status.PENDING, receipt.getStatus());
+        verifyZeroInteractions(udp);
+
+        Receipt delivered = new SingleReceipt(udp, Message.Status.DELIVERED, message);
+        when(udp.send(any(Cloud.class), any(Message.class), any(Identifiable.class))).thenReturn(delivered);
+        pending.update(SingleReceipt.failure(message));
+
+        assertSentViaUDP(message, MAXIMUM_HOPS_DIRECT);
+        assertEquals(Message.Status.DELIVERED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldFallbackOnTheExecutorRatherThanOnTheSettlingThread() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        router = new Router(cloud, udp, http, www, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        connecMyselfViaHTTPTo(usaTwo);
+        Message message = newAPPMesage(asiaOne, usaTwo).withHops(10).make();
+        AsyncReceipt pending = new AsyncReceipt("HTTP", message);
+        when(http.send(any(Cloud.class), any(Message.class), any(Identifiable.class))).thenReturn(pending);
+
+        Receipt receipt = router().forward(message);
+        pending.update(SingleReceipt.failure(message));
+        verifyZeroInteractions(udp);
+
+        Receipt delivered = new SingleReceipt(udp, Message.Status.DELIVERED, message);
+        when(udp.send(any(Cloud.class), any(Message.class), any(Identifiable.class))).thenReturn(delivered);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        assertSentViaUDP(message, MAXIMUM_HOPS_DIRECT);
+        assertEquals(Message.Status.DELIVERED, receipt.getStatus());
+    }
+
+    @Test
+    public void shouldSettleAsDeliveredWhenAsynchronousHttpSendSucceeds() throws Exception {
+        connecMyselfViaHTTPTo(usaTwo);
+        Message message = newAPPMesage(asiaOne, usaTwo).withHops(10).make();
+        AsyncReceipt pending = new AsyncReceipt("HTTP", message);
+        when(http.send(any(Cloud.class), any(Message.class), any(Identifiable.class))).thenReturn(pending);
+
+        Receipt receipt = router().forward(message);
+        pending.update(new SingleReceipt(http, Message.Status.DELIVERED, message));
+
+        assertEquals(Message.Status.DELIVERED, receipt.getStatus());
+        assertEquals("HTTP", receipt.getGate());
+        verifyZeroInteractions(udp);
+    }
+
+    @Test
+    public void shouldFallbackToHTTPViaRingWhenAsynchronousHttpSendFails() throws Exception {
+        connecMyselfViaHTTPTo(usaTwo);
+        connecMyselfViaHTTPTo(usaTre);
+        Message message = newAPPMesage(asiaOne, usaTwo).withHops(10).make();
+        AsyncReceipt pending = new AsyncReceipt("HTTP", message);
+        when(http.send(any(Cloud.class), any(Message.class), eq(usaTwo))).thenReturn(pending);
+
+        router().forward(message);
+        pending.update(SingleReceipt.failure(message));
+
+        assertSentViaHTTP(message, 1, usaTre);
+    }
+
     @Test
     public void shouldSentTraceMessageCrumbed() throws Exception {
         Message message = new MessageBuilder(TRC, usaOne, asiaTwo).withHops(10).with(new TracePayload(newAgentIden())).make();
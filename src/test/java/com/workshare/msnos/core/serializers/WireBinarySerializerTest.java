@@ -0,0 +1,150 @@
+package com.workshare.msnos.core.serializers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.JsonPrimitive;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.Version;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.GenericPayload;
+import com.workshare.msnos.core.payloads.HealthcheckPayload;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.core.payloads.TracePayload;
+import com.workshare.msnos.core.protocols.ip.BaseEndpoint;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.protocols.ip.HttpEndpoint;
+import com.workshare.msnos.core.protocols.ip.Network;
+import com.workshare.msnos.core.protocols.ip.NullGateway;
+import com.workshare.msnos.core.security.KeysStore;
+import com.workshare.msnos.core.security.Signer;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class WireBinarySerializerTest {
+
+    private static final Iden AGENT = new Iden(Iden.Type.AGT, UUID.randomUUID());
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private static final Network SAMPLE_NETWORK = new Network(new byte[]{10,10,10,1}, (short)25);
+
+    private WireJsonSerializer json = new WireJsonSerializer();
+    private WireBinarySerializer sz = new WireBinarySerializer(json);
+
+    @BeforeClass
+    public static void useLocalTimeSource() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+    }
+
+    @Test
+    public void shouldEncodeAndDecodePresence() throws Exception {
+        Set<Endpoint> endpoints = new HashSet<Endpoint>();
+        endpoints.add(new BaseEndpoint(Endpoint.Type.UDP, SAMPLE_NETWORK, (short)3728));
+        endpoints.add(new HttpEndpoint(SAMPLE_NETWORK, "http://10.10.10.1:8080/path"));
+
+        assertRoundTrip(new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints)).make());
+    }
+
+    @Test
+    public void shouldEncodeAndDecodePresenceWithPacketSize() throws Exception {
+        Set<Endpoint> endpoints = new HashSet<Endpoint>();
+        endpoints.add(new BaseEndpoint(Endpoint.Type.UDP, SAMPLE_NETWORK, (short)3728));
+
+        assertRoundTrip(new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints, 1472)).make());
+    }
+
+    @Test
+    public void shouldEncodeAndDecodeQNE() throws Exception {
+        RestApi api = new RestApi("/path", 88, "host", RestApi.Type.HEALTHCHECK, true, 100);
+        assertRoundTrip(new MessageBuilder(Message.Type.QNE, AGENT, CLOUD).with(new QnePayload("test", api, new RestApi("/test", 7070))).make());
+    }
+
+    @Test
+    public void shouldEncodeAndDecodeOtherPayloads() throws Exception {
+        assertRoundTrip(new MessageBuilder(Message.Type.FLT, AGENT, CLOUD).with(new FltPayload(AGENT)).make());
+        assertRoundTrip(new MessageBuilder(Message.Type.HCK, AGENT, CLOUD).with(new HealthcheckPayload(AGENT, true)).make());
+        assertRoundTrip(new MessageBuilder(Message.Type.PON, AGENT, CLOUD).make());
+        assertRoundTrip(new MessageBuilder(Message.Type.ACK, AGENT, CLOUD).make());
+        assertRoundTrip(new MessageBuilder(Message.Type.TRC, AGENT, CLOUD).with(new TracePayload(AGENT).crumbed(UUID.randomUUID(), UUID.randomUUID(), new NullGateway(), 2)).make());
+        assertRoundTrip(new MessageBuilder(Message.Type.APP, AGENT, CLOUD).with(new GenericPayload(new JsonPrimitive("data"))).make());
+    }
+
+    @Test
+    public void shouldPreserveSignatureAndVersion() throws Exception {
+        Message source = new MessageBuilder(Message.Type.PIN, AGENT, CLOUD).withVersion(Version.V1_1).signed("key:signature", "random").withHops(2).make();
+
+        Message decoded = sz.fromBytes(sz.toBytes(source), Message.class);
+
+        assertEquals(Version.V1_1, decoded.getVersion());
+        assertEquals("key:signature", decoded.getSig());
+        assertEquals("random", decoded.getRnd());
+        assertEquals(2, decoded.getHops());
+    }
+
+    @Test
+    public void shouldDecodeJsonAsWell() throws Exception {
+        Message source = new MessageBuilder(Message.Type.FLT, AGENT, CLOUD).with(new FltPayload(AGENT)).make();
+
+        Message decoded = sz.fromBytes(json.toBytes(source), Message.class);
+
+        assertEquals(json.toText(source), json.toText(decoded));
+    }
+
+    @Test
+    public void shouldBeSmallerThanJson() throws Exception {
+        Message source = new MessageBuilder(Message.Type.FLT, AGENT, CLOUD).with(new FltPayload(AGENT)).make();
+
+        byte[] data = sz.toBytes(source);
+
+        assertTrue(WireBinarySerializer.isBinary(data, 0, data.length));
+        assertFalse(WireBinarySerializer.isBinary(json.toBytes(source), 0, data.length));
+        assertTrue(data.length * 2 < json.toBytes(source).length);
+    }
+
+    @Test
+    public void shouldKeepSignaturesValid() throws Exception {
+        Set<Endpoint> endpoints = new LinkedHashSet<Endpoint>();
+        for (int i = 20; i > 0; i--)
+            endpoints.add(new BaseEndpoint(i % 2 == 0 ? Endpoint.Type.UDP : Endpoint.Type.HTTP, new Network(new byte[]{10,10,10,(byte)i}, (short)24), (short)(3700 + i)));
+        Set<RestApi> apis = new LinkedHashSet<RestApi>();
+        for (int i = 20; i > 0; i--)
+            apis.add(new RestApi("/path" + i, 8000 + i));
+
+        assertSignatureSurvives(new MessageBuilder(Message.Type.PRS, AGENT, CLOUD).with(new Presence(true, endpoints)).make());
+        assertSignatureSurvives(new MessageBuilder(Message.Type.QNE, AGENT, CLOUD).with(new QnePayload("test", apis)).make());
+    }
+
+    private void assertSignatureSurvives(Message source) throws Exception {
+        Signer signer = new Signer(new KeysStore() {
+            @Override
+            public String get(String id) {
+                return "secret";
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return false;
+            }
+        });
+
+        Message decoded = sz.fromBytes(sz.toBytes(source), Message.class);
+
+        assertEquals(signer.signed(source, "key").getSig(), signer.signed(decoded, "key").getSig());
+    }
+
+    private void assertRoundTrip(Message source) {
+        Message decoded = sz.fromBytes(sz.toBytes(source), Message.class);
+        assertEquals(json.toText(source), json.toText(decoded));
+    }
+}
@@ -0,0 +1,90 @@
+package com.workshare.msnos.core.serializers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.JsonParseException;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class WireDeflateSerializerTest {
+
+    private static final Iden AGENT = new Iden(Iden.Type.AGT, UUID.randomUUID());
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private WireJsonSerializer json = new WireJsonSerializer();
+    private WireBinarySerializer binary = new WireBinarySerializer(json);
+
+    @BeforeClass
+    public static void useLocalTimeSource() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+    }
+
+    @Test
+    public void shouldCompressAndDecompressJson() throws Exception {
+        WireDeflateSerializer sz = new WireDeflateSerializer(json);
+        Message source = newQneMessage(16);
+
+        byte[] data = sz.toBytes(source);
+
+        assertTrue(WireDeflateSerializer.isCompressed(data, 0, data.length));
+        assertTrue(data.length * 3 < json.toBytes(source).length);
+        assertEquals(source, sz.fromBytes(data, Message.class));
+    }
+
+    @Test
+    public void shouldCompressAndDecompressBinary() throws Exception {
+        WireDeflateSerializer sz = new WireDeflateSerializer(binary);
+        Message source = newQneMessage(16);
+
+        byte[] data = sz.toBytes(source);
+
+        assertTrue(WireDeflateSerializer.isCompressed(data, 0, data.length));
+        assertEquals(json.toText(source), json.toText(sz.fromBytes(data, Message.class)));
+    }
+
+    @Test
+    public void shouldSendPlainWhenCompressionDoesNotHelp() throws Exception {
+        WireDeflateSerializer sz = new WireDeflateSerializer(binary);
+        Message source = new MessageBuilder(Message.Type.PIN, AGENT, CLOUD).make();
+
+        byte[] data = sz.toBytes(source);
+
+        assertArrayEquals(binary.toBytes(source), data);
+    }
+
+    @Test
+    public void shouldDecodePlainFramesAsWell() throws Exception {
+        WireDeflateSerializer sz = new WireDeflateSerializer(binary);
+        Message source = new MessageBuilder(Message.Type.FLT, AGENT, CLOUD).with(new FltPayload(AGENT)).make();
+
+        assertEquals(source, sz.fromBytes(json.toBytes(source), Message.class));
+        assertEquals(json.toText(source), json.toText(sz.fromBytes(binary.toBytes(source), Message.class)));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRejectTruncatedFrames() throws Exception {
+        WireDeflateSerializer sz = new WireDeflateSerializer(json);
+        byte[] data = sz.toBytes(newQneMessage(16));
+
+        sz.fromBytes(data, 0, data.length / 2, Message.class);
+    }
+
+    private Message newQneMessage(int count) {
+        RestApi[] apis = new RestApi[count];
+        for (int i = 0; i < count; i++)
+            apis[i] = new RestApi("/service/api/resource" + i, 8080);
+
+        return new MessageBuilder(Message.Type.QNE, AGENT, CLOUD).with(new QnePayload("content", apis)).make();
+    }
+}
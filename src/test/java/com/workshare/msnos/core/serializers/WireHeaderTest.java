@@ -0,0 +1,95 @@
+package com.workshare.msnos.core.serializers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.FltPayload;
+
+public class WireHeaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Iden AGENT = new Iden(Iden.Type.AGT, UUID.randomUUID());
+    private static final Iden CLOUD = new Iden(Iden.Type.CLD, UUID.randomUUID());
+
+    private WireJsonSerializer json = new WireJsonSerializer();
+    private WireBinarySerializer binary = new WireBinarySerializer(json);
+
+    @BeforeClass
+    public static void useLocalTimeSource() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+    }
+
+    @Test
+    public void shouldScanJsonHeader() throws Exception {
+        Message message = newSampleMessage();
+
+        byte[] data = json.toBytes(message);
+
+        assertHeader(message, WireHeader.scan(data, 0, data.length));
+    }
+
+    @Test
+    public void shouldScanBinaryHeader() throws Exception {
+        Message message = newSampleMessage();
+
+        byte[] data = binary.toBytes(message);
+
+        assertHeader(message, WireHeader.scan(data, 0, data.length));
+    }
+
+    @Test
+    public void shouldIgnoreNestedFieldsWhenScanningJson() throws Exception {
+        Iden other = new Iden(Iden.Type.AGT, UUID.randomUUID());
+        UUID uuid = UUID.randomUUID();
+        String text = "{\"dt\":{\"to\":\"" + toText(other) + "\",\"list\":[{\"fr\":\"x\"}]},"
+                + "\"fr\":\"" + toText(AGENT) + "\",\"to\":\"" + toText(CLOUD) + "\",\"ty\":\"APP\","
+                + "\"id\":\"" + WireJsonSerializer.serializeUUIDToShortString(uuid) + "\"}";
+
+        byte[] data = text.getBytes(UTF8);
+        WireHeader header = WireHeader.scan(data, 0, data.length);
+
+        assertEquals(AGENT, header.getFrom());
+        assertEquals(CLOUD, header.getTo());
+        assertEquals(uuid, header.getUuid());
+    }
+
+    @Test
+    public void shouldReturnNullOnIncompleteFrames() throws Exception {
+        byte[] data = "{\"fr\":\"AGT:123\"".getBytes(UTF8);
+        assertNull(WireHeader.scan(data, 0, data.length));
+
+        data = binary.toBytes(newSampleMessage());
+        assertNull(WireHeader.scan(data, 0, 20));
+    }
+
+    @Test
+    public void shouldReturnNullOnUnknownFrames() throws Exception {
+        byte[] data = new byte[]{1, 2, 3, 4};
+        assertNull(WireHeader.scan(data, 0, data.length));
+    }
+
+    private String toText(Iden iden) {
+        return iden.getType() + ":" + WireJsonSerializer.serializeUUIDToShortString(iden.getUUID());
+    }
+
+    private void assertHeader(Message message, WireHeader header) {
+        assertEquals(message.getType(), header.getType());
+        assertEquals(message.getFrom(), header.getFrom());
+        assertEquals(message.getTo(), header.getTo());
+        assertEquals(message.getUuid(), header.getUuid());
+    }
+
+    private Message newSampleMessage() {
+        return new MessageBuilder(Message.Type.FLT, AGENT, CLOUD).with(new FltPayload(AGENT)).make();
+    }
+}
@@ -0,0 +1,95 @@
+package com.workshare.msnos.core.serializers;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.payloads.FltPayload;
+
+/**
+ * Compares the hex codec of the wire serializer with the string based one it
+ * replaced, on the same kind of messages used by WireJsonSerializerTest.
+ *
+ * Run it with: mvn -Pbenchmarks test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.workshare.msnos.core.serializers.WireJsonSerializerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireJsonSerializerBenchmark {
+
+    private final WireJsonSerializer sz = new WireJsonSerializer();
+
+    private UUID uuid;
+    private String hex;
+    private String text;
+
+    @Setup
+    public void setup() {
+        System.setProperty("com.ws.nsnos.time.local", "true");
+
+        uuid = UUID.randomUUID();
+        hex = WireJsonSerializer.serializeUUIDToShortString(uuid);
+
+        final Iden agent = new Iden(Iden.Type.AGT, UUID.randomUUID());
+        final Iden cloud = new Iden(Iden.Type.CLD, UUID.randomUUID());
+        text = sz.toText(new MessageBuilder(Message.Type.FLT, agent, cloud).with(new FltPayload(agent)).make());
+    }
+
+    @Benchmark
+    public String encodeUUID() {
+        return WireJsonSerializer.serializeUUIDToShortString(uuid);
+    }
+
+    @Benchmark
+    public String encodeUUIDLegacy() {
+        return uuid.toString().replaceAll("-", "");
+    }
+
+    @Benchmark
+    public UUID decodeUUID() {
+        return WireJsonSerializer.deserializeUUIDFromShortString(hex);
+    }
+
+    @Benchmark
+    public UUID decodeUUIDLegacy() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(hex.substring(0, 8));
+        sb.append('-');
+        sb.append(hex.substring(8, 12));
+        sb.append('-');
+        sb.append(hex.substring(12, 16));
+        sb.append('-');
+        sb.append(hex.substring(16, 20));
+        sb.append('-');
+        sb.append(hex.substring(20));
+        return UUID.fromString(sb.toString());
+    }
+
+    @Benchmark
+    public Message decodeMessage() {
+        return sz.fromText(text, Message.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(WireJsonSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,9 +1,12 @@
 package com.workshare.msnos.core.serializers;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static com.workshare.msnos.core.CoreHelper.*;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.UUID;
@@ -12,6 +15,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.gson.JsonParseException;
 import com.workshare.msnos.core.Cloud;
 import com.workshare.msnos.core.Gateway;
 import com.workshare.msnos.core.LocalAgent;
@@ -230,6 +234,124 @@ public class WireJsonSerializerTest {
         assertEquals(expected, current);
     }
 
+    @Test
+    public void shouldKeepWireFormatStable() throws Exception {
+        final UUID uuid = UUID.randomUUID();
+        Message source = new MessageBuilder(Message.Type.FLT, A_AGENT_IDEN, A_CLOUD_IDEN).with(uuid).with(new FltPayload(A_AGENT_IDEN)).at(1234L).make();
+
+        String expected = "{\"v\":\"1.0\",\"fr\":\"" + idenText(A_AGENT_IDEN) + "\",\"to\":\"" + idenText(A_CLOUD_IDEN) + "\","
+                + "\"rx\":0,\"hp\":3,\"ty\":\"FLT\",\"ts\":1234,\"id\":\"" + toShortString(uuid) + "\","
+                + "\"dt\":{\"about\":\"" + idenText(A_AGENT_IDEN) + "\"}}";
+
+        assertEquals(expected, sz.toText(source));
+    }
+
+    @Test
+    public void shouldDecodePayloadSentBeforeMessageType() throws Exception {
+        Message source = new MessageBuilder(Message.Type.FLT, A_AGENT_IDEN, A_CLOUD_IDEN).with(new FltPayload(A_AGENT_IDEN)).make();
+        String text = sz.toText(source);
+
+        int dataIndex = text.indexOf(",\"dt\":");
+        String reordered = "{\"dt\":" + text.substring(dataIndex + 6, text.length() - 1) + "," + text.substring(1, dataIndex) + "}";
+        Message decoded = sz.fromText(reordered, Message.class);
+
+        assertEquals(source, decoded);
+    }
+
+    @Test
+    public void shouldDeserializeRestAPIWithCompactAffinity() throws Exception {
+        String text = "{\"ty\":\"PUB\",\"pa\":\"/path\",\"ho\":\"host\",\"po\":88,\"st\":1,\"xp\":100}";
+        RestApi current = sz.fromText(text, RestApi.class);
+
+        assertTrue(current.hasAffinity());
+        assertEquals(88, current.getPort());
+    }
+
+    @Test
+    public void shouldPreserveMessageVersion() throws Exception {
+        Message source = new MessageBuilder(Message.Type.PIN, A_AGENT_IDEN, A_CLOUD_IDEN).withVersion(Version.V1_1).make();
+
+        Message decoded = sz.fromText(sz.toText(source), Message.class);
+
+        assertEquals(Version.V1_1, decoded.getVersion());
+    }
+
+    @Test
+    public void shouldStreamTheSameBytesOfToBytes() throws Exception {
+        Message source = new MessageBuilder(Message.Type.QNE, localAgent, remoteAgent).with(new QnePayload("t\u00e8st", new RestApi("/test", 7070))).make();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sz.toStream(source, out);
+
+        assertArrayEquals(sz.toBytes(source), out.toByteArray());
+    }
+
+    @Test
+    public void shouldDecodeFromBufferSlice() throws Exception {
+        Message source = new MessageBuilder(Message.Type.QNE, localAgent, remoteAgent).with(new QnePayload("t\u00e8st", new RestApi("/test", 7070))).make();
+        byte[] data = sz.toBytes(source);
+        byte[] padded = new byte[data.length + 20];
+        System.arraycopy(data, 0, padded, 10, data.length);
+
+        Message decoded = sz.fromBuffer(ByteBuffer.wrap(padded, 10, data.length), Message.class);
+
+        assertEquals(source, decoded);
+    }
+
+    @Test
+    public void shouldReuseMemoizedEncoding() throws Exception {
+        Message source = new MessageBuilder(Message.Type.FLT, A_AGENT_IDEN, A_CLOUD_IDEN).with(new FltPayload(A_AGENT_IDEN)).make();
+        byte[] data = sz.toBytes(source);
+
+        assertArrayEquals(data, source.getEncoded(WireJsonSerializer.class));
+
+        source.setEncoded(WireJsonSerializer.class, "memo".getBytes("UTF-8"));
+        assertEquals("memo", sz.toText(source));
+    }
+
+    @Test
+    public void shouldEncodeUUIDAsPlainHex() throws Exception {
+        UUID uuid = UUID.randomUUID();
+
+        assertEquals(toShortString(uuid), WireJsonSerializer.serializeUUIDToShortString(uuid));
+        assertEquals("00000000000000000000000000000000", WireJsonSerializer.serializeUUIDToShortString(new UUID(0, 0)));
+        assertEquals("ffffffffffffffffffffffffffffffff", WireJsonSerializer.serializeUUIDToShortString(new UUID(-1, -1)));
+    }
+
+    @Test
+    public void shouldDecodeUUIDFromHexInAnyCase() throws Exception {
+        UUID uuid = UUID.randomUUID();
+
+        assertEquals(uuid, WireJsonSerializer.deserializeUUIDFromShortString(toShortString(uuid)));
+        assertEquals(uuid, WireJsonSerializer.deserializeUUIDFromShortString(toShortString(uuid).toUpperCase()));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRejectUUIDWithInvalidDigits() throws Exception {
+        WireJsonSerializer.deserializeUUIDFromShortString("0123456789abcdef0123456789abcdeg");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRejectUUIDWithInvalidLength() throws Exception {
+        WireJsonSerializer.deserializeUUIDFromShortString("0123456789abcdef");
+    }
+
+    @Test
+    public void shouldDecodeIdenIgnoringTrailingSuid() throws Exception {
+        Iden iden = new Iden(Iden.Type.AGT, UUID.randomUUID());
+
+        assertEquals(iden, sz.fromText("\"" + idenText(iden) + ":12345\"", Iden.class));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRejectIdenWithUnknownType() throws Exception {
+        sz.fromText("\"XYZ:" + toShortString(UUID.randomUUID()) + "\"", Iden.class);
+    }
+
+    private String idenText(Iden iden) {
+        return iden.getType() + ":" + toShortString(iden.getUUID());
+    }
+
 
     private String toShortString(UUID uuid) {
         return uuid.toString().replaceAll("-", "");
@@ -0,0 +1,44 @@
+package com.workshare.msnos.soup.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferOutputStreamTest {
+
+    @Test
+    public void shouldGrowWhenNeeded() throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(2);
+        out.write(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+        out.write(9);
+
+        assertEquals(4, out.size());
+        assertArrayEquals(new byte[]{2, 3, 4, 9}, out.toByteArray());
+    }
+
+    @Test
+    public void shouldExposeContentWithoutCopying() throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(8);
+        out.write(new byte[]{1, 2, 3}, 0, 3);
+
+        ByteBuffer buffer = out.toByteBuffer();
+
+        assertSame(out.array(), buffer.array());
+        assertEquals(3, buffer.remaining());
+    }
+
+    @Test
+    public void shouldReuseTheSameInstanceOnTheSameThread() throws Exception {
+        ByteBufferOutputStream one = ByteBufferOutputStream.local();
+        one.write(1);
+
+        ByteBufferOutputStream two = ByteBufferOutputStream.local();
+
+        assertSame(one, two);
+        assertEquals(0, two.size());
+    }
+}
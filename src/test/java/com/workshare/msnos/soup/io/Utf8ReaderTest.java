@@ -0,0 +1,59 @@
+package com.workshare.msnos.soup.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.junit.Test;
+
+public class Utf8ReaderTest {
+
+    private static final String SAMPLE = "plain ascii, \u00E0\u00E8\u00EC\u00F2\u00F9, \u4E2D\u6587 and \uD83D\uDE00";
+
+    @Test
+    public void shouldDecodeMultiByteSequences() throws Exception {
+        byte[] data = SAMPLE.getBytes("UTF-8");
+
+        assertEquals(SAMPLE, readAll(new Utf8Reader(data, 0, data.length), 1024));
+    }
+
+    @Test
+    public void shouldSplitSurrogatePairsAcrossReads() throws Exception {
+        byte[] data = SAMPLE.getBytes("UTF-8");
+
+        assertEquals(SAMPLE, readAll(new Utf8Reader(data, 0, data.length), 1));
+    }
+
+    @Test
+    public void shouldReadOnlyTheGivenRange() throws Exception {
+        byte[] data = "xxhelloxx".getBytes("UTF-8");
+
+        assertEquals("hello", readAll(new Utf8Reader(data, 2, 5), 16));
+    }
+
+    @Test
+    public void shouldReplaceMalformedInput() throws Exception {
+        byte[] data = new byte[]{'a', (byte) 0xC3, 'b'};
+
+        assertEquals("a\uFFFDb", readAll(new Utf8Reader(data, 0, data.length), 16));
+    }
+
+    @Test
+    public void shouldRoundTripWithWriter() throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(4);
+        Utf8Writer writer = new Utf8Writer(out);
+        writer.write(SAMPLE);
+
+        assertEquals(SAMPLE, new String(out.toByteArray(), "UTF-8"));
+    }
+
+    private String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = reader.read(buf, 0, chunk)) != -1)
+            sb.append(buf, 0, n);
+        return sb.toString();
+    }
+}
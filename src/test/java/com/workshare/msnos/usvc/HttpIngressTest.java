@@ -0,0 +1,185 @@
+package com.workshare.msnos.usvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class HttpIngressTest {
+
+    private Microcloud cloud;
+    private HttpIngress ingress;
+    private WireJsonSerializer sz;
+
+    @Before
+    public void prepare() {
+        cloud = mock(Microcloud.class);
+        sz = new WireJsonSerializer();
+    }
+
+    @After
+    public void after() {
+        if (ingress != null)
+            ingress.stop();
+    }
+
+    @Test
+    public void shouldExposeAnMsnosApi() throws Exception {
+        ingress = start(1, 1);
+
+        RestApi api = ingress.api();
+
+        assertEquals(RestApi.Type.MSNOS_HTTP, api.getType());
+        assertEquals(ingress.getPort(), api.getPort());
+        assertEquals("/msnos", api.getPath());
+    }
+
+    @Test
+    public void shouldProcessASingleMessage() throws Exception {
+        ingress = start(1, 16);
+        Message message = newMessage();
+
+        int status = post(sz.toText(message));
+
+        assertEquals(200, status);
+        ArgumentCaptor<Message> processed = ArgumentCaptor.forClass(Message.class);
+        verify(cloud, timeout(1000)).process(processed.capture(), any(Endpoint.Type.class));
+        assertEquals(message.getUuid(), processed.getValue().getUuid());
+    }
+
+    @Test
+    public void shouldProcessABatchOfMessages() throws Exception {
+        ingress = start(2, 16);
+        Message one = newMessage();
+        Message two = newMessage();
+
+        int status = post(sz.toText(one) + "\n" + sz.toText(two) + "\n");
+
+        assertEquals(200, status);
+        ArgumentCaptor<Message> processed = ArgumentCaptor.forClass(Message.class);
+        verify(cloud, timeout(1000).times(2)).process(processed.capture(), any(Endpoint.Type.class));
+        List<Message> values = processed.getAllValues();
+        assertEquals(2, values.size());
+    }
+
+    @Test
+    public void shouldAnswerTooManyRequestsWhenSaturated() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch busy = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                busy.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(cloud).process(any(Message.class), any(Endpoint.Type.class));
+
+        ingress = start(1, 1);
+        try {
+            assertEquals(200, post(sz.toText(newMessage())));
+            busy.await(5, TimeUnit.SECONDS);
+            assertEquals(200, post(sz.toText(newMessage())));
+
+            assertEquals(429, post(sz.toText(newMessage())));
+        } finally {
+            release.countDown();
+        }
+
+        verify(cloud, timeout(1000).times(2)).process(any(Message.class), any(Endpoint.Type.class));
+    }
+
+    @Test
+    public void shouldAnswerBadRequestOnMalformedMessages() throws Exception {
+        ingress = start(1, 16);
+
+        assertEquals(400, post("{\"v\":\"1.0\",\"fr\""));
+    }
+
+    @Test
+    public void shouldTellHowManyMessagesWereAcceptedBeforeARefusal() throws Exception {
+        ingress = start(1, 16);
+
+        HttpURLConnection conn = send(sz.toText(newMessage()) + "\n" + "{not json\n" + sz.toText(newMessage()));
+        try {
+            assertEquals(400, conn.getResponseCode());
+            assertEquals("1", conn.getHeaderField(HttpIngress.ACCEPTED_HEADER));
+        } finally {
+            conn.disconnect();
+        }
+
+        verify(cloud, timeout(1000)).process(any(Message.class), any(Endpoint.Type.class));
+    }
+
+    @Test
+    public void shouldAnswerBadRequestOnMessagesOfAnUnknownType() throws Exception {
+        ingress = start(1, 16);
+        String unknown = sz.toText(newMessage()).replace("\"ty\":\"APP\"", "\"ty\":\"XYZ\"");
+
+        HttpURLConnection conn = send(sz.toText(newMessage()) + "\n" + unknown);
+        try {
+            assertEquals(400, conn.getResponseCode());
+            assertEquals("1", conn.getHeaderField(HttpIngress.ACCEPTED_HEADER));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private HttpIngress start(int workers, int queueSize) throws IOException {
+        HttpIngress ingress = new HttpIngress(cloud, 0, "/msnos", workers, queueSize);
+        ingress.start();
+        return ingress;
+    }
+
+    private int post(String body) throws IOException {
+        HttpURLConnection conn = send(body);
+        try {
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private HttpURLConnection send(String body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + ingress.getPort() + "/msnos").openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        OutputStream out = conn.getOutputStream();
+        try {
+            out.write(body.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        return conn;
+    }
+
+    private Message newMessage() {
+        return new MessageBuilder(Message.Type.APP, new Iden(Iden.Type.AGT, UUID.randomUUID()), new Iden(Iden.Type.AGT, UUID.randomUUID())).make();
+    }
+}